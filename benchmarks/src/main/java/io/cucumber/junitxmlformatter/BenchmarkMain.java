@@ -0,0 +1,28 @@
+package io.cucumber.junitxmlformatter;
+
+import org.openjdk.jmh.Main;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks with the allocation profiler enabled, unless another
+ * profiler was selected.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("-prof")) {
+            Main.main(args);
+            return;
+        }
+        String[] withGcProfiler = new String[args.length + 2];
+        withGcProfiler[0] = "-prof";
+        withGcProfiler[1] = "gc";
+        System.arraycopy(args, 0, withGcProfiler, 2, args.length);
+        Main.main(withGcProfiler);
+    }
+}
@@ -0,0 +1,56 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of close, i.e. the time between the end of the run and
+ * the report being written.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CloseBenchmark {
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    @Param({"false", "true"})
+    public boolean parallelRendering;
+
+    private MessagesToJunitXmlWriter writer;
+
+    @Setup(Level.Invocation)
+    public void writeRun(SyntheticRunState run) throws IOException {
+        writer = MessagesToJunitXmlWriter.builder()
+                .streaming(streaming)
+                .parallelRendering(parallelRendering)
+                .build(OutputStream.nullOutputStream());
+        for (Envelope envelope : run.getEnvelopes()) {
+            writer.write(envelope);
+        }
+    }
+
+    @Benchmark
+    public void close() throws IOException {
+        writer.close();
+    }
+}
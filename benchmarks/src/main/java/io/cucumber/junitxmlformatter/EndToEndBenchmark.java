@@ -0,0 +1,91 @@
+package io.cucumber.junitxmlformatter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting a run from ndjson into a report, including reading and
+ * deserializing the messages.
+ * <p>
+ * The bytes of ndjson read and xml written are reported as secondary results,
+ * i.e. in bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    @Param({"false", "true"})
+    public boolean parallelRendering;
+
+    @Benchmark
+    public void convert(SyntheticRunState run, Bytes bytes) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder()
+                .streaming(streaming)
+                .parallelRendering(parallelRendering)
+                .build(out)) {
+            SyntheticRun.forEachEnvelope(run.getNdjson(), envelope -> {
+                try {
+                    writer.write(envelope);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        bytes.ndjsonBytesRead += bytes.ndjsonSize;
+        bytes.xmlBytesWritten += out.count;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long ndjsonBytesRead;
+        public long xmlBytesWritten;
+        private long ndjsonSize;
+
+        @Setup(Level.Iteration)
+        public void reset(SyntheticRunState run) throws IOException {
+            ndjsonBytesRead = 0;
+            xmlBytesWritten = 0;
+            ndjsonSize = Files.size(run.getNdjson());
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.cucumber.junitxmlformatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Character.offsetByCodePoints;
+
+/**
+ * Compares escaping illegal characters with the implementation it replaced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EscapeIllegalCharsBenchmark {
+
+    /**
+     * Length of the escaped string, from a step name to a large stack trace.
+     */
+    @Param({"64", "4096", "1048576"})
+    public int length;
+
+    /**
+     * Fraction of characters that are illegal in xml.
+     */
+    @Param({"0", "0.0001", "0.01"})
+    public double illegalCharDensity;
+
+    /**
+     * Fraction of characters outside of ASCII.
+     */
+    @Param({"0", "0.1"})
+    public double nonAsciiDensity;
+
+    private String value;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(202510170000L);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            double next = random.nextDouble();
+            if (next < illegalCharDensity) {
+                sb.append((char) random.nextInt(0x9));
+            } else if (next < illegalCharDensity + nonAsciiDensity) {
+                sb.append(random.nextBoolean() ? "\u00e9" : "\uD83D\uDE00");
+            } else if (sb.length() % 80 == 79) {
+                sb.append('\n');
+            } else {
+                sb.append((char) (' ' + random.nextInt(0x5F)));
+            }
+        }
+        value = sb.toString();
+    }
+
+    @Benchmark
+    public String escapeIllegalChars() {
+        return EscapingXmlStreamWriter.escapeIllegalChars(value);
+    }
+
+    @Benchmark
+    public String escapeIllegalCharsByCodePoint() {
+        return escapeIllegalCharsByCodePoint(value);
+    }
+
+    private static String escapeIllegalCharsByCodePoint(String value) {
+        boolean allAllowed = true;
+        for (int i = 0; i < value.length(); i = offsetByCodePoints(value, i, 1)) {
+            int codePoint = value.codePointAt(i);
+            if (!isLegal(codePoint)) {
+                allAllowed = false;
+                break;
+            }
+        }
+        if (allAllowed) {
+            return value;
+        }
+
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < value.length(); i = offsetByCodePoints(value, i, 1)) {
+            int codePoint = value.codePointAt(i);
+            if (isLegal(codePoint)) {
+                escaped.appendCodePoint(codePoint);
+            } else {
+                escaped.append("&#").append(codePoint).append(';');
+            }
+        }
+        return escaped.toString();
+    }
+
+    @SuppressWarnings("UnnecessaryParentheses")
+    private static boolean isLegal(int codePoint) {
+        return codePoint == 0x9
+                || codePoint == 0xA
+                || codePoint == 0xD
+                || (codePoint >= 0x20 && codePoint <= 0xD7FF)
+                || (codePoint >= 0xE000 && codePoint <= 0xFFFD)
+                || (codePoint >= 0x10000 && codePoint <= 0x10FFFF);
+    }
+}
@@ -0,0 +1,94 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing many small reports in one process, with a new writer for
+ * each report or a single writer that is reset between reports.
+ * <p>
+ * {@code report} measures the steady state cost per report, including the
+ * setup of the writer. {@code firstReport} measures the latency of the first
+ * report written by a fresh JVM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReuseBenchmark {
+
+    @Param({"10", "100"})
+    public int testCases;
+
+    @Param({"false", "true"})
+    public boolean reuse;
+
+    private List<Envelope> envelopes;
+    private MessagesToJunitXmlWriter writer;
+
+    @Setup
+    public void setup() throws IOException {
+        Path ndjson = Files.createTempFile("synthetic-run", ".ndjson");
+        try {
+            SyntheticRun.builder()
+                    .testCases(testCases)
+                    .build()
+                    .writeNdjson(ndjson);
+            envelopes = SyntheticRun.readEnvelopes(ndjson);
+        } finally {
+            Files.delete(ndjson);
+        }
+        writer = MessagesToJunitXmlWriter.builder().build(OutputStream.nullOutputStream());
+        writer.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        envelopes = null;
+        writer = null;
+    }
+
+    @Benchmark
+    public void report() throws IOException {
+        MessagesToJunitXmlWriter writer;
+        if (reuse) {
+            writer = this.writer;
+            writer.reset(OutputStream.nullOutputStream());
+        } else {
+            writer = MessagesToJunitXmlWriter.builder().build(OutputStream.nullOutputStream());
+        }
+        for (Envelope envelope : envelopes) {
+            writer.write(envelope);
+        }
+        writer.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public void firstReport() throws IOException {
+        report();
+    }
+}
@@ -0,0 +1,316 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates the messages of a test run with an arbitrary number of test
+ * cases.
+ * <p>
+ * The run is shaped like the compatibility kit's minimal and stack-traces
+ * samples: features with one scenario per test case, each step a pickle step,
+ * and failing steps with an exception and a stack trace. The messages are
+ * generated as ndjson, so they are deserialized the same way as those of a
+ * real run.
+ */
+final class SyntheticRun {
+
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+
+    private final int testCases;
+    private final int testCasesPerFeature;
+    private final int stepsPerTestCase;
+    private final double failureRatio;
+    private final int stackTraceLines;
+    private final double illegalCharDensity;
+    private final long seed;
+
+    private SyntheticRun(Builder builder) {
+        this.testCases = builder.testCases;
+        this.testCasesPerFeature = builder.testCasesPerFeature;
+        this.stepsPerTestCase = builder.stepsPerTestCase;
+        this.failureRatio = builder.failureRatio;
+        this.stackTraceLines = builder.stackTraceLines;
+        this.illegalCharDensity = builder.illegalCharDensity;
+        this.seed = builder.seed;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Writes the messages as ndjson, one test case at a time, so runs that do
+     * not fit in memory can be generated too.
+     */
+    void writeNdjson(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8)) {
+            forEachLine(line -> {
+                try {
+                    writer.write(line);
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    static List<Envelope> readEnvelopes(Path ndjson) throws IOException {
+        List<Envelope> envelopes = new ArrayList<>();
+        forEachEnvelope(ndjson, envelopes::add);
+        return envelopes;
+    }
+
+    static void forEachEnvelope(Path ndjson, Consumer<Envelope> consumer) throws IOException {
+        try (InputStream in = Files.newInputStream(ndjson);
+             NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
+            reader.lines().forEach(consumer);
+        }
+    }
+
+    private void forEachLine(Consumer<String> consumer) {
+        Random random = new Random(seed);
+        consumer.accept("{\"testRunStarted\":{\"timestamp\":" + timestamp(0) + ",\"id\":\"run\"}}");
+        long millis = 0;
+        for (int feature = 0; feature * testCasesPerFeature < testCases; feature++) {
+            int first = feature * testCasesPerFeature;
+            int last = Math.min(testCases, first + testCasesPerFeature);
+            String uri = "features/generated/feature-" + feature + ".feature";
+            consumer.accept(gherkinDocument(uri, feature, first, last));
+            for (int testCase = first; testCase < last; testCase++) {
+                consumer.accept(pickle(uri, testCase - first, testCase));
+                consumer.accept(testCase(testCase));
+            }
+            for (int testCase = first; testCase < last; testCase++) {
+                millis = execute(consumer, random, testCase, millis);
+            }
+        }
+        consumer.accept("{\"testRunFinished\":{\"success\":true,\"timestamp\":" + timestamp(millis) + ",\"testRunStartedId\":\"run\"}}");
+    }
+
+    private String gherkinDocument(String uri, int feature, int first, int last) {
+        StringBuilder children = new StringBuilder();
+        for (int testCase = first; testCase < last; testCase++) {
+            int line = scenarioLine(testCase - first);
+            if (children.length() > 0) {
+                children.append(',');
+            }
+            children.append("{\"scenario\":{\"id\":\"scenario-").append(testCase)
+                    .append("\",\"tags\":[],\"location\":").append(location(line, 3))
+                    .append(",\"keyword\":\"Scenario\",\"name\":").append(string("Scenario " + testCase))
+                    .append(",\"description\":\"\",\"steps\":[");
+            for (int step = 0; step < stepsPerTestCase; step++) {
+                if (step > 0) {
+                    children.append(',');
+                }
+                children.append("{\"id\":\"step-").append(testCase).append('-').append(step)
+                        .append("\",\"location\":").append(location(line + 1 + step, 5))
+                        .append(",\"keyword\":\"Given \",\"keywordType\":\"Context\",\"text\":")
+                        .append(string(stepText(testCase, step))).append('}');
+            }
+            children.append("],\"examples\":[]}}");
+        }
+        return "{\"gherkinDocument\":{\"uri\":" + string(uri) + ",\"feature\":{\"location\":" + location(1, 1)
+                + ",\"tags\":[],\"language\":\"en\",\"keyword\":\"Feature\",\"name\":" + string("Feature " + feature)
+                + ",\"description\":\"\",\"children\":[" + children + "]},\"comments\":[]}}";
+    }
+
+    private String pickle(String uri, int index, int testCase) {
+        StringBuilder steps = new StringBuilder();
+        for (int step = 0; step < stepsPerTestCase; step++) {
+            if (step > 0) {
+                steps.append(',');
+            }
+            steps.append("{\"id\":\"pickle-step-").append(testCase).append('-').append(step)
+                    .append("\",\"text\":").append(string(stepText(testCase, step)))
+                    .append(",\"type\":\"Context\",\"astNodeIds\":[\"step-").append(testCase).append('-').append(step).append("\"]}");
+        }
+        return "{\"pickle\":{\"id\":\"pickle-" + testCase + "\",\"uri\":" + string(uri)
+                + ",\"location\":" + location(scenarioLine(index), 3)
+                + ",\"name\":" + string("Scenario " + testCase)
+                + ",\"language\":\"en\",\"steps\":[" + steps + "],\"tags\":[],\"astNodeIds\":[\"scenario-" + testCase + "\"]}}";
+    }
+
+    private String testCase(int testCase) {
+        StringBuilder testSteps = new StringBuilder();
+        for (int step = 0; step < stepsPerTestCase; step++) {
+            if (step > 0) {
+                testSteps.append(',');
+            }
+            testSteps.append("{\"id\":\"test-step-").append(testCase).append('-').append(step)
+                    .append("\",\"pickleStepId\":\"pickle-step-").append(testCase).append('-').append(step)
+                    .append("\",\"stepDefinitionIds\":[\"step-definition\"],\"stepMatchArgumentsLists\":[{\"stepMatchArguments\":[]}]}");
+        }
+        return "{\"testCase\":{\"id\":\"test-case-" + testCase + "\",\"pickleId\":\"pickle-" + testCase
+                + "\",\"testSteps\":[" + testSteps + "],\"testRunStartedId\":\"run\"}}";
+    }
+
+    private long execute(Consumer<String> consumer, Random random, int testCase, long millis) {
+        String testCaseStartedId = "test-case-started-" + testCase;
+        consumer.accept("{\"testCaseStarted\":{\"attempt\":0,\"id\":\"" + testCaseStartedId + "\",\"testCaseId\":\"test-case-" + testCase
+                + "\",\"timestamp\":" + timestamp(millis) + "}}");
+        boolean failed = random.nextDouble() < failureRatio;
+        int failedStep = failed ? random.nextInt(stepsPerTestCase) : -1;
+        for (int step = 0; step < stepsPerTestCase; step++) {
+            String testStepId = "test-step-" + testCase + "-" + step;
+            consumer.accept("{\"testStepStarted\":{\"testCaseStartedId\":\"" + testCaseStartedId + "\",\"testStepId\":\"" + testStepId
+                    + "\",\"timestamp\":" + timestamp(millis) + "}}");
+            int duration = 1 + random.nextInt(50);
+            millis += duration;
+            String result;
+            if (step == failedStep) {
+                String message = text(random, "expected: <true> but was: <false>");
+                result = "{\"duration\":{\"seconds\":0,\"nanos\":" + duration * 1_000_000 + "},\"status\":\"FAILED\",\"message\":"
+                        + string(stackTrace(random, message)) + ",\"exception\":{\"type\":\"org.opentest4j.AssertionFailedError\",\"message\":"
+                        + string(message) + ",\"stackTrace\":" + string(stackTrace(random, message)) + "}}";
+            } else {
+                String status = failedStep >= 0 && step > failedStep ? "SKIPPED" : "PASSED";
+                result = "{\"duration\":{\"seconds\":0,\"nanos\":" + duration * 1_000_000 + "},\"status\":\"" + status + "\"}";
+            }
+            consumer.accept("{\"testStepFinished\":{\"testCaseStartedId\":\"" + testCaseStartedId + "\",\"testStepId\":\"" + testStepId
+                    + "\",\"testStepResult\":" + result + ",\"timestamp\":" + timestamp(millis) + "}}");
+        }
+        consumer.accept("{\"testCaseFinished\":{\"testCaseStartedId\":\"" + testCaseStartedId + "\",\"timestamp\":" + timestamp(millis)
+                + ",\"willBeRetried\":false}}");
+        return millis;
+    }
+
+    private static int scenarioLine(int index) {
+        return 3 + index * 10;
+    }
+
+    private static String stepText(int testCase, int step) {
+        return "a step " + step + " of scenario " + testCase;
+    }
+
+    private String stackTrace(Random random, String message) {
+        StringBuilder stackTrace = new StringBuilder("org.opentest4j.AssertionFailedError: ").append(message).append('\n');
+        for (int line = 0; line < stackTraceLines; line++) {
+            stackTrace.append(text(random, "\tat io.cucumber.generated.StepDefinitions.step" + line + "(StepDefinitions.java:" + (line + 10) + ")"))
+                    .append('\n');
+        }
+        return stackTrace.toString();
+    }
+
+    private String text(Random random, String text) {
+        if (illegalCharDensity == 0) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            if (random.nextDouble() < illegalCharDensity) {
+                sb.append((char) random.nextInt(0x9));
+            }
+            sb.append(text.charAt(i));
+        }
+        return sb.toString();
+    }
+
+    private static String location(int line, int column) {
+        return "{\"line\":" + line + ",\"column\":" + column + "}";
+    }
+
+    private static String timestamp(long millis) {
+        return "{\"seconds\":" + millis / 1000 + ",\"nanos\":" + (millis % 1000) * 1_000_000 + "}";
+    }
+
+    private static String string(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    static final class Builder {
+        private int testCases = 10_000;
+        private int testCasesPerFeature = 20;
+        private int stepsPerTestCase = 5;
+        private double failureRatio = 0.05;
+        private int stackTraceLines = 40;
+        private double illegalCharDensity = 0;
+        private long seed = 202510170000L;
+
+        private Builder() {
+
+        }
+
+        Builder testCases(int testCases) {
+            this.testCases = testCases;
+            return this;
+        }
+
+        Builder testCasesPerFeature(int testCasesPerFeature) {
+            this.testCasesPerFeature = testCasesPerFeature;
+            return this;
+        }
+
+        Builder stepsPerTestCase(int stepsPerTestCase) {
+            this.stepsPerTestCase = stepsPerTestCase;
+            return this;
+        }
+
+        /**
+         * Fraction of test cases with a failing step.
+         */
+        Builder failureRatio(double failureRatio) {
+            this.failureRatio = failureRatio;
+            return this;
+        }
+
+        /**
+         * Number of lines in the stack trace of a failing step.
+         */
+        Builder stackTraceLines(int stackTraceLines) {
+            this.stackTraceLines = stackTraceLines;
+            return this;
+        }
+
+        /**
+         * Fraction of characters in failure messages and stack traces
+         * preceded by a character that is illegal in xml.
+         */
+        Builder illegalCharDensity(double illegalCharDensity) {
+            this.illegalCharDensity = illegalCharDensity;
+            return this;
+        }
+
+        Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        SyntheticRun build() {
+            return new SyntheticRun(this);
+        }
+    }
+}
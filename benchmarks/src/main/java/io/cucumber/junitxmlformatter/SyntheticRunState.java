@@ -0,0 +1,84 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Envelope;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The synthetic run shared by the report benchmarks.
+ * <p>
+ * Larger runs than the defaults can be selected with {@code -p}, e.g.
+ * {@code -p testCases=1000000}, given enough heap to hold their messages.
+ */
+@State(Scope.Benchmark)
+public class SyntheticRunState {
+
+    @Param({"10000", "100000"})
+    public int testCases;
+
+    @Param({"5"})
+    public int stepsPerTestCase;
+
+    /**
+     * Fraction of test cases with a failing step.
+     */
+    @Param({"0.05"})
+    public double failureRatio;
+
+    /**
+     * Number of lines in the stack trace of a failing step.
+     */
+    @Param({"40"})
+    public int stackTraceLines;
+
+    /**
+     * Fraction of characters in failures preceded by an illegal character.
+     */
+    @Param({"0"})
+    public double illegalCharDensity;
+
+    private Path ndjson;
+    private List<Envelope> envelopes;
+
+    @Setup
+    public void setup() throws IOException {
+        ndjson = Files.createTempFile("synthetic-run", ".ndjson");
+        SyntheticRun.builder()
+                .testCases(testCases)
+                .stepsPerTestCase(stepsPerTestCase)
+                .failureRatio(failureRatio)
+                .stackTraceLines(stackTraceLines)
+                .illegalCharDensity(illegalCharDensity)
+                .build()
+                .writeNdjson(ndjson);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        envelopes = null;
+        Files.delete(ndjson);
+    }
+
+    Path getNdjson() {
+        return ndjson;
+    }
+
+    /**
+     * The deserialized messages, kept in memory so only writing them is
+     * measured.
+     */
+    List<Envelope> getEnvelopes() throws IOException {
+        if (envelopes == null) {
+            envelopes = SyntheticRun.readEnvelopes(ndjson);
+        }
+        return envelopes;
+    }
+}
@@ -0,0 +1,58 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ingesting the messages of a run, excluding writing the report on
+ * close.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private MessagesToJunitXmlWriter writer;
+
+    @Setup(Level.Invocation)
+    public void createWriter() {
+        writer = MessagesToJunitXmlWriter.builder()
+                .streaming(streaming)
+                .build(OutputStream.nullOutputStream());
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeWriter() throws IOException {
+        writer.close();
+    }
+
+    @Benchmark
+    public MessagesToJunitXmlWriter write(SyntheticRunState run) throws IOException {
+        for (Envelope envelope : run.getEnvelopes()) {
+            writer.write(envelope);
+        }
+        return writer;
+    }
+}
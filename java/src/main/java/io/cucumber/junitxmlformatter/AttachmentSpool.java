@@ -0,0 +1,352 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Attachment;
+import io.cucumber.messages.types.AttachmentContentEncoding;
+import org.jspecify.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+import static java.nio.charset.CodingErrorAction.REPLACE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Appends the bodies of text attachments, encoded as UTF-8, to a temporary
+ * file.
+ * <p>
+ * Attachments are written into the report straight from the file, so they
+ * are not retained on the heap until their test case is written. Each
+ * attachment is terminated by a new line.
+ */
+final class AttachmentSpool implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Supplies text in chunks, each of which is only valid until the next is
+     * requested.
+     */
+    @FunctionalInterface
+    interface TextChunks {
+        /**
+         * The next chunk of text, or null once all text has been supplied.
+         */
+        @Nullable CharSequence next() throws IOException;
+    }
+
+    private final ByteBuffer encoded = ByteBuffer.allocate(BUFFER_SIZE);
+    private @Nullable Path file;
+    private volatile @Nullable FileChannel channel;
+    private long size;
+
+    /**
+     * Appends the body of the attachment. Base64 encoded bodies are decoded
+     * in chunks as they are appended, and are assumed to be UTF-8 encoded
+     * text. Null if the body is empty.
+     */
+    @Nullable Span append(Attachment attachment) throws IOException {
+        if (attachment.getContentEncoding() != AttachmentContentEncoding.BASE64) {
+            return append(attachment.getBody());
+        }
+        String body = attachment.getBody();
+        if (body.isEmpty()) {
+            return null;
+        }
+        try (InputStream decoder = Base64.getDecoder().wrap(new Base64Body(body))) {
+            return decode(decoder);
+        }
+    }
+
+    private synchronized @Nullable Span decode(InputStream decoder) throws IOException {
+        FileChannel channel = open();
+        long start = size;
+        byte last = 0;
+        int read;
+        while ((read = decoder.read(encoded.array(), 0, encoded.capacity())) >= 0) {
+            if (read > 0) {
+                last = encoded.get(read - 1);
+                encoded.limit(read);
+                write(channel, encoded);
+                encoded.clear();
+            }
+        }
+        if (size == start) {
+            return null;
+        }
+        return terminate(channel, start, last == '\n');
+    }
+
+    /**
+     * Appends the text. Null if the text is empty.
+     */
+    synchronized @Nullable Span append(String text) throws IOException {
+        if (text.isEmpty()) {
+            return null;
+        }
+        FileChannel channel = open();
+        long start = size;
+        encode(channel, CharBuffer.wrap(text));
+        return terminate(channel, start, text.charAt(text.length() - 1) == '\n');
+    }
+
+    /**
+     * Appends text that is supplied in chunks, so it is never held as a
+     * whole. Null if the text is empty.
+     */
+    synchronized @Nullable Span append(TextChunks text) throws IOException {
+        FileChannel channel = open();
+        long start = size;
+        // Encoded together with the low surrogate that starts the next chunk
+        char pendingHighSurrogate = 0;
+        char last = 0;
+        @Nullable CharSequence chunk;
+        while ((chunk = text.next()) != null) {
+            int length = chunk.length();
+            if (length == 0) {
+                continue;
+            }
+            int from = 0;
+            if (pendingHighSurrogate != 0) {
+                encode(channel, CharBuffer.wrap(new char[]{pendingHighSurrogate, chunk.charAt(0)}));
+                pendingHighSurrogate = 0;
+                from = 1;
+            }
+            int to = length;
+            if (to > from && Character.isHighSurrogate(chunk.charAt(to - 1))) {
+                pendingHighSurrogate = chunk.charAt(--to);
+            }
+            encode(channel, CharBuffer.wrap(chunk, from, to));
+            last = chunk.charAt(length - 1);
+        }
+        if (pendingHighSurrogate != 0) {
+            encode(channel, CharBuffer.wrap(new char[]{pendingHighSurrogate}));
+        }
+        if (size == start) {
+            return null;
+        }
+        return terminate(channel, start, last == '\n');
+    }
+
+    private Span terminate(FileChannel channel, long start, boolean terminated) throws IOException {
+        if (!terminated) {
+            write(channel, ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+        return new Span(this, start, size - start);
+    }
+
+    private FileChannel open() throws IOException {
+        FileChannel channel = this.channel;
+        if (channel == null) {
+            Path file = Files.createTempFile("junit-xml-formatter-", ".attachments");
+            this.file = file;
+            channel = FileChannel.open(file, READ, WRITE);
+            this.channel = channel;
+            size = 0;
+        }
+        return channel;
+    }
+
+    private void encode(FileChannel channel, CharBuffer chars) throws IOException {
+        CharsetEncoder encoder = UTF_8.newEncoder()
+                .onMalformedInput(REPLACE)
+                .onUnmappableCharacter(REPLACE);
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, encoded, true);
+            encoded.flip();
+            write(channel, encoded);
+            encoded.clear();
+        } while (result.isOverflow());
+    }
+
+    private void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            size += channel.write(bytes, size);
+        }
+    }
+
+    private void read(long position, ByteBuffer bytes) throws IOException {
+        FileChannel channel = this.channel;
+        if (channel == null) {
+            throw new IOException("Attachments have been discarded");
+        }
+        while (bytes.hasRemaining()) {
+            int read = channel.read(bytes, position);
+            if (read < 0) {
+                throw new IOException("Attachments have been truncated");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Discards all attachments and deletes the file. Attachments appended
+     * afterwards are written to a new file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        FileChannel channel = this.channel;
+        Path file = this.file;
+        this.channel = null;
+        this.file = null;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    static long size(List<Span> attachments) {
+        long size = 0;
+        for (Span attachment : attachments) {
+            size += attachment.length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the bytes from {@code start} to {@code end} of the concatenated
+     * attachments as CDATA chunks.
+     */
+    static void writeCDataChunks(EscapingXmlStreamWriter writer, List<Span> attachments, long start, long end) throws IOException {
+        CharsetDecoder decoder = UTF_8.newDecoder()
+                .onMalformedInput(REPLACE)
+                .onUnmappableCharacter(REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        long offset = 0;
+        for (Span attachment : attachments) {
+            long from = Math.max(start, offset);
+            long to = Math.min(end, offset + attachment.length);
+            while (from < to) {
+                int length = (int) Math.min(bytes.remaining(), to - from);
+                ByteBuffer read = bytes.slice();
+                read.limit(length);
+                attachment.spool.read(attachment.position + from - offset, read);
+                bytes.position(bytes.position() + length);
+                from += length;
+                bytes.flip();
+                decode(writer, decoder, bytes, chars, false);
+                bytes.compact();
+            }
+            offset += attachment.length;
+        }
+        bytes.flip();
+        decode(writer, decoder, bytes, chars, true);
+        decoder.flush(chars);
+        writeChars(writer, chars);
+    }
+
+    private static void decode(EscapingXmlStreamWriter writer, CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput) throws IOException {
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            writeChars(writer, chars);
+        } while (result.isOverflow());
+    }
+
+    private static void writeChars(EscapingXmlStreamWriter writer, CharBuffer chars) throws IOException {
+        chars.flip();
+        if (chars.hasRemaining()) {
+            writer.writeCDataChunk(chars);
+        }
+        chars.clear();
+    }
+
+    /**
+     * Returns the nearest offset at or after, or at or before, the given
+     * offset in the concatenated attachments that is not in the middle of a
+     * UTF-8 encoded character.
+     */
+    static long findCharStart(List<Span> attachments, long offset, boolean forward) throws IOException {
+        // A character is encoded in at most 4 bytes
+        for (int i = 0; i < 3 && isContinuationByte(attachments, offset); i++) {
+            offset += forward ? 1 : -1;
+        }
+        return offset;
+    }
+
+    private static boolean isContinuationByte(List<Span> attachments, long offset) throws IOException {
+        long start = 0;
+        for (Span attachment : attachments) {
+            if (offset >= start && offset < start + attachment.length) {
+                ByteBuffer b = ByteBuffer.allocate(1);
+                attachment.spool.read(attachment.position + offset - start, b);
+                return (b.get(0) & 0xC0) == 0x80;
+            }
+            start += attachment.length;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the characters of a base64 encoded body as bytes, without
+     * encoding the body first.
+     */
+    private static final class Base64Body extends InputStream {
+        private final String body;
+        private int position;
+
+        private Base64Body(String body) {
+            this.body = body;
+        }
+
+        @Override
+        public int read() {
+            return position < body.length() ? toByte(body.charAt(position++)) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == body.length()) {
+                return -1;
+            }
+            int end = Math.min(body.length(), position + len);
+            int start = position;
+            for (; position < end; position++) {
+                b[off + position - start] = (byte) toByte(body.charAt(position));
+            }
+            return end - start;
+        }
+
+        private static int toByte(char c) {
+            // Not in the base64 alphabet, so rejected by the decoder
+            return c < 0x80 ? c : '?';
+        }
+    }
+
+    /**
+     * An attachment in the spool.
+     */
+    static final class Span {
+        private final AttachmentSpool spool;
+        private final long position;
+        private final long length;
+
+        private Span(AttachmentSpool spool, long position, long length) {
+            this.spool = spool;
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package io.cucumber.junitxmlformatter;
+
+/**
+ * What happens when a message is written while the buffer of an
+ * asynchronous writer is full.
+ *
+ * @see MessagesToJunitXmlWriter.Builder#asynchronous(int, Backpressure)
+ */
+public enum Backpressure {
+
+    /**
+     * Waits until the buffer has room for the message.
+     */
+    BLOCK,
+
+    /**
+     * Throws an {@link java.io.IOException}, discarding the message.
+     */
+    FAIL
+
+}
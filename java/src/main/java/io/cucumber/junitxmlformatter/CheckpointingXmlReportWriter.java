@@ -0,0 +1,263 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.TestStepResultStatus;
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static io.cucumber.messages.types.TestStepResultStatus.PASSED;
+import static io.cucumber.messages.types.TestStepResultStatus.SKIPPED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes the report to a file, periodically replacing it with a well-formed
+ * partial report of the test cases that have finished so far.
+ * <p>
+ * The report is built in two working copies next to the file, updated in
+ * turn. A checkpoint appends the test cases rendered since the copy was last
+ * updated, rewrites the footer and the fixed-width header in place, and
+ * forces the copy to disk. The copy is then hard linked and atomically
+ * renamed over the file. The file therefore always is a complete report,
+ * while the other copy is updated, and the cost of a checkpoint does not
+ * grow with the size of the report. Where hard links are not supported, the
+ * copy is copied instead.
+ * <p>
+ * The header is padded to fit the largest counters, so the start tag of the
+ * testsuite may contain trailing whitespace.
+ */
+final class CheckpointingXmlReportWriter implements ReportOutput {
+
+    private static final byte[] FOOTER = "</testsuite>\n".getBytes(UTF_8);
+    // Longer than an ISO-8601 instant
+    private static final String TIMESTAMP_PLACEHOLDER = "0000-00-00T00:00:00.000000000Z" + "0000000000";
+
+    private final XmlReportData data;
+    private final Path file;
+    private final long checkpointIntervalNanos;
+    private final int checkpointTestCaseCount;
+    private final boolean writeLocations;
+    private final Truncation truncation;
+    private final WriterStatisticsRecorder statistics;
+    private final Copy[] copies;
+    private final Path link;
+    // Test cases rendered since the last checkpoint
+    private final ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+    private final EscapingXmlStreamWriter renderedWriter = new EscapingXmlStreamWriter(new Utf8XmlWriter(rendered));
+    private int renderedTestCases;
+    private long tests;
+    private long skipped;
+    private long failures;
+    private Duration time = Duration.ZERO;
+    private int checkpoints;
+    private long lastCheckpointNanos = System.nanoTime();
+    private int headerLength;
+
+    CheckpointingXmlReportWriter(
+            XmlReportData data,
+            Path file,
+            long checkpointIntervalNanos,
+            int checkpointTestCaseCount,
+            boolean writeLocations,
+            Truncation truncation,
+            WriterStatisticsRecorder statistics
+    ) {
+        this.data = data;
+        this.file = file;
+        this.checkpointIntervalNanos = checkpointIntervalNanos;
+        this.checkpointTestCaseCount = checkpointTestCaseCount;
+        this.writeLocations = writeLocations;
+        this.truncation = truncation;
+        this.statistics = statistics;
+        this.copies = new Copy[]{
+                new Copy(file.resolveSibling(file.getFileName() + ".0.tmp")),
+                new Copy(file.resolveSibling(file.getFileName() + ".1.tmp"))
+        };
+        this.link = file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * Renders a finished test case, and writes a checkpoint once enough test
+     * cases or time have passed since the previous one.
+     */
+    @Override
+    public synchronized void writeTestcase(TestCaseRow testCase, Consumer<TestCaseRow> rendered) throws IOException {
+        XmlReportWriter.writeTestcase(renderedWriter, testCase, writeLocations, truncation);
+        renderedWriter.flush();
+        rendered.accept(testCase);
+        renderedTestCases++;
+        TestStepResultStatus status = testCase.getStatus();
+        tests++;
+        if (status == SKIPPED) {
+            skipped++;
+        } else if (status != PASSED) {
+            failures++;
+        }
+        time = time.plus(testCase.getDuration());
+
+        if (renderedTestCases >= checkpointTestCaseCount || System.nanoTime() - lastCheckpointNanos >= checkpointIntervalNanos) {
+            writeCheckpoint(tests, skipped, failures, time);
+        }
+    }
+
+    @Override
+    public synchronized void writeReport() throws IOException {
+        // Test cases that never finished follow the streamed test cases
+        for (TestCaseRow testCase : statistics.getAllTestCases(data)) {
+            XmlReportWriter.writeTestcase(renderedWriter, testCase, writeLocations, truncation);
+        }
+        renderedWriter.flush();
+        Map<TestStepResultStatus, Long> counts = data.getTestCaseStatusCounts();
+        writeCheckpoint(data.getTestCaseCount(), counts.get(SKIPPED), XmlReportWriter.countFailures(counts), data.getSuiteDuration());
+    }
+
+    private void writeCheckpoint(long tests, long skipped, long failures, Duration time) throws IOException {
+        byte[] testcases = rendered.toByteArray();
+        rendered.reset();
+        renderedTestCases = 0;
+        for (Copy copy : copies) {
+            copy.unwritten.add(testcases);
+        }
+
+        Copy copy = copies[checkpoints++ % copies.length];
+        copy.update(createHeader(tests, skipped, failures, time));
+
+        Files.deleteIfExists(link);
+        try {
+            Files.createLink(link, copy.path);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(copy.path, link);
+        }
+        Files.move(link, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        lastCheckpointNanos = System.nanoTime();
+    }
+
+    /**
+     * Renders the xml declaration and the testsuite start tag, padded to
+     * the length of the header with the largest counters.
+     */
+    private byte[] createHeader(long tests, long skipped, long failures, Duration time) throws IOException {
+        if (headerLength == 0) {
+            Optional<String> timestamp = Optional.of(data.getTestRunStartedAt().orElse(TIMESTAMP_PLACEHOLDER));
+            // With room for any rendering of the time as a double
+            headerLength = renderHeader(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Duration.ofMillis(Long.MAX_VALUE), timestamp).length + 8;
+        }
+        byte[] start = renderHeader(tests, skipped, failures, time, data.getTestRunStartedAt());
+        if (start.length > headerLength) {
+            throw new IllegalStateException("Header of " + start.length + " bytes does not fit in " + headerLength + " bytes");
+        }
+        byte[] header = Arrays.copyOf(start, headerLength + 2);
+        Arrays.fill(header, start.length, headerLength, (byte) ' ');
+        header[headerLength] = '>';
+        header[headerLength + 1] = '\n';
+        return header;
+    }
+
+    /**
+     * Renders the header up to, but excluding, the end of the start tag.
+     */
+    private byte[] renderHeader(long tests, long skipped, long failures, Duration time, Optional<String> timestamp) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(header));
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeNewLine();
+        writer.writeStartElement("testsuite");
+        XmlReportWriter.writeSuiteAttributes(writer, data.getTestSuiteName(), time, tests, skipped, failures, timestamp);
+        // Leaves the start tag open
+        writer.flush();
+        return header.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        @Nullable IOException exception = null;
+        for (Copy copy : copies) {
+            try {
+                copy.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        // Left behind if the rename failed
+        Files.deleteIfExists(link);
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private final class Copy {
+        private final Path path;
+        // Rendered test cases not yet appended to this copy
+        private final List<byte[]> unwritten = new ArrayList<>();
+        private @Nullable FileChannel channel;
+        // Where the footer starts
+        private long bodyEnd;
+
+        private Copy(Path path) {
+            this.path = path;
+        }
+
+        private void update(byte[] header) throws IOException {
+            FileChannel channel = this.channel;
+            if (channel == null) {
+                Path parent = path.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE);
+                this.channel = channel;
+                bodyEnd = header.length;
+            }
+            // Overwrites the previous footer
+            for (byte[] testcases : unwritten) {
+                write(channel, testcases, bodyEnd);
+                bodyEnd += testcases.length;
+            }
+            unwritten.clear();
+            write(channel, FOOTER, bodyEnd);
+            write(channel, header, 0);
+            channel.force(false);
+        }
+
+        private void write(FileChannel channel, byte[] bytes, long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            statistics.recordBytesWritten(bytes.length);
+        }
+
+        private void close() throws IOException {
+            FileChannel channel = this.channel;
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } finally {
+                // The file, if any, links to the last checkpoint
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.cucumber.junitxmlformatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the report as it is written.
+ *
+ * @see MessagesToJunitXmlWriter.Builder#compression(Compression)
+ */
+public final class Compression {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    private static final Compression NONE = new Compression(Kind.NONE, Deflater.DEFAULT_COMPRESSION, 0);
+
+    private enum Kind {
+        NONE, GZIP, PARALLEL_GZIP
+    }
+
+    private final Kind kind;
+    private final int level;
+    private final int blockSize;
+
+    private Compression(Kind kind, int level, int blockSize) {
+        this.kind = kind;
+        this.level = level;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Writes the report uncompressed.
+     */
+    public static Compression none() {
+        return NONE;
+    }
+
+    /**
+     * Writes the report as gzip with the default compression level.
+     */
+    public static Compression gzip() {
+        return gzip(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Writes the report as gzip with the given compression level, from
+     * {@value Deflater#BEST_SPEED} to {@value Deflater#BEST_COMPRESSION}, or
+     * {@value Deflater#DEFAULT_COMPRESSION} for the default.
+     */
+    public static Compression gzip(int level) {
+        return new Compression(Kind.GZIP, requireLevel(level), 0);
+    }
+
+    /**
+     * Writes the report as gzip, compressing blocks of 1 MiB in parallel.
+     *
+     * @see #parallelGzip(int, int)
+     */
+    public static Compression parallelGzip() {
+        return parallelGzip(Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes the report as gzip, compressing blocks of the given number of
+     * bytes in parallel.
+     * <p>
+     * Each block is written as a separate gzip member. Concatenated members
+     * are a valid gzip file that decompresses to the concatenated blocks.
+     * Larger blocks compress slightly better, smaller blocks are compressed
+     * with more parallelism.
+     */
+    public static Compression parallelGzip(int level, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive, was " + blockSize);
+        }
+        return new Compression(Kind.PARALLEL_GZIP, requireLevel(level), blockSize);
+    }
+
+    private static int requireLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("level must be between 1 and 9, or -1 for the default, was " + level);
+        }
+        return level;
+    }
+
+    /**
+     * Wraps the output. Closing the returned stream finishes the compressed
+     * output and closes {@code out}.
+     */
+    OutputStream wrap(OutputStream out, Executor executor) throws IOException {
+        switch (kind) {
+            case GZIP:
+                return new LeveledGzipOutputStream(out, level);
+            case PARALLEL_GZIP:
+                return new ParallelGzipOutputStream(out, level, blockSize, executor);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * The extension appended to the name of a file written with this
+     * compression.
+     */
+    String getFileExtension() {
+        return kind == Kind.NONE ? "" : ".gz";
+    }
+
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        private LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+}
@@ -1,93 +1,233 @@
 package io.cucumber.junitxmlformatter;
 
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.Objects;
-import java.util.regex.Pattern;
-
-import static java.lang.Character.offsetByCodePoints;
 
 class EscapingXmlStreamWriter implements AutoCloseable {
 
-    private final XMLStreamWriter writer;
+    private final Utf8XmlWriter writer;
+    // Number of consecutive ']' at the end of the previous CDATA chunk, at most 2
+    private int cdataTrailingBrackets;
+    // A high surrogate at the end of the previous CDATA chunk, or 0
+    private char cdataPendingHighSurrogate;
 
-    EscapingXmlStreamWriter(XMLStreamWriter writer) {
+    EscapingXmlStreamWriter(Utf8XmlWriter writer) {
         this.writer = Objects.requireNonNull(writer);
     }
 
     @Override
-    public void close() throws XMLStreamException {
+    public void close() throws IOException {
         writer.close();
     }
 
-    void writeStartDocument(String encoding, String version) throws XMLStreamException {
+    void reset(OutputStream out) {
+        writer.reset(out);
+        cdataTrailingBrackets = 0;
+        cdataPendingHighSurrogate = 0;
+    }
+
+    void writeStartDocument(String encoding, String version) throws IOException {
         writer.writeStartDocument(encoding, version);
     }
 
-    void writeNewLine() throws XMLStreamException {
+    void writeNewLine() throws IOException {
         writer.writeCharacters("\n");
     }
 
-    void writeStartElement(String localName) throws XMLStreamException {
+    void writeStartElement(String localName) throws IOException {
         writer.writeStartElement(localName);
     }
 
-    void writeEndElement() throws XMLStreamException {
+    void writeEndElement() throws IOException {
         writer.writeEndElement();
     }
 
-    void writeEndDocument() throws XMLStreamException {
+    void writeEndDocument() throws IOException {
         writer.writeEndDocument();
     }
 
-    void flush() throws XMLStreamException {
+    void flush() throws IOException {
         writer.flush();
     }
 
-    void writeEmptyElement(String localName) throws XMLStreamException {
+    long getBytesWritten() {
+        return writer.getBytesWritten();
+    }
+
+    void writeEmptyElement(String localName) throws IOException {
         writer.writeEmptyElement(localName);
     }
 
-    void writeAttribute(String localName, String value) throws XMLStreamException {
+    void writeAttribute(String localName, String value) throws IOException {
         writer.writeAttribute(localName, escapeIllegalChars(value));
     }
 
-    private static final Pattern CDATA_TERMINATOR_SPLIT = Pattern.compile("(?<=]])(?=>)");
+    void writeSecondsAttribute(String localName, Duration duration) throws IOException {
+        writer.writeSecondsAttribute(localName, duration);
+    }
+
+    void writeStartProcessingInstruction(String target) throws IOException {
+        writer.writeStartProcessingInstruction(target);
+    }
+
+    void writePseudoAttribute(String name, String value) throws IOException {
+        writer.writePseudoAttribute(name, escapeIllegalChars(value));
+    }
+
+    void writeEndProcessingInstruction() throws IOException {
+        writer.writeEndProcessingInstruction();
+    }
+
+    void writeCData(CharSequence data) throws IOException {
+        writeStartCData();
+        writeCDataChunk(data);
+        writeEndCData();
+    }
+
+    /**
+     * Starts a CDATA section that is written in chunks.
+     * <p>
+     * The CDATA end token and illegal characters are escaped across chunk
+     * boundaries, so a large payload can be written without first
+     * concatenating it into a single string.
+     */
+    void writeStartCData() throws IOException {
+        writer.writeStartCData();
+        cdataTrailingBrackets = 0;
+        cdataPendingHighSurrogate = 0;
+    }
 
-    void writeCData(String data) throws XMLStreamException {
-        // https://stackoverflow.com/questions/223652/is-there-a-way-to-escape-a-cdata-end-token-in-xml
-        for (String part : CDATA_TERMINATOR_SPLIT.split(data, -1)) {
-            // see https://www.w3.org/TR/xml/#dt-cdsection
-            writer.writeCData(escapeIllegalChars(part));
+    void writeCDataChunk(CharSequence chunk) throws IOException {
+        int length = chunk.length();
+        int start = 0;
+        if (cdataPendingHighSurrogate != 0 && length > 0) {
+            if (Character.isLowSurrogate(chunk.charAt(0))) {
+                writer.writeCDataSurrogatePair(cdataPendingHighSurrogate, chunk.charAt(0));
+                start = 1;
+            } else {
+                writer.writeCDataCharacterReference(cdataPendingHighSurrogate);
+            }
+            cdataPendingHighSurrogate = 0;
+            cdataTrailingBrackets = 0;
         }
+
+        int i = indexOfIllegalCharOrGreaterThan(chunk, start);
+        while (i >= 0) {
+            writer.writeCDataContent(chunk, start, i);
+            char c = chunk.charAt(i);
+            if (c == '>') {
+                if (countBracketsBefore(chunk, i) == 2) {
+                    // https://stackoverflow.com/questions/223652/is-there-a-way-to-escape-a-cdata-end-token-in-xml
+                    writer.writeEndCData();
+                    writer.writeStartCData();
+                }
+                // Written as part of the next run
+                start = i;
+            } else if (i == length - 1 && Character.isHighSurrogate(c)) {
+                // May be completed by the next chunk
+                cdataPendingHighSurrogate = c;
+                cdataTrailingBrackets = 0;
+                return;
+            } else {
+                // see https://www.w3.org/TR/xml/#dt-cdsection
+                writer.writeCDataCharacterReference(c);
+                start = i + 1;
+            }
+            i = indexOfIllegalCharOrGreaterThan(chunk, i + 1);
+        }
+        writer.writeCDataContent(chunk, start, length);
+        cdataTrailingBrackets = countBracketsBefore(chunk, length);
     }
 
-    private static String escapeIllegalChars(String value) {
-        boolean allAllowed = true;
-        for (int i = 0; i < value.length(); i = offsetByCodePoints(value, i, 1)) {
-            int codePoint = value.codePointAt(i);
-            if (!isLegal(codePoint)) {
-                allAllowed = false;
-                break;
+    /**
+     * Counts the consecutive ']' before {@code index}, up to 2, including
+     * those at the end of the previous chunk.
+     */
+    private int countBracketsBefore(CharSequence chunk, int index) {
+        int brackets = 0;
+        for (int j = index - 1; j >= 0 && brackets < 2; j--) {
+            if (chunk.charAt(j) != ']') {
+                return brackets;
             }
+            brackets++;
+        }
+        return Math.min(2, brackets + cdataTrailingBrackets);
+    }
+
+    /**
+     * Writes xml that was already escaped and encoded, e.g. a CDATA section
+     * rendered by another writer.
+     */
+    void writeEncoded(byte[] encoded) throws IOException {
+        writer.writeEncoded(encoded);
+    }
+
+    void writeEndCData() throws IOException {
+        if (cdataPendingHighSurrogate != 0) {
+            writer.writeCDataCharacterReference(cdataPendingHighSurrogate);
+            cdataPendingHighSurrogate = 0;
         }
-        if (allAllowed) {
+        writer.writeEndCData();
+    }
+
+    static String escapeIllegalChars(String value) {
+        int illegal = indexOfIllegalChar(value, 0);
+        if (illegal < 0) {
             return value;
         }
 
-        StringBuilder escaped = new StringBuilder();
-        for (int i = 0; i < value.length(); i = offsetByCodePoints(value, i, 1)) {
-            int codePoint = value.codePointAt(i);
-            if (isLegal(codePoint)) {
-                escaped.appendCodePoint(codePoint);
-            } else {
-                // see https://www.w3.org/TR/xml/#NT-CharRef
-                escaped.append("&#").append(codePoint).append(';');
-            }
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        int start = 0;
+        while (illegal >= 0) {
+            escaped.append(value, start, illegal);
+            // see https://www.w3.org/TR/xml/#NT-CharRef
+            escaped.append("&#").append((int) value.charAt(illegal)).append(';');
+            // Illegal characters are never supplementary
+            start = illegal + 1;
+            illegal = indexOfIllegalChar(value, start);
         }
+        escaped.append(value, start, value.length());
         return escaped.toString();
     }
 
+    /**
+     * Returns the index of the first illegal character at or after
+     * {@code fromIndex}, or -1 if there is none.
+     * <p>
+     * Nearly all text consists of characters between {@code 0x20} and
+     * {@code 0xD7FF}, so these are checked first.
+     */
+    static int indexOfIllegalChar(CharSequence value, int fromIndex) {
+        return indexOf(value, fromIndex, false);
+    }
+
+    /**
+     * Like {@link #indexOfIllegalChar(CharSequence, int)}, but also stops
+     * at '>' which may complete a CDATA end token.
+     */
+    private static int indexOfIllegalCharOrGreaterThan(CharSequence value, int fromIndex) {
+        return indexOf(value, fromIndex, true);
+    }
+
+    private static int indexOf(CharSequence value, int fromIndex, boolean greaterThan) {
+        int length = value.length();
+        for (int i = fromIndex; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c <= 0xD7FF) {
+                if (greaterThan && c == '>') {
+                    return i;
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                i++;
+            } else if (!isLegal(c)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @SuppressWarnings("UnnecessaryParentheses")
     private static boolean isLegal(int codePoint) {
         // see https://www.w3.org/TR/xml/#charsets
@@ -0,0 +1,137 @@
+package io.cucumber.junitxmlformatter;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a single canonical copy of each distinct failure message and stack
+ * trace, keyed by content.
+ * <p>
+ * When a shared fixture breaks, many test cases fail with the same payload.
+ * Each test case is then rendered with the canonical copy, and once a payload
+ * is shared by several test cases its encoded form is cached, so memory and
+ * render cost scale with the number of distinct failures.
+ * <p>
+ * Payloads are counted by the test cases that reference them, and released
+ * once the last of those has been written. The encoded forms are cached up to
+ * a limit, beyond which payloads are encoded each time they are written.
+ */
+final class FailurePayloads {
+
+    // Shorter payloads are not worth deduplicating
+    static final int MIN_LENGTH = 256;
+
+    static final long MAX_ENCODED_BYTES = 16 * 1024 * 1024;
+
+    interface Encoder {
+        byte[] encode(String payload) throws IOException;
+    }
+
+    private final Map<String, Payload> payloads = new ConcurrentHashMap<>();
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private final long maxEncodedBytes;
+
+    FailurePayloads() {
+        this(MAX_ENCODED_BYTES);
+    }
+
+    FailurePayloads(long maxEncodedBytes) {
+        this.maxEncodedBytes = maxEncodedBytes;
+    }
+
+    /**
+     * Returns the canonical copy of the payload, referenced until it is
+     * released.
+     */
+    @Nullable String deduplicate(@Nullable String payload) {
+        if (payload == null || payload.length() < MIN_LENGTH) {
+            return payload;
+        }
+        // References are only counted while the payload is mapped
+        Payload canonical = payloads.compute(payload, (key, existing) -> {
+            Payload referenced = existing != null ? existing : new Payload(key);
+            referenced.references++;
+            return referenced;
+        });
+        return canonical.value;
+    }
+
+    /**
+     * Releases a reference to a canonical payload, once the test case that
+     * referenced it has been written. The last reference discards it.
+     */
+    void release(@Nullable String payload) {
+        if (payload == null || payload.length() < MIN_LENGTH) {
+            return;
+        }
+        payloads.computeIfPresent(payload, (key, canonical) -> {
+            // Not the canonical copy, or one that was discarded before
+            if (canonical.value != payload || --canonical.references > 0) {
+                return canonical;
+            }
+            canonical.discard();
+            return null;
+        });
+    }
+
+    void clear() {
+        payloads.values().forEach(Payload::discard);
+        payloads.clear();
+    }
+
+    /**
+     * Returns the encoded form of a canonical payload shared by several test
+     * cases, encoding it once. Null if the payload is not shared.
+     */
+    byte @Nullable [] getEncoded(String payload, Encoder encoder) throws IOException {
+        if (payload.length() < MIN_LENGTH) {
+            return null;
+        }
+        // The canonical copy hashes and compares in constant time
+        Payload canonical = payloads.get(payload);
+        if (canonical == null || canonical.value != payload || canonical.references < 2) {
+            return null;
+        }
+        return canonical.getEncoded(encoder);
+    }
+
+    private final class Payload {
+        private final String value;
+        // Guarded by the mapping of the payload
+        private volatile int references;
+        // Guarded by this
+        private byte @Nullable [] encoded;
+        private boolean discarded;
+
+        private Payload(String value) {
+            this.value = value;
+        }
+
+        synchronized byte[] getEncoded(Encoder encoder) throws IOException {
+            byte @Nullable [] encoded = this.encoded;
+            if (encoded != null) {
+                return encoded;
+            }
+            encoded = encoder.encode(value);
+            if (!discarded && encodedBytes.addAndGet(encoded.length) <= maxEncodedBytes) {
+                this.encoded = encoded;
+            } else {
+                encodedBytes.addAndGet(-encoded.length);
+            }
+            return encoded;
+        }
+
+        synchronized void discard() {
+            byte @Nullable [] encoded = this.encoded;
+            if (encoded != null) {
+                encodedBytes.addAndGet(-encoded.length);
+                this.encoded = null;
+            }
+            discarded = true;
+        }
+    }
+}
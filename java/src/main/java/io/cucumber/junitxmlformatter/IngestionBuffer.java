@@ -0,0 +1,146 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.junitxmlformatter.ParallelNdjsonReader.EnvelopeConsumer;
+import io.cucumber.messages.types.Envelope;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hands envelopes from the threads writing them to a single thread that
+ * consumes them, through a bounded buffer.
+ * <p>
+ * A failure of the consuming thread is rethrown by subsequent writes and on
+ * close. Envelopes written after the failure are discarded, so writers never
+ * block on a failed buffer.
+ * <p>
+ * Writes exclude closing the buffer, so no envelope follows the end of the
+ * envelopes or waits for a thread that has finished consuming.
+ */
+final class IngestionBuffer {
+
+    // Follows the last envelope
+    private static final Object END = new Object();
+
+    private final int capacity;
+    private final BlockingQueue<Object> buffer;
+    private final Backpressure backpressure;
+    private final EnvelopeConsumer consumer;
+    private final Thread thread;
+    private volatile @Nullable Throwable failure;
+    // Shared by writes, and held exclusively to close
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    // Guarded by closeLock
+    private boolean closed;
+
+    IngestionBuffer(int capacity, Backpressure backpressure, ThreadFactory threadFactory, EnvelopeConsumer consumer) {
+        this.capacity = capacity;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.backpressure = backpressure;
+        this.consumer = consumer;
+        this.thread = threadFactory.newThread(this::consume);
+        thread.start();
+    }
+
+    static Thread newDaemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "cucumber-junit-xml-formatter-ingestion");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    void put(Envelope envelope) throws IOException {
+        Lock lock = closeLock.readLock();
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the ingestion buffer");
+        }
+        try {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            throwIfFailed();
+            if (backpressure == Backpressure.FAIL) {
+                if (!buffer.offer(envelope)) {
+                    throw new IOException("Ingestion buffer of " + capacity + " messages is full");
+                }
+                return;
+            }
+            // The consuming thread drains the buffer until the end, so this
+            // does not block close indefinitely
+            buffer.put(envelope);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the ingestion buffer");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void consume() {
+        while (true) {
+            Object item;
+            try {
+                item = buffer.take();
+            } catch (InterruptedException e) {
+                fail(new InterruptedIOException("Interrupted while consuming messages"));
+                continue;
+            }
+            if (item == END) {
+                return;
+            }
+            if (failure == null) {
+                try {
+                    consumer.accept((Envelope) item);
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            }
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    /**
+     * Waits until all envelopes have been consumed. When interrupted, the
+     * envelopes may still be consumed, and close can be invoked again.
+     */
+    void close() throws IOException {
+        try {
+            Lock lock = closeLock.writeLock();
+            lock.lockInterruptibly();
+            try {
+                if (!closed) {
+                    buffer.put(END);
+                    closed = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for messages to be consumed");
+        }
+        throwIfFailed();
+    }
+
+    private void throwIfFailed() throws IOException {
+        Throwable failure = this.failure;
+        if (failure != null) {
+            throw new IOException("Could not collect message", failure);
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.TestStepResultStatus;
+import org.jspecify.annotations.Nullable;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.cucumber.junitxmlformatter.XmlReportData.NO_LOCATION;
+import static io.cucumber.junitxmlformatter.XmlReportData.createLocationKey;
+import static io.cucumber.junitxmlformatter.XmlReportWriter.LOCATION_INSTRUCTION;
+import static io.cucumber.messages.types.TestStepResultStatus.FAILED;
+import static io.cucumber.messages.types.TestStepResultStatus.PASSED;
+import static io.cucumber.messages.types.TestStepResultStatus.SKIPPED;
+import static java.time.format.DateTimeFormatter.ISO_INSTANT;
+import static java.util.Comparator.comparing;
+import static java.util.Objects.requireNonNull;
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.COMMENT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.ENTITY_REFERENCE;
+import static javax.xml.stream.XMLStreamConstants.PROCESSING_INSTRUCTION;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Merges the partial reports of a test run split across machines into a
+ * single report.
+ * <p>
+ * The partial reports must be written by the {@link MessagesToJunitXmlWriter}
+ * with {@link MessagesToJunitXmlWriter.Builder#mergeable(boolean) mergeable}
+ * and without streaming, so their test cases are ordered by uri and location.
+ * The test cases are merged in the same order in a single pass, holding only
+ * the next test case of each partial report in memory. Its
+ * {@code <system-out>} and {@code <system-err>} are spooled to a temporary
+ * file. The counters of the suite are recomputed from the merged test cases.
+ */
+public final class JunitXmlReportMerger {
+
+    private static final long DEFAULT_SPILL_TO_DISK_THRESHOLD = 16 * 1024 * 1024;
+    // uri="features/example.feature" line="3" column="5"
+    private static final Pattern pseudoAttribute = Pattern.compile("([\\w-]+)=\"([^\"]*)\"");
+    private static final Pattern reference = Pattern.compile("&(?:#x([0-9a-fA-F]+)|#([0-9]+)|(amp|lt|gt|quot|apos));");
+
+    private static final Comparator<TestCaseRow> testCaseOrder = comparing(TestCaseRow::getUri)
+            .thenComparingLong(TestCaseRow::getLocationKey);
+    private static final Comparator<PartialReport> reportOrder = comparing(PartialReport::getTestCase, testCaseOrder)
+            .thenComparingInt(report -> report.index);
+
+    private final @Nullable String testSuiteName;
+    private final long spillToDiskThreshold;
+    private final boolean mergeable;
+
+    private JunitXmlReportMerger(Builder builder) {
+        this.testSuiteName = builder.testSuiteName;
+        this.spillToDiskThreshold = builder.spillToDiskThreshold;
+        this.mergeable = builder.mergeable;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Merges the partial reports into a single report. The streams are not
+     * closed.
+     *
+     * @param partialReports the partial reports, at least one
+     * @param out            the stream to write the merged report to
+     * @throws IOException if an IO error occurs, or a partial report can not be merged
+     */
+    public void merge(List<? extends InputStream> partialReports, OutputStream out) throws IOException {
+        if (partialReports.isEmpty()) {
+            throw new IllegalArgumentException("No partial reports to merge");
+        }
+        requireNonNull(out);
+        XMLInputFactory factory = createInputFactory();
+        List<PartialReport> reports = new ArrayList<>(partialReports.size());
+        try (AttachmentSpool attachmentSpool = new AttachmentSpool()) {
+            try {
+                for (InputStream partialReport : partialReports) {
+                    reports.add(new PartialReport(reports.size(), factory.createXMLStreamReader(requireNonNull(partialReport)), attachmentSpool));
+                }
+                writeMerged(reports, out);
+            } catch (XMLStreamException e) {
+                throw new IOException("Could not read partial report", e);
+            } finally {
+                for (PartialReport report : reports) {
+                    report.close();
+                }
+            }
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private void writeMerged(List<PartialReport> reports, OutputStream out) throws IOException, XMLStreamException {
+        PriorityQueue<PartialReport> next = new PriorityQueue<>(reports.size(), reportOrder);
+        for (PartialReport report : reports) {
+            if (report.advance()) {
+                next.add(report);
+            }
+        }
+
+        // The counters can only be written once all test cases have been
+        // merged. Until then, the merged test cases are buffered.
+        try (SpillingOutputStream testcases = new SpillingOutputStream(spillToDiskThreshold)) {
+            EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(testcases));
+            long tests = 0;
+            long skipped = 0;
+            long failures = 0;
+            PartialReport report;
+            while ((report = next.poll()) != null) {
+                TestCaseRow testCase = report.getTestCase();
+                // Partial reports are already truncated
+                XmlReportWriter.writeTestcase(writer, testCase, mergeable, Truncation.NONE);
+                tests++;
+                if (testCase.getStatus() == SKIPPED) {
+                    skipped++;
+                } else if (testCase.getStatus() != PASSED) {
+                    failures++;
+                }
+                if (report.advance()) {
+                    next.add(report);
+                }
+            }
+            writer.flush();
+
+            writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out));
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeNewLine();
+            writer.writeStartElement("testsuite");
+            XmlReportWriter.writeSuiteAttributes(
+                    writer,
+                    testSuiteName != null ? testSuiteName : reports.get(0).name,
+                    getSuiteDuration(reports),
+                    tests,
+                    skipped,
+                    failures,
+                    getTestRunStartedAt(reports).map(ISO_INSTANT::format)
+            );
+            writer.writeNewLine();
+            writer.flush();
+            testcases.transferTo(out);
+            writer.writeEndElement();
+            writer.writeNewLine();
+            writer.writeEndDocument();
+            writer.flush();
+        }
+    }
+
+    private static Optional<Instant> getTestRunStartedAt(List<PartialReport> reports) {
+        @Nullable Instant startedAt = null;
+        for (PartialReport report : reports) {
+            Instant timestamp = report.timestamp;
+            if (timestamp != null && (startedAt == null || timestamp.isBefore(startedAt))) {
+                startedAt = timestamp;
+            }
+        }
+        return Optional.ofNullable(startedAt);
+    }
+
+    /**
+     * The partial reports were written concurrently, so the suite lasts from
+     * the start of the first until the end of the last. Otherwise as long as
+     * the longest partial report.
+     */
+    private static Duration getSuiteDuration(List<PartialReport> reports) {
+        Optional<Instant> startedAt = getTestRunStartedAt(reports);
+        Duration longest = Duration.ZERO;
+        Instant finishedAt = Instant.MIN;
+        for (PartialReport report : reports) {
+            if (report.time.compareTo(longest) > 0) {
+                longest = report.time;
+            }
+            Instant timestamp = report.timestamp;
+            if (timestamp == null) {
+                startedAt = Optional.empty();
+            } else if (timestamp.plus(report.time).isAfter(finishedAt)) {
+                finishedAt = timestamp.plus(report.time);
+            }
+        }
+        return startedAt.isPresent() ? Duration.between(startedAt.get(), finishedAt) : longest;
+    }
+
+    private static final class PartialReport {
+        private final int index;
+        private final XMLStreamReader reader;
+        private final String name;
+        private final Duration time;
+        private final @Nullable Instant timestamp;
+        private final AttachmentSpool attachmentSpool;
+        private @Nullable TestCaseRow testCase;
+
+        private PartialReport(int index, XMLStreamReader reader, AttachmentSpool attachmentSpool) throws XMLStreamException, IOException {
+            this.index = index;
+            this.reader = reader;
+            this.attachmentSpool = attachmentSpool;
+            if (reader.nextTag() != START_ELEMENT || !"testsuite".equals(reader.getLocalName())) {
+                throw new IOException("Partial report " + index + " does not start with a <testsuite>");
+            }
+            String name = reader.getAttributeValue(null, "name");
+            if (name == null) {
+                throw new IOException("Partial report " + index + " has no suite name");
+            }
+            this.name = name;
+            this.time = parseSeconds(reader.getAttributeValue(null, "time"));
+            this.timestamp = parseTimestamp(reader.getAttributeValue(null, "timestamp"));
+        }
+
+        private TestCaseRow getTestCase() {
+            return requireNonNull(testCase);
+        }
+
+        /**
+         * Reads the next test case, if any.
+         */
+        private boolean advance() throws XMLStreamException, IOException {
+            @Nullable String uri = null;
+            long locationKey = NO_LOCATION;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == PROCESSING_INSTRUCTION && LOCATION_INSTRUCTION.equals(reader.getPITarget())) {
+                    Map<String, String> location = parsePseudoAttributes(reader.getPIData());
+                    uri = location.get("uri");
+                    locationKey = parseLocationKey(location.get("line"), location.get("column"));
+                } else if (event == START_ELEMENT && "testcase".equals(reader.getLocalName())) {
+                    if (uri == null) {
+                        throw new IOException("Partial report " + index + " has a <testcase> without a location. Was it written with mergeable(true)?");
+                    }
+                    TestCaseRow next = readTestcase(uri, locationKey);
+                    TestCaseRow previous = testCase;
+                    if (previous != null && testCaseOrder.compare(previous, next) > 0) {
+                        throw new IOException("Partial report " + index + " is not ordered by uri and location, " +
+                                describe(next) + " follows " + describe(previous) + ". Was it written without streaming?");
+                    }
+                    testCase = next;
+                    return true;
+                } else if (event == END_ELEMENT && "testsuite".equals(reader.getLocalName())) {
+                    break;
+                }
+            }
+            testCase = null;
+            return false;
+        }
+
+        private TestCaseRow readTestcase(String uri, long locationKey) throws XMLStreamException, IOException {
+            String className = requireAttribute("classname");
+            String name = requireAttribute("name");
+            Duration duration = parseSeconds(reader.getAttributeValue(null, "time"));
+            TestStepResultStatus status = PASSED;
+            @Nullable String failureType = null;
+            @Nullable String failureMessage = null;
+            @Nullable String failureDetails = null;
+            List<AttachmentSpool.Span> systemOutAttachments = Collections.emptyList();
+            List<AttachmentSpool.Span> systemErrAttachments = Collections.emptyList();
+            while (reader.nextTag() == START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "failure":
+                    case "skipped":
+                        status = "skipped".equals(reader.getLocalName()) ? SKIPPED : FAILED;
+                        failureType = reader.getAttributeValue(null, "type");
+                        failureMessage = reader.getAttributeValue(null, "message");
+                        failureDetails = stripNewLines(reader.getElementText());
+                        break;
+                    case "system-out":
+                        // Steps and text attachments, written as is
+                        systemOutAttachments = spoolElementText();
+                        break;
+                    case "system-err":
+                        systemErrAttachments = spoolElementText();
+                        break;
+                    default:
+                        throw new IOException("Partial report " + index + " has an unexpected <" + reader.getLocalName() + "> in a <testcase>");
+                }
+            }
+            return new TestCaseRow(uri, locationKey, className, name, duration, status, failureType, failureMessage, failureDetails,
+                    Collections.emptyList(), systemOutAttachments, systemErrAttachments);
+        }
+
+        /**
+         * Spools the text of the current element until it is written, one
+         * text event at a time.
+         */
+        private List<AttachmentSpool.Span> spoolElementText() throws IOException {
+            String localName = reader.getLocalName();
+            AttachmentSpool.@Nullable Span spooled = attachmentSpool.append(() -> nextText(localName));
+            return spooled == null ? Collections.emptyList() : Collections.singletonList(spooled);
+        }
+
+        /**
+         * The next text of the current element, or null at its end. Like
+         * {@link XMLStreamReader#getElementText()}, but without concatenating
+         * the text.
+         */
+        private @Nullable CharSequence nextText(String localName) throws IOException {
+            try {
+                while (true) {
+                    switch (reader.next()) {
+                        case CHARACTERS:
+                        case CDATA:
+                        case SPACE:
+                            // Valid until the reader advances
+                            return CharBuffer.wrap(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        case ENTITY_REFERENCE:
+                            return reader.getText();
+                        case PROCESSING_INSTRUCTION:
+                        case COMMENT:
+                            break;
+                        case END_ELEMENT:
+                            return null;
+                        default:
+                            throw new IOException("Partial report " + index + " has unexpected content in a <" + localName + ">");
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException("Could not read partial report", e);
+            }
+        }
+
+        private String requireAttribute(String localName) throws IOException {
+            String value = reader.getAttributeValue(null, localName);
+            if (value == null) {
+                throw new IOException("Partial report " + index + " has a <testcase> without a " + localName);
+            }
+            return value;
+        }
+
+        private void close() {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // Does not close the underlying stream
+            }
+        }
+    }
+
+    private static String describe(TestCaseRow testCase) {
+        return "<testcase classname=\"" + testCase.getClassName() + "\" name=\"" + testCase.getName() + "\">";
+    }
+
+    /**
+     * The details are written between new lines, absent if the element is
+     * empty.
+     */
+    private static @Nullable String stripNewLines(String text) {
+        return text.length() < 2 ? null : text.substring(1, text.length() - 1);
+    }
+
+    private static Duration parseSeconds(@Nullable String seconds) throws IOException {
+        if (seconds == null) {
+            return Duration.ZERO;
+        }
+        try {
+            return Duration.ofMillis(new BigDecimal(seconds).movePointRight(3).longValue());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid time " + seconds, e);
+        }
+    }
+
+    private static @Nullable Instant parseTimestamp(@Nullable String timestamp) throws IOException {
+        if (timestamp == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(timestamp);
+        } catch (DateTimeParseException e) {
+            throw new IOException("Invalid timestamp " + timestamp, e);
+        }
+    }
+
+    private static long parseLocationKey(@Nullable String line, @Nullable String column) throws IOException {
+        if (line == null) {
+            return NO_LOCATION;
+        }
+        try {
+            return createLocationKey(Long.parseLong(line), column == null ? null : Long.valueOf(column));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid location " + line + ":" + column, e);
+        }
+    }
+
+    private static Map<String, String> parsePseudoAttributes(String data) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = pseudoAttribute.matcher(data);
+        while (matcher.find()) {
+            attributes.put(matcher.group(1), unescape(matcher.group(2)));
+        }
+        return attributes;
+    }
+
+    /**
+     * Parsers do not resolve references in processing instructions.
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        Matcher matcher = reference.matcher(value);
+        int start = 0;
+        while (matcher.find()) {
+            unescaped.append(value, start, matcher.start());
+            if (matcher.group(1) != null) {
+                unescaped.appendCodePoint(Integer.parseInt(matcher.group(1), 16));
+            } else if (matcher.group(2) != null) {
+                unescaped.appendCodePoint(Integer.parseInt(matcher.group(2)));
+            } else {
+                unescaped.append(toCharacter(matcher.group(3)));
+            }
+            start = matcher.end();
+        }
+        return unescaped.append(value, start, value.length()).toString();
+    }
+
+    private static char toCharacter(String entity) {
+        switch (entity) {
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            default:
+                return '&';
+        }
+    }
+
+    public final static class Builder {
+
+        private @Nullable String testSuiteName;
+        private long spillToDiskThreshold = DEFAULT_SPILL_TO_DISK_THRESHOLD;
+        private boolean mergeable = false;
+
+        private Builder() {
+
+        }
+
+        /**
+         * Sets the value for the {@code <testsuite name="..." .../>} attribute. Defaults to the name of the first
+         * partial report.
+         */
+        public Builder testSuiteName(String testSuiteName) {
+            this.testSuiteName = requireNonNull(testSuiteName);
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes of merged test cases buffered in memory until the counters of the suite are
+         * known. Beyond this, the merged test cases are appended to a temporary file. Defaults to 16 MiB.
+         */
+        public Builder spillToDiskThreshold(long spillToDiskThreshold) {
+            if (spillToDiskThreshold < 0) {
+                throw new IllegalArgumentException("spillToDiskThreshold must be positive or zero, was " + spillToDiskThreshold);
+            }
+            this.spillToDiskThreshold = spillToDiskThreshold;
+            return this;
+        }
+
+        /**
+         * Writes the location of each test case into the merged report, so it can be merged again. Defaults to
+         * {@code false}.
+         *
+         * @see MessagesToJunitXmlWriter.Builder#mergeable(boolean)
+         */
+        public Builder mergeable(boolean mergeable) {
+            this.mergeable = mergeable;
+            return this;
+        }
+
+        public JunitXmlReportMerger build() {
+            return new JunitXmlReportMerger(this);
+        }
+    }
+}
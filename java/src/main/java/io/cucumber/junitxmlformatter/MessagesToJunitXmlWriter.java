@@ -1,14 +1,24 @@
 package io.cucumber.junitxmlformatter;
 
+import io.cucumber.messages.NdjsonToMessageReader;
 import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestCaseFinished;
 import io.cucumber.query.NamingStrategy;
 import org.jspecify.annotations.Nullable;
 
-import javax.xml.stream.XMLStreamException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static io.cucumber.query.NamingStrategy.ExampleName.NUMBER_AND_PICKLE_IF_PARAMETERIZED;
 import static io.cucumber.query.NamingStrategy.FeatureName.EXCLUDE;
@@ -19,23 +29,36 @@ import static java.util.Objects.requireNonNull;
  * Writes the message output of a test run as single page xml report.
  * <p>
  * Note: Messages are first collected and only written once the stream is closed.
+ * When {@linkplain Builder#streaming(boolean) streaming}, each test case is
+ * instead rendered as soon as it has finished.
+ * <p>
+ * Messages may be written concurrently, e.g. by test cases executing in
+ * parallel, provided the messages of each test case are written in order. The
+ * report is only closed once all writes have completed.
  *
  * @see <a href=https://github.com/cucumber/junit-xml-formatter>Cucumber JUnit XML Formatter - README.md</a>
  */
 public final class MessagesToJunitXmlWriter implements AutoCloseable {
 
     private static final String DEFAULT_TEST_SUITE_NAME = "Cucumber";
-    private final OutputStreamWriter out;
+    private static final long DEFAULT_SPILL_TO_DISK_THRESHOLD = 16 * 1024 * 1024;
     private final XmlReportData data;
-    private boolean streamClosed = false;
+    private final ReportOutput output;
+    private final boolean streaming;
+    private final Executor decodingExecutor;
+    private final WriterStatisticsRecorder statistics = new WriterStatisticsRecorder();
+    private final Consumer<WriterStatistics> statisticsListener;
+    private final @Nullable Supplier<IngestionBuffer> createIngestion;
+    private @Nullable IngestionBuffer ingestion;
+    private volatile boolean streamClosed = false;
 
     public MessagesToJunitXmlWriter(OutputStream out) {
-        this("Cucumber", null, createNamingStrategy(NUMBER_AND_PICKLE_IF_PARAMETERIZED), out);
+        this(builder(), out, null);
     }
 
     @Deprecated
     public MessagesToJunitXmlWriter(NamingStrategy.ExampleName exampleNameStrategy, OutputStream out) {
-        this("Cucumber", null, createNamingStrategy(requireNonNull(exampleNameStrategy)), out);
+        this(builder().testNamingStrategy(createNamingStrategy(requireNonNull(exampleNameStrategy))), out, null);
     }
 
     public static Builder builder() {
@@ -46,16 +69,44 @@ public final class MessagesToJunitXmlWriter implements AutoCloseable {
         return NamingStrategy.strategy(NamingStrategy.Strategy.LONG).featureName(NamingStrategy.FeatureName.EXCLUDE).exampleName(exampleName).build();
     }
 
-    private MessagesToJunitXmlWriter(String testSuiteName, @Nullable String testClassName, NamingStrategy testNamingStrategy, OutputStream out) {
-        this.data = new XmlReportData(testSuiteName, testClassName, testNamingStrategy);
-        this.out = new OutputStreamWriter(
+    private MessagesToJunitXmlWriter(Builder builder, OutputStream out, @Nullable OutputStream index) {
+        this(builder, builder.streaming, (data, statistics) -> new XmlReportWriter(
+                data,
                 requireNonNull(out),
-                StandardCharsets.UTF_8
+                index,
+                builder.compression,
+                builder.getExecutor(),
+                builder.spillToDiskThreshold,
+                builder.renderingExecutor,
+                builder.mergeable,
+                builder.getTruncation(data, statistics),
+                statistics
+        ));
+    }
+
+    private MessagesToJunitXmlWriter(Builder builder, boolean streaming, BiFunction<XmlReportData, WriterStatisticsRecorder, ReportOutput> createOutput) {
+        this.data = new XmlReportData(builder.testSuiteName, builder.testClassName, builder.testNamingStrategy, builder.textAttachments);
+        this.output = createOutput.apply(data, statistics);
+        this.streaming = streaming;
+        this.decodingExecutor = builder.decodingExecutor;
+        this.statisticsListener = builder.statisticsListener;
+        ThreadFactory ingestionThreadFactory = builder.ingestionThreadFactory;
+        int ingestionBufferCapacity = builder.ingestionBufferCapacity;
+        Backpressure backpressure = builder.backpressure;
+        this.createIngestion = ingestionThreadFactory == null ? null : () -> new IngestionBuffer(
+                ingestionBufferCapacity,
+                backpressure,
+                ingestionThreadFactory,
+                this::collect
         );
+        this.ingestion = createIngestion == null ? null : createIngestion.get();
     }
 
     /**
      * Writes a cucumber message to the xml output.
+     * <p>
+     * When {@linkplain Builder#asynchronous(int, Backpressure) asynchronous}, the message is only added to the
+     * buffer.
      *
      * @param envelope the message
      * @throws IOException if an IO error occurs
@@ -64,15 +115,69 @@ public final class MessagesToJunitXmlWriter implements AutoCloseable {
         if (streamClosed) {
             throw new IOException("Stream closed");
         }
-        data.collect(envelope);
+        if (ingestion != null) {
+            ingestion.put(envelope);
+        } else {
+            collect(envelope);
+        }
+    }
+
+    private void collect(Envelope envelope) throws IOException {
+        statistics.collect(data, envelope);
+        if (streaming && envelope.getTestCaseFinished().isPresent()) {
+            writeFinishedTestCase(envelope.getTestCaseFinished().get());
+        }
+    }
+
+    /**
+     * Writes the cucumber messages of an ndjson file to the xml output, in the order of the file.
+     * <p>
+     * The file is memory-mapped and split into chunks of lines that are decoded in parallel on the executor given to
+     * {@link Builder#parallelDecoding(Executor)}. The deserializer must be thread-safe.
+     *
+     * @param messages     the ndjson file
+     * @param deserializer the deserializer of a single line
+     * @throws IOException if an IO error occurs, or a message could not be deserialized
+     */
+    public void write(Path messages, NdjsonToMessageReader.Deserializer deserializer) throws IOException {
+        new ParallelNdjsonReader(messages, deserializer, decodingExecutor, ParallelNdjsonReader.DEFAULT_CHUNK_SIZE)
+                .forEach(this::write);
+    }
+
+    /**
+     * Converts an ndjson file of cucumber messages into an xml report with the default options.
+     *
+     * @param messages     the ndjson file
+     * @param report       the xml report
+     * @param deserializer the deserializer of a single line, must be thread-safe
+     * @throws IOException if an IO error occurs, or a message could not be deserialized
+     * @see #write(Path, NdjsonToMessageReader.Deserializer)
+     */
+    public static void convert(Path messages, Path report, NdjsonToMessageReader.Deserializer deserializer) throws IOException {
+        // Not buffered, the writer buffers what it renders itself
+        try (MessagesToJunitXmlWriter writer = builder().build(new FileOutputStream(report.toFile()))) {
+            writer.write(messages, deserializer);
+        }
+    }
+
+    private void writeFinishedTestCase(TestCaseFinished testCaseFinished) throws IOException {
+        Optional<TestCaseRow> testCase = data.release(testCaseFinished);
+        if (testCase.isPresent()) {
+            statistics.writeTestcase(output, testCase.get(), data::releaseFailurePayloads);
+        }
     }
 
     /**
      * Closes the stream, flushing it first. Once closed further write()
      * invocations will cause an IOException to be thrown. Closing a closed
      * stream has no effect.
+     * <p>
+     * When {@link Builder#asynchronous(int, Backpressure) asynchronous}, close waits until all messages have been
+     * collected. If interrupted while waiting, the report is not written, the interrupt status is restored, and
+     * close can be invoked again.
      *
      * @throws IOException if an IO error occurs
+     * @throws InterruptedIOException if interrupted while waiting for messages to be collected
      */
     @Override
     public void close() throws IOException {
@@ -80,17 +185,82 @@ public final class MessagesToJunitXmlWriter implements AutoCloseable {
             return;
         }
 
+        @Nullable IOException ingestionFailure = null;
+        if (ingestion != null) {
+            try {
+                ingestion.close();
+            } catch (InterruptedIOException e) {
+                // Messages may still be collected, so the report is not written
+                throw e;
+            } catch (IOException e) {
+                ingestionFailure = e;
+            }
+        }
         try {
-            new XmlReportWriter(data).writeXmlReport(out);
-        } catch (XMLStreamException e) {
-            throw new IOException("Error while transforming.", e);
-        } finally {
             try {
-                out.close();
+                statistics.writeReport(output);
             } finally {
-                streamClosed = true;
+                data.close();
             }
+        } catch (IOException | RuntimeException e) {
+            if (ingestionFailure != null) {
+                e.addSuppressed(ingestionFailure);
+            }
+            throw e;
+        } finally {
+            streamClosed = true;
+            // Also when the report could not be written
+            statisticsListener.accept(statistics.getStatistics());
+        }
+        if (ingestionFailure != null) {
+            throw ingestionFailure;
+        }
+    }
+
+    /**
+     * Resets a closed writer to write another report to the given output stream, with the same options.
+     * <p>
+     * The collections and buffers of the previous report are reused, so a long-lived process writing many small
+     * reports does not set up a new writer for each report. Only a writer built with
+     * {@link Builder#build(OutputStream)} can be reset.
+     *
+     * @param out the output stream of the next report
+     * @throws IOException if an IO error occurs
+     * @throws IllegalStateException if the writer has not been closed, or was not built with
+     *                               {@link Builder#build(OutputStream)}
+     */
+    public void reset(OutputStream out) throws IOException {
+        resetTo(requireNonNull(out), null);
+    }
+
+    /**
+     * Resets a closed writer to write another report to {@code out}, and an index of its test cases to
+     * {@code index}, with the same options.
+     *
+     * @param out   the output stream of the next report
+     * @param index the output stream of the index of the next report
+     * @throws IOException if an IO error occurs
+     * @throws IllegalStateException if the writer has not been closed, or was not built with
+     *                               {@link Builder#build(OutputStream)}
+     * @see #reset(OutputStream)
+     * @see Builder#build(OutputStream, OutputStream)
+     */
+    public void reset(OutputStream out, OutputStream index) throws IOException {
+        resetTo(requireNonNull(out), requireNonNull(index));
+    }
+
+    private void resetTo(OutputStream out, @Nullable OutputStream index) throws IOException {
+        if (!streamClosed) {
+            throw new IllegalStateException("Writer must be closed before it is reset");
         }
+        if (!(output instanceof XmlReportWriter)) {
+            throw new IllegalStateException("Only a writer built with build(OutputStream) can be reset");
+        }
+        ((XmlReportWriter) output).reset(out, index);
+        data.reset();
+        statistics.reset();
+        ingestion = createIngestion == null ? null : createIngestion.get();
+        streamClosed = false;
     }
 
     public final static class Builder {
@@ -101,6 +271,25 @@ public final class MessagesToJunitXmlWriter implements AutoCloseable {
                 .featureName(EXCLUDE)
                 .exampleName(NUMBER_AND_PICKLE_IF_PARAMETERIZED)
                 .build();
+        private boolean streaming = false;
+        private long spillToDiskThreshold = DEFAULT_SPILL_TO_DISK_THRESHOLD;
+        private boolean spillToDiskThresholdSet = false;
+        private @Nullable Executor renderingExecutor;
+        private Executor decodingExecutor = ForkJoinPool.commonPool();
+        private ShardingStrategy shardingStrategy = ShardingStrategy.byFeature();
+        private boolean mergeable = false;
+        private Compression compression = Compression.none();
+        private long maxCDataBytes = Long.MAX_VALUE;
+        private int maxStackTraceFrames = Integer.MAX_VALUE;
+        private int maxStepLines = Integer.MAX_VALUE;
+        private TextAttachments textAttachments = TextAttachments.EXCLUDE;
+        private @Nullable Duration checkpointInterval;
+        private int checkpointTestCaseCount = Integer.MAX_VALUE;
+        private int ingestionBufferCapacity;
+        private Backpressure backpressure = Backpressure.BLOCK;
+        private @Nullable ThreadFactory ingestionThreadFactory;
+        private Consumer<WriterStatistics> statisticsListener = statistics -> {
+        };
 
         private Builder() {
 
@@ -133,8 +322,331 @@ public final class MessagesToJunitXmlWriter implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Writes each {@code <testcase>} as soon as its test case has finished, in the order in which the test cases
+         * finish, and discards its data afterwards. Defaults to {@code false}, writing all test cases in canonical
+         * order when the writer is closed.
+         * <p>
+         * The {@code <testsuite .../>} attributes are only known once all test cases have finished. Until then, the
+         * rendered test cases are buffered, see {@link #spillToDiskThreshold(long)}. When written to a directory
+         * {@linkplain ShardingStrategy#byFeature() by feature}, the test cases are kept in memory until the writer is
+         * closed.
+         */
+        public Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes of rendered test cases buffered in memory when {@link #streaming(boolean)
+         * streaming}. Beyond this, rendered test cases are appended to a temporary file that is copied into the
+         * output when the writer is closed. Defaults to 16 MiB.
+         * <p>
+         * Only streamed test cases are spilled. Without {@code streaming}, every test case is retained in memory until
+         * the writer is closed, so a writer with a threshold is only built when streaming to an output stream. The
+         * index written by {@link #build(OutputStream, OutputStream)} buffers the records of streamed test cases the
+         * same way.
+         */
+        public Builder spillToDiskThreshold(long spillToDiskThreshold) {
+            if (spillToDiskThreshold < 0) {
+                throw new IllegalArgumentException("spillToDiskThreshold must be positive or zero, was " + spillToDiskThreshold);
+            }
+            this.spillToDiskThreshold = spillToDiskThreshold;
+            this.spillToDiskThresholdSet = true;
+            return this;
+        }
+
+        /**
+         * Renders the {@code <testcase>} elements written on close in parallel on the
+         * {@linkplain ForkJoinPool#commonPool() common pool}. The output is the same as when rendered sequentially.
+         * Defaults to {@code false}.
+         */
+        public Builder parallelRendering(boolean parallelRendering) {
+            this.renderingExecutor = parallelRendering ? ForkJoinPool.commonPool() : null;
+            return this;
+        }
+
+        /**
+         * Renders the {@code <testcase>} elements written on close in parallel on the given executor. The output is
+         * the same as when rendered sequentially. The executor is not shut down when the writer is closed.
+         */
+        public Builder parallelRendering(Executor executor) {
+            this.renderingExecutor = requireNonNull(executor);
+            return this;
+        }
+
+        /**
+         * Decodes the messages read by {@link MessagesToJunitXmlWriter#write(Path, NdjsonToMessageReader.Deserializer)}
+         * in parallel on the given executor. Defaults to the {@linkplain ForkJoinPool#commonPool() common pool},
+         * independent of {@link #parallelRendering(Executor)}. The executor is not shut down when the writer is closed.
+         */
+        public Builder parallelDecoding(Executor executor) {
+            this.decodingExecutor = requireNonNull(executor);
+            return this;
+        }
+
+        /**
+         * Sets how a report written to a directory is split into shards. Defaults to
+         * {@link ShardingStrategy#byFeature()}.
+         *
+         * @see #build(Path)
+         */
+        public Builder shardingStrategy(ShardingStrategy shardingStrategy) {
+            this.shardingStrategy = requireNonNull(shardingStrategy);
+            return this;
+        }
+
+        /**
+         * Writes the location of each test case as a {@code <?cucumber-location ...?>} processing instruction
+         * ahead of its {@code <testcase>}, so partial reports of a run split across machines can be merged by the
+         * {@link JunitXmlReportMerger}. Consumers of the report ignore processing instructions. Defaults to
+         * {@code false}.
+         */
+        public Builder mergeable(boolean mergeable) {
+            this.mergeable = mergeable;
+            return this;
+        }
+
+        /**
+         * Compresses the report as it is written. Defaults to {@link Compression#none()}.
+         * <p>
+         * With {@link Compression#parallelGzip(int, int)}, blocks are compressed on the executor given to
+         * {@link #parallelRendering(Executor)}, or the {@linkplain ForkJoinPool#commonPool() common pool} otherwise.
+         * When written to a directory, each shard is a {@code .xml.gz} file. Shards are already written in parallel,
+         * so each shard is compressed sequentially.
+         */
+        public Builder compression(Compression compression) {
+            this.compression = requireNonNull(compression);
+            return this;
+        }
+
+        /**
+         * Limits the number of bytes of each {@code CDATA} section, the details of a failure and the steps of a test
+         * case, as encoded in UTF-8. Oversized sections retain their first and last half around a
+         * {@code [... N bytes truncated ...]} marker. Defaults to unlimited.
+         * <p>
+         * The limit applies to the content before it is escaped. Characters that are not allowed in xml are written as
+         * character references, and a {@code ]]>} splits the section, so the section written may be slightly longer.
+         */
+        public Builder maxCDataBytes(long maxCDataBytes) {
+            if (maxCDataBytes < 1) {
+                throw new IllegalArgumentException("maxCDataBytes must be positive, was " + maxCDataBytes);
+            }
+            this.maxCDataBytes = maxCDataBytes;
+            return this;
+        }
+
+        /**
+         * Limits the number of frames of the stack trace of a failure. Frames are lines starting with {@code at}, as
+         * in Java and JavaScript stack traces. Longer stack traces retain their first and last frames around a
+         * {@code [... N frames truncated ...]} marker, along with the lines after the last frame. Lines between the
+         * truncated frames, such as {@code Caused by:}, are truncated too. Defaults to unlimited.
+         */
+        public Builder maxStackTraceFrames(int maxStackTraceFrames) {
+            if (maxStackTraceFrames < 1) {
+                throw new IllegalArgumentException("maxStackTraceFrames must be positive, was " + maxStackTraceFrames);
+            }
+            this.maxStackTraceFrames = maxStackTraceFrames;
+            return this;
+        }
+
+        /**
+         * Limits the number of steps written to the {@code <system-out>} of a test case. Test cases with more steps
+         * retain their first and last steps around a {@code [... N steps truncated ...]} marker. Defaults to
+         * unlimited.
+         */
+        public Builder maxStepLines(int maxStepLines) {
+            if (maxStepLines < 1) {
+                throw new IllegalArgumentException("maxStepLines must be positive, was " + maxStepLines);
+            }
+            this.maxStepLines = maxStepLines;
+            return this;
+        }
+
+        /**
+         * Writes the {@code text/*} attachments of each test case to its {@code <system-out>}, after the steps, or to
+         * its {@code <system-err>}. Defaults to {@link TextAttachments#EXCLUDE}.
+         * <p>
+         * Attachments are spooled to a temporary file as they are collected, and only read back when their test
+         * case is written, so they are not retained in memory. Base64 encoded attachments are assumed to be UTF-8
+         * encoded. Other attachments are dropped as they are collected. The attachments of a test case are limited
+         * by {@link #maxCDataBytes(long)} as a whole.
+         */
+        public Builder textAttachments(TextAttachments textAttachments) {
+            this.textAttachments = requireNonNull(textAttachments);
+            return this;
+        }
+
+        /**
+         * Receives the {@link WriterStatistics} of the writer once it has been closed, also when the report could
+         * not be written. The statistics are also available as JDK Flight Recorder events in the
+         * {@code Cucumber / JUnit XML Formatter} category.
+         */
+        public Builder statisticsListener(Consumer<WriterStatistics> statisticsListener) {
+            this.statisticsListener = requireNonNull(statisticsListener);
+            return this;
+        }
+
+        /**
+         * Replaces the report written by {@link #buildFile(Path)} with a well-formed partial report of the test
+         * cases finished so far, once the interval has passed since the previous checkpoint. Checkpoints are only
+         * written as test cases finish. Defaults to never.
+         */
+        public Builder checkpointEvery(Duration interval) {
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("checkpoint interval must be positive, was " + interval);
+            }
+            this.checkpointInterval = interval;
+            return this;
+        }
+
+        /**
+         * Replaces the report written by {@link #buildFile(Path)} with a well-formed partial report of the test
+         * cases finished so far, once the given number of test cases has finished since the previous checkpoint.
+         * Defaults to never.
+         */
+        public Builder checkpointEvery(int testCases) {
+            if (testCases < 1) {
+                throw new IllegalArgumentException("checkpoint test case count must be positive, was " + testCases);
+            }
+            this.checkpointTestCaseCount = testCases;
+            return this;
+        }
+
+        /**
+         * Collects messages on a dedicated daemon thread, so {@link MessagesToJunitXmlWriter#write(Envelope)} only
+         * adds the message to a buffer of the given capacity. The backpressure decides what happens when the buffer
+         * is full. Defaults to collecting messages on the thread that writes them.
+         * <p>
+         * When closed, the writer waits for the buffer to be drained and writes the report. A failure to collect a
+         * message is then thrown as an {@link IOException}, and by any further writes.
+         */
+        public Builder asynchronous(int bufferCapacity, Backpressure backpressure) {
+            return asynchronous(bufferCapacity, backpressure, IngestionBuffer::newDaemonThread);
+        }
+
+        /**
+         * Collects messages on a thread created by the thread factory, e.g. a virtual thread.
+         *
+         * @see #asynchronous(int, Backpressure)
+         */
+        public Builder asynchronous(int bufferCapacity, Backpressure backpressure, ThreadFactory threadFactory) {
+            if (bufferCapacity < 1) {
+                throw new IllegalArgumentException("bufferCapacity must be positive, was " + bufferCapacity);
+            }
+            this.ingestionBufferCapacity = bufferCapacity;
+            this.backpressure = requireNonNull(backpressure);
+            this.ingestionThreadFactory = requireNonNull(threadFactory);
+            return this;
+        }
+
+        /**
+         * Writes the report to {@code out}, which is closed with the writer.
+         *
+         * @throws IllegalStateException if a {@link #spillToDiskThreshold(long)} is set without
+         *                               {@link #streaming(boolean)}
+         */
         public MessagesToJunitXmlWriter build(OutputStream out) {
-            return new MessagesToJunitXmlWriter(testSuiteName, testClassName, testNamingStrategy, requireNonNull(out));
+            checkSpillToDiskThreshold(streaming);
+            return new MessagesToJunitXmlWriter(this, requireNonNull(out), null);
+        }
+
+        /**
+         * Writes the report to {@code out}, and an index of its test cases to {@code index}. Both streams are closed
+         * with the writer.
+         * <p>
+         * The index is ndjson with a record per {@code <testcase>} element, in the order of the report:
+         * <pre>
+         * {"offset":214,"length":385,"classname":"Feature","name":"Scenario","status":"FAILED","time":0.004}
+         * </pre>
+         * The offset and length are in bytes of the report, from {@code <testcase} up to and including
+         * {@code </testcase>}, so a tool can read the failed test cases without parsing the report. The status is
+         * the most severe status of the test case, and the time is in seconds.
+         * <p>
+         * Compression is not supported.
+         *
+         * @throws IllegalStateException if a {@link #spillToDiskThreshold(long)} is set without
+         *                               {@link #streaming(boolean)}
+         */
+        public MessagesToJunitXmlWriter build(OutputStream out, OutputStream index) {
+            checkSpillToDiskThreshold(streaming);
+            return new MessagesToJunitXmlWriter(this, requireNonNull(out), requireNonNull(index));
+        }
+
+        /**
+         * Writes the report to a directory of shards, split by the {@link #shardingStrategy(ShardingStrategy)}. Each
+         * shard is a complete {@code <testsuite>} with the counters and time of its own test cases.
+         * <p>
+         * Shards are rendered and written in parallel on the executor given to {@link #parallelRendering(Executor)},
+         * or the {@linkplain ForkJoinPool#commonPool() common pool} otherwise. When {@link #streaming(boolean)
+         * streaming}, each shard is written as soon as it is complete. Shards are not spilled to disk.
+         *
+         * @throws IllegalStateException if a {@link #spillToDiskThreshold(long)} is set
+         */
+        public MessagesToJunitXmlWriter build(Path directory) {
+            requireNonNull(directory);
+            checkSpillToDiskThreshold(false);
+            return new MessagesToJunitXmlWriter(this, streaming, (data, statistics) -> new ShardedXmlReportWriter(
+                    data,
+                    directory,
+                    shardingStrategy,
+                    compression,
+                    getExecutor(),
+                    mergeable,
+                    getTruncation(data, statistics),
+                    statistics
+            ));
+        }
+
+        /**
+         * Writes the report to a file, replacing it atomically. Test cases are always {@link #streaming(boolean)
+         * streamed}, in the order in which they finish.
+         * <p>
+         * With {@link #checkpointEvery(Duration)} or {@link #checkpointEvery(int)}, the file is periodically replaced
+         * with a well-formed partial report, so a report survives a crash of the test run. Each checkpoint only
+         * appends the test cases finished since the previous one and rewrites the header, so its cost does not grow
+         * with the size of the report. The report is built in two working copies next to the file.
+         * <p>
+         * Compression is not supported, nor is a {@link #spillToDiskThreshold(long)}, as the working copies are
+         * already on disk.
+         */
+        public MessagesToJunitXmlWriter buildFile(Path file) {
+            requireNonNull(file);
+            if (compression != Compression.none()) {
+                throw new IllegalStateException("Compression is not supported when writing to a file");
+            }
+            checkSpillToDiskThreshold(false);
+            return new MessagesToJunitXmlWriter(this, true, (data, statistics) -> new CheckpointingXmlReportWriter(
+                    data,
+                    file,
+                    getCheckpointIntervalNanos(),
+                    checkpointTestCaseCount,
+                    mergeable,
+                    getTruncation(data, statistics),
+                    statistics
+            ));
+        }
+
+        private void checkSpillToDiskThreshold(boolean spills) {
+            if (spillToDiskThresholdSet && !spills) {
+                throw new IllegalStateException("spillToDiskThreshold is only supported when streaming to an output stream");
+            }
+        }
+
+        private long getCheckpointIntervalNanos() {
+            Duration interval = checkpointInterval;
+            if (interval == null || interval.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0) {
+                return Long.MAX_VALUE;
+            }
+            return interval.toNanos();
+        }
+
+        private Truncation getTruncation(XmlReportData data, WriterStatisticsRecorder statistics) {
+            return new Truncation(maxCDataBytes, maxStackTraceFrames, maxStepLines, data.getFailurePayloads(), statistics::recordCDataBytes);
+        }
+
+        private Executor getExecutor() {
+            return renderingExecutor != null ? renderingExecutor : ForkJoinPool.commonPool();
         }
     }
 }
@@ -0,0 +1,125 @@
+package io.cucumber.junitxmlformatter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Runs tasks in parallel, handing their results to a consumer in the order in
+ * which the tasks were submitted.
+ * <p>
+ * Only a few tasks per processor run ahead of the result that is consumed.
+ * That keeps every processor busy while the oldest result is consumed, and
+ * bounds memory by the size of a result rather than by the number of tasks.
+ * Once the lookahead is reached, submitting a task first consumes the oldest
+ * result.
+ */
+final class OrderedParallelTasks<T> implements AutoCloseable {
+
+    interface ResultConsumer<T> {
+        void accept(T result) throws IOException;
+    }
+
+    interface BatchConsumer<E, R> {
+        void accept(List<E> batch, R result) throws IOException;
+    }
+
+    private final Executor executor;
+    private final int lookahead;
+    private final ResultConsumer<T> consumer;
+    private final Deque<CompletableFuture<T>> running = new ArrayDeque<>();
+
+    OrderedParallelTasks(Executor executor, int lookahead, ResultConsumer<T> consumer) {
+        if (lookahead < 1) {
+            throw new IllegalArgumentException("lookahead must be positive, was " + lookahead);
+        }
+        this.executor = requireNonNull(executor);
+        this.lookahead = lookahead;
+        this.consumer = requireNonNull(consumer);
+    }
+
+    /**
+     * A lookahead of the given number of tasks per available processor.
+     */
+    static int perProcessor(int tasks) {
+        return tasks * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Applies the task to consecutive batches of the items in parallel,
+     * handing each batch and its result to the consumer in order. The items
+     * are split into batches of at most {@code maxBatchSize} items, but
+     * small enough that there are about as many batches as the lookahead.
+     */
+    static <E, R> void forEachBatch(
+            List<E> items,
+            int maxBatchSize,
+            int lookahead,
+            Executor executor,
+            Function<List<E>, R> task,
+            BatchConsumer<E, R> consumer
+    ) throws IOException {
+        int batchSize = Math.min(maxBatchSize, Math.max(1, items.size() / lookahead));
+        try (OrderedParallelTasks<Batch<E, R>> tasks = new OrderedParallelTasks<>(executor, lookahead,
+                batch -> consumer.accept(batch.items, batch.result))) {
+            for (int start = 0; start < items.size(); start += batchSize) {
+                List<E> batch = items.subList(start, Math.min(start + batchSize, items.size()));
+                tasks.submit(() -> new Batch<>(batch, task.apply(batch)));
+            }
+            tasks.awaitAll();
+        }
+    }
+
+    /**
+     * Runs the task on the executor, first consuming the oldest result if
+     * the lookahead has been reached.
+     */
+    void submit(Supplier<T> task) throws IOException {
+        if (running.size() == lookahead) {
+            consumeOldest();
+        }
+        running.addLast(CompletableFuture.supplyAsync(task, executor));
+    }
+
+    /**
+     * Waits for all submitted tasks, consuming their results in order.
+     */
+    void awaitAll() throws IOException {
+        while (!running.isEmpty()) {
+            consumeOldest();
+        }
+    }
+
+    private void consumeOldest() throws IOException {
+        consumer.accept(XmlReportWriter.join(running.removeFirst()));
+    }
+
+    /**
+     * Cancels the tasks whose results have not been consumed. Tasks that
+     * have already started run to completion, their results are discarded.
+     */
+    @Override
+    public void close() {
+        for (CompletableFuture<T> task : running) {
+            task.cancel(false);
+        }
+        running.clear();
+    }
+
+    private static final class Batch<E, R> {
+        private final List<E> items;
+        private final R result;
+
+        private Batch(List<E> items, R result) {
+            this.items = items;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.cucumber.junitxmlformatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Compresses blocks of bytes in parallel, writing each block as a separate
+ * gzip member in order.
+ * <p>
+ * Blocks are compressed on the executor, so memory is bounded by the block
+ * size rather than by the size of the output. Flushing writes the blocks
+ * compressed so far. The block that is being filled is only compressed once
+ * it is full or the stream is closed.
+ */
+final class ParallelGzipOutputStream extends OutputStream {
+
+    // See https://www.rfc-editor.org/rfc/rfc1952#section-2.3
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, // magic
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            (byte) 0xff // operating system, unknown
+    };
+
+    private final OutputStream out;
+    private final int level;
+    private final OrderedParallelTasks<byte[]> compressing;
+    private byte[] block;
+    private int position;
+    private boolean compressedAnyBlock;
+    private boolean closed;
+
+    ParallelGzipOutputStream(OutputStream out, int level, int blockSize, Executor executor) {
+        this.out = requireNonNull(out);
+        this.level = level;
+        this.block = new byte[blockSize];
+        this.compressing = new OrderedParallelTasks<>(executor, OrderedParallelTasks.perProcessor(2), this.out::write);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[position++] = (byte) b;
+        if (position == block.length) {
+            compressBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int length = Math.min(len, block.length - position);
+            System.arraycopy(b, off, block, position, length);
+            position += length;
+            off += length;
+            len -= length;
+            if (position == block.length) {
+                compressBlock();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void compressBlock() throws IOException {
+        byte[] filled = position == block.length ? block : Arrays.copyOf(block, position);
+        compressing.submit(() -> compress(filled, level));
+        compressedAnyBlock = true;
+        block = new byte[block.length];
+        position = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        compressing.awaitAll();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            // An empty stream is still a gzip member
+            if (position > 0 || !compressedAnyBlock) {
+                compressBlock();
+            }
+            compressing.awaitAll();
+        } finally {
+            closed = true;
+            // Blocks that will not be written
+            compressing.close();
+            out.close();
+        }
+    }
+
+    private static byte[] compress(byte[] block, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(block.length / 2 + 64);
+        member.write(HEADER, 0, HEADER.length);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(block);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                member.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(block, 0, block.length);
+        writeIntLittleEndian(member, (int) crc.getValue());
+        writeIntLittleEndian(member, block.length);
+        return member.toByteArray();
+    }
+
+    private static void writeIntLittleEndian(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
@@ -0,0 +1,136 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.types.Envelope;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads a file of ndjson messages, decoding chunks of lines in parallel.
+ * <p>
+ * The file is memory-mapped and split at new lines into chunks of about the
+ * same size. Chunks are decoded into envelopes on the executor and handed to
+ * the consumer in order, so memory is bounded by the chunk size rather than by
+ * the size of the file.
+ */
+final class ParallelNdjsonReader {
+
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 8192;
+
+    interface EnvelopeConsumer {
+        void accept(Envelope envelope) throws IOException;
+    }
+
+    private final Path path;
+    private final NdjsonToMessageReader.Deserializer deserializer;
+    private final Executor executor;
+    private final int chunkSize;
+
+    ParallelNdjsonReader(Path path, NdjsonToMessageReader.Deserializer deserializer, Executor executor, int chunkSize) {
+        this.path = requireNonNull(path);
+        this.deserializer = requireNonNull(deserializer);
+        this.executor = requireNonNull(executor);
+        this.chunkSize = chunkSize;
+    }
+
+    void forEach(EnvelopeConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ);
+             OrderedParallelTasks<List<Envelope>> decoding = new OrderedParallelTasks<>(
+                     executor, OrderedParallelTasks.perProcessor(2), envelopes -> consume(envelopes, consumer))) {
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                long end = findLineEnd(channel, Math.min(size, start + chunkSize), size);
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("Line at byte offset " + start + " is longer than " + Integer.MAX_VALUE + " bytes");
+                }
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                long offset = start;
+                decoding.submit(() -> decode(chunk, offset));
+                start = end;
+            }
+            decoding.awaitAll();
+        }
+    }
+
+    private static void consume(List<Envelope> envelopes, EnvelopeConsumer consumer) throws IOException {
+        for (Envelope envelope : envelopes) {
+            consumer.accept(envelope);
+        }
+    }
+
+    /**
+     * Returns the position after the first new line at or after
+     * {@code position}, or the end of the file.
+     */
+    private static long findLineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        // The chunk ends after the new line that precedes position
+        long scanned = Math.max(0, position - 1);
+        while (scanned < size) {
+            buffer.clear();
+            int read = channel.read(buffer, scanned);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return scanned + i + 1;
+                }
+            }
+            scanned += read;
+        }
+        return size;
+    }
+
+    private List<Envelope> decode(ByteBuffer chunk, long offset) {
+        List<Envelope> envelopes = new ArrayList<>();
+        byte[] line = new byte[256];
+        int lineStart = 0;
+        int limit = chunk.limit();
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && chunk.get(i) != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > lineStart && chunk.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            int length = lineEnd - lineStart;
+            if (length > 0) {
+                if (length > line.length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+                chunk.position(lineStart);
+                chunk.get(line, 0, length);
+                String json = new String(line, 0, length, UTF_8);
+                if (!json.trim().isEmpty()) {
+                    envelopes.add(readValue(json, offset + lineStart));
+                }
+            }
+            lineStart = i + 1;
+        }
+        return envelopes;
+    }
+
+    private Envelope readValue(String json, long offset) {
+        try {
+            return deserializer.readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(new IOException("Could not read message at byte offset " + offset + " of " + path, e));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.cucumber.junitxmlformatter;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes an index of the {@code <testcase>} elements of a report, so tools
+ * can seek to a test case without parsing the report.
+ * <p>
+ * The index is ndjson with a record per test case, in report order:
+ * <pre>
+ * {"offset":214,"length":385,"classname":"Feature","name":"Scenario","status":"FAILED","time":0.004}
+ * </pre>
+ * The offset and length are in bytes of the report, and span the element
+ * from {@code <testcase} up to and including {@code </testcase>}.
+ * <p>
+ * Streamed test cases are written before the offset of the first one is
+ * known. Their records are buffered without an offset, and only their
+ * relative offsets are held in memory.
+ */
+final class ReportIndex implements AutoCloseable {
+
+    private static final byte[] OFFSET = "{\"offset\":".getBytes(UTF_8);
+
+    private final OutputStream out;
+    private final SpillingOutputStream pendingRecords;
+    private long[] pendingOffsets = new long[16];
+    private int pendingCount;
+
+    ReportIndex(OutputStream out, long spillToDiskThreshold) {
+        this.out = new BufferedOutputStream(out);
+        this.pendingRecords = new SpillingOutputStream(spillToDiskThreshold);
+    }
+
+    /**
+     * Adds the test case at the offset in the report.
+     */
+    void add(long offset, long length, TestCaseRow testCase) throws IOException {
+        writeOffset(out, offset);
+        out.write(renderRecord(length, testCase));
+    }
+
+    /**
+     * Adds a streamed test case at the offset relative to the first streamed
+     * test case.
+     */
+    void addPending(long offset, long length, TestCaseRow testCase) throws IOException {
+        if (pendingCount == pendingOffsets.length) {
+            pendingOffsets = Arrays.copyOf(pendingOffsets, pendingCount * 2);
+        }
+        pendingOffsets[pendingCount++] = offset;
+        pendingRecords.write(renderRecord(length, testCase));
+    }
+
+    /**
+     * Writes the streamed test cases, now the offset of the first is known.
+     */
+    void writePending(long offset) throws IOException {
+        pendingRecords.transferTo(new FilterOutputStream(out) {
+            private int record;
+            private boolean recordStart = true;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                int end = off + len;
+                while (off < end) {
+                    if (recordStart) {
+                        writeOffset(out, offset + pendingOffsets[record++]);
+                        recordStart = false;
+                    }
+                    int newLine = off;
+                    while (newLine < end && b[newLine] != '\n') {
+                        newLine++;
+                    }
+                    if (newLine < end) {
+                        recordStart = true;
+                        newLine++;
+                    }
+                    out.write(b, off, newLine - off);
+                    off = newLine;
+                }
+            }
+        });
+    }
+
+    private static void writeOffset(OutputStream out, long offset) throws IOException {
+        out.write(OFFSET);
+        out.write(String.valueOf(offset).getBytes(UTF_8));
+    }
+
+    /**
+     * Renders the rest of the record, after the offset.
+     */
+    private static byte[] renderRecord(long length, TestCaseRow testCase) {
+        StringBuilder record = new StringBuilder(128);
+        record.append(",\"length\":").append(length);
+        record.append(",\"classname\":");
+        appendString(record, testCase.getClassName());
+        record.append(",\"name\":");
+        appendString(record, testCase.getName());
+        record.append(",\"status\":\"").append(testCase.getStatus().name()).append('"');
+        record.append(",\"time\":").append(toSeconds(testCase));
+        record.append("}\n");
+        return record.toString().getBytes(UTF_8);
+    }
+
+    private static String toSeconds(TestCaseRow testCase) {
+        // With the same precision as the report
+        return BigDecimal.valueOf(testCase.getDuration().toMillis(), 3)
+                .stripTrailingZeros()
+                .toPlainString();
+    }
+
+    private static void appendString(StringBuilder record, String value) {
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    record.append("\\\"");
+                    break;
+                case '\\':
+                    record.append("\\\\");
+                    break;
+                case '\n':
+                    record.append("\\n");
+                    break;
+                case '\r':
+                    record.append("\\r");
+                    break;
+                case '\t':
+                    record.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        record.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        record.append(c);
+                    }
+            }
+        }
+        record.append('"');
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            pendingRecords.close();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package io.cucumber.junitxmlformatter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes the rendered report, either as a single file or as shards.
+ */
+interface ReportOutput extends Closeable {
+
+    /**
+     * Writes a finished test case ahead of the rest of the report. The test
+     * case is passed to {@code rendered} once it has been rendered, which may
+     * be after this method returns.
+     */
+    void writeTestcase(TestCaseRow testCase, Consumer<TestCaseRow> rendered) throws IOException;
+
+    /**
+     * Writes the rest of the report, once all messages have been collected.
+     */
+    void writeReport() throws IOException;
+
+}
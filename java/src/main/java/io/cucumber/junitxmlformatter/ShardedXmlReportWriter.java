@@ -0,0 +1,319 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.TestStepResultStatus;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import static io.cucumber.junitxmlformatter.ShardingStrategy.Kind.FEATURE;
+import static io.cucumber.junitxmlformatter.ShardingStrategy.Kind.SIZE;
+import static io.cucumber.junitxmlformatter.ShardingStrategy.Kind.TEST_CASE_COUNT;
+import static io.cucumber.messages.types.TestStepResultStatus.PASSED;
+import static io.cucumber.messages.types.TestStepResultStatus.SKIPPED;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes the report as a directory of shards, each a complete
+ * {@code <testsuite>} with the counters and time of its own test cases.
+ * <p>
+ * Shards are rendered and written in parallel. When streaming, a shard is
+ * written as soon as it is complete. Shards by feature are only complete
+ * once all messages have been collected, so their test cases are retained
+ * until then.
+ * <p>
+ * If the report could not be written, shards that were only partially
+ * written are deleted on close.
+ */
+class ShardedXmlReportWriter implements ReportOutput {
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final XmlReportData data;
+    private final Path directory;
+    private final ShardingStrategy strategy;
+    private final Compression compression;
+    private final Executor executor;
+    private final boolean writeLocations;
+    private final Truncation truncation;
+    private final WriterStatisticsRecorder statistics;
+    private final Map<String, Shard> shardsByUri = new LinkedHashMap<>();
+    private final Set<String> fileNames = new HashSet<>();
+    // By file name
+    private final Map<String, CompletableFuture<Void>> writing = new LinkedHashMap<>();
+    private volatile boolean closed;
+    private @Nullable Shard rollingShard;
+    private int rolledShardCount;
+
+    ShardedXmlReportWriter(
+            XmlReportData data,
+            Path directory,
+            ShardingStrategy strategy,
+            Compression compression,
+            Executor executor,
+            boolean writeLocations,
+            Truncation truncation,
+            WriterStatisticsRecorder statistics
+    ) {
+        this.data = data;
+        this.directory = directory;
+        this.strategy = strategy;
+        this.compression = compression;
+        this.executor = executor;
+        this.writeLocations = writeLocations;
+        this.truncation = truncation;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void writeTestcase(TestCaseRow testCase, Consumer<TestCaseRow> rendered) {
+        if (strategy.getKind() == SIZE) {
+            byte[] bytes = render(testCase);
+            rendered.accept(testCase);
+            synchronized (this) {
+                add(testCase, bytes, null);
+            }
+        } else {
+            // Rendered once its shard is written
+            synchronized (this) {
+                add(testCase, null, rendered);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void writeReport() throws IOException {
+        List<TestCaseRow> testCases = statistics.getAllTestCases(data);
+        if (strategy.getKind() == SIZE) {
+            addRenderedInParallel(testCases);
+        } else {
+            for (TestCaseRow testCase : testCases) {
+                add(testCase, null, null);
+            }
+        }
+        for (Shard shard : shardsByUri.values()) {
+            startWriting(shard);
+        }
+        if (rollingShard != null || writing.isEmpty()) {
+            // An empty run is still reported
+            startWriting(rollingShard != null ? rollingShard : createRollingShard());
+            rollingShard = null;
+        }
+        awaitWriting();
+    }
+
+    /**
+     * Waits for the shards that are being written, and skips those that have
+     * yet to start. Shards that failed to be written are deleted.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        for (Map.Entry<String, CompletableFuture<Void>> shard : writing.entrySet()) {
+            try {
+                shard.getValue().join();
+            } catch (CompletionException e) {
+                // The failure is reported by writeReport
+                Files.deleteIfExists(directory.resolve(shard.getKey()));
+            }
+        }
+    }
+
+    private void add(TestCaseRow testCase, byte @Nullable [] rendered, @Nullable Consumer<TestCaseRow> renderedListener) {
+        if (strategy.getKind() == FEATURE) {
+            shardsByUri.computeIfAbsent(testCase.getUri(), this::createFeatureShard).add(testCase, null, renderedListener);
+            return;
+        }
+        Shard shard = rollingShard;
+        if (shard != null && strategy.getKind() == SIZE && shard.size() + requireNonNull(rendered).length > strategy.getLimit()) {
+            startWriting(shard);
+            shard = null;
+        }
+        if (shard == null) {
+            shard = createRollingShard();
+        }
+        shard.add(testCase, rendered, renderedListener);
+        if (strategy.getKind() == TEST_CASE_COUNT && shard.tests == strategy.getLimit()) {
+            startWriting(shard);
+            shard = null;
+        }
+        rollingShard = shard;
+    }
+
+    private Shard createFeatureShard(String uri) {
+        String fileName = "TEST-" + uri.replaceAll("[^A-Za-z0-9._-]", "_");
+        String uniqueFileName = fileName;
+        for (int i = 2; !fileNames.add(uniqueFileName); i++) {
+            uniqueFileName = fileName + "-" + i;
+        }
+        return new Shard(uniqueFileName + ".xml" + compression.getFileExtension(), false);
+    }
+
+    private Shard createRollingShard() {
+        String fileName = String.format("TEST-%04d.xml", ++rolledShardCount) + compression.getFileExtension();
+        return new Shard(fileName, strategy.getKind() == SIZE);
+    }
+
+    /**
+     * Renders batches of test cases in parallel to learn their size, adding
+     * them to the shards in order.
+     */
+    private void addRenderedInParallel(List<TestCaseRow> testCases) throws IOException {
+        OrderedParallelTasks.forEachBatch(
+                testCases,
+                MAX_BATCH_SIZE,
+                OrderedParallelTasks.perProcessor(4),
+                executor,
+                this::renderBatch,
+                this::addRendered
+        );
+    }
+
+    private void addRendered(List<TestCaseRow> batch, List<byte[]> rendered) {
+        for (int i = 0; i < batch.size(); i++) {
+            add(batch.get(i), rendered.get(i), null);
+        }
+    }
+
+    private List<byte[]> renderBatch(List<TestCaseRow> testCases) {
+        List<byte[]> rendered = new ArrayList<>(testCases.size());
+        for (TestCaseRow testCase : testCases) {
+            rendered.add(render(testCase));
+        }
+        return rendered;
+    }
+
+    private byte[] render(TestCaseRow testCase) {
+        return XmlReportWriter.renderTestcases(List.of(testCase), writeLocations, truncation).toByteArray();
+    }
+
+    private void startWriting(Shard shard) {
+        writing.put(shard.fileName, CompletableFuture.runAsync(() -> {
+            try {
+                writeShard(shard);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Waits for all shards to be written, rethrowing the first failure.
+     */
+    private void awaitWriting() throws IOException {
+        @Nullable IOException ioException = null;
+        @Nullable RuntimeException runtimeException = null;
+        for (CompletableFuture<Void> shard : writing.values()) {
+            try {
+                XmlReportWriter.join(shard);
+            } catch (IOException e) {
+                ioException = ioException == null ? e : ioException;
+            } catch (RuntimeException e) {
+                runtimeException = runtimeException == null ? e : runtimeException;
+            }
+        }
+        if (ioException != null) {
+            throw ioException;
+        }
+        if (runtimeException != null) {
+            throw runtimeException;
+        }
+    }
+
+    private void writeShard(Shard shard) throws IOException {
+        if (closed) {
+            // The report could not be written
+            return;
+        }
+        Files.createDirectories(directory);
+        OutputStream file = new BufferedOutputStream(statistics.countBytes(Files.newOutputStream(directory.resolve(shard.fileName))));
+        // Shards are already written in parallel
+        try (OutputStream out = compression.wrap(file, Runnable::run)) {
+            EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out));
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeNewLine();
+            writer.writeStartElement("testsuite");
+            XmlReportWriter.writeSuiteAttributes(
+                    writer,
+                    data.getTestSuiteName(),
+                    shard.time,
+                    shard.tests,
+                    shard.skipped,
+                    shard.failures,
+                    data.getTestRunStartedAt()
+            );
+            writer.writeNewLine();
+            if (shard.rendered != null) {
+                writer.flush();
+                shard.rendered.writeTo(out);
+            } else {
+                for (int i = 0; i < shard.testCases.size(); i++) {
+                    TestCaseRow testCase = shard.testCases.get(i);
+                    XmlReportWriter.writeTestcase(writer, testCase, writeLocations, truncation);
+                    Consumer<TestCaseRow> renderedListener = shard.renderedListeners.get(i);
+                    if (renderedListener != null) {
+                        renderedListener.accept(testCase);
+                    }
+                }
+            }
+            writer.writeEndElement();
+            writer.writeNewLine();
+            writer.writeEndDocument();
+            writer.flush();
+        }
+    }
+
+    private static final class Shard {
+        private final String fileName;
+        private final List<TestCaseRow> testCases = new ArrayList<>();
+        // Of the streamed test cases, to be notified once rendered
+        private final List<@Nullable Consumer<TestCaseRow>> renderedListeners = new ArrayList<>();
+        // Test cases rendered ahead of writing the shard
+        private final @Nullable ByteArrayOutputStream rendered;
+        private long tests;
+        private long skipped;
+        private long failures;
+        private Duration time = Duration.ZERO;
+
+        private Shard(String fileName, boolean rendered) {
+            this.fileName = fileName;
+            this.rendered = rendered ? new ByteArrayOutputStream() : null;
+        }
+
+        private void add(TestCaseRow testCase, byte @Nullable [] rendered, @Nullable Consumer<TestCaseRow> renderedListener) {
+            if (this.rendered != null && rendered != null) {
+                this.rendered.writeBytes(rendered);
+            } else {
+                testCases.add(testCase);
+                renderedListeners.add(renderedListener);
+            }
+            TestStepResultStatus status = testCase.getStatus();
+            tests++;
+            if (status == SKIPPED) {
+                skipped++;
+            } else if (status != PASSED) {
+                failures++;
+            }
+            time = time.plus(testCase.getDuration());
+        }
+
+        private long size() {
+            return rendered == null ? 0 : rendered.size();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package io.cucumber.junitxmlformatter;
+
+import java.nio.file.Path;
+
+/**
+ * Splits a report written to a directory into shards, each a complete
+ * {@code <testsuite>}.
+ *
+ * @see MessagesToJunitXmlWriter.Builder#build(Path)
+ */
+public final class ShardingStrategy {
+
+    enum Kind {
+        FEATURE, TEST_CASE_COUNT, SIZE
+    }
+
+    private final Kind kind;
+    private final long limit;
+
+    private ShardingStrategy(Kind kind, long limit) {
+        this.kind = kind;
+        this.limit = limit;
+    }
+
+    /**
+     * Writes a shard for each feature file.
+     * <p>
+     * A feature file is only known to be complete once all messages have been
+     * collected. When
+     * {@linkplain MessagesToJunitXmlWriter.Builder#streaming(boolean) streaming},
+     * its test cases are therefore kept in memory until the writer is closed.
+     * Shard by test case count or size to bound the memory used while
+     * streaming.
+     */
+    public static ShardingStrategy byFeature() {
+        return new ShardingStrategy(Kind.FEATURE, 0);
+    }
+
+    /**
+     * Starts a new shard once a shard contains the given number of test cases.
+     */
+    public static ShardingStrategy byTestCaseCount(int maxTestCases) {
+        if (maxTestCases < 1) {
+            throw new IllegalArgumentException("maxTestCases must be positive, was " + maxTestCases);
+        }
+        return new ShardingStrategy(Kind.TEST_CASE_COUNT, maxTestCases);
+    }
+
+    /**
+     * Starts a new shard before the rendered test cases of a shard would
+     * exceed the given number of bytes. A shard contains at least one test
+     * case.
+     */
+    public static ShardingStrategy bySize(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive, was " + maxBytes);
+        }
+        return new ShardingStrategy(Kind.SIZE, maxBytes);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    long getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,115 @@
+package io.cucumber.junitxmlformatter;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Buffers bytes in memory until the threshold is exceeded, and in a temporary
+ * file afterwards.
+ */
+class SpillingOutputStream extends OutputStream {
+
+    private final long threshold;
+    private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private @Nullable Path file;
+    private @Nullable OutputStream fileOut;
+
+    SpillingOutputStream(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must be positive or zero, was " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null && memory.size() + (long) len > threshold) {
+            spill();
+        }
+        if (fileOut != null) {
+            fileOut.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+    }
+
+    private void spill() throws IOException {
+        Path file = Files.createTempFile("junit-xml-formatter-", ".xml");
+        this.file = file;
+        this.fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+        memory.writeTo(fileOut);
+        memory.reset();
+    }
+
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Writes all buffered bytes to {@code out}, returning their number. Once
+     * spilled, the bytes are transferred from the file without copying them
+     * onto the heap when {@code out} is a {@link FileOutputStream} and the
+     * underlying platform supports it.
+     */
+    long transferTo(OutputStream out) throws IOException {
+        if (file == null || fileOut == null) {
+            memory.writeTo(out);
+            return memory.size();
+        }
+        fileOut.flush();
+        // Not closed, that would close out
+        WritableByteChannel target = out instanceof FileOutputStream
+                ? ((FileOutputStream) out).getChannel()
+                : Channels.newChannel(out);
+        try (FileChannel source = FileChannel.open(file, READ)) {
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Discards all buffered bytes, retaining the memory buffer.
+     */
+    void reset() throws IOException {
+        try {
+            close();
+        } finally {
+            file = null;
+            fileOut = null;
+            memory.reset();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file == null || fileOut == null) {
+            return;
+        }
+        try {
+            fileOut.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.TestStepResultStatus;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A test case as it is rendered into the report.
+ * <p>
+ * Resolved once when the test case has finished, so rendering it requires no
+ * further lookups.
+ */
+final class TestCaseRow {
+    private final String uri;
+    private final long locationKey;
+    private final String className;
+    private final String name;
+    private final Duration duration;
+    private final TestStepResultStatus status;
+    private final @Nullable String failureType;
+    private final @Nullable String failureMessage;
+    private final @Nullable String failureDetails;
+    private final List<String> stepLines;
+    private final List<AttachmentSpool.Span> systemOutAttachments;
+    private final List<AttachmentSpool.Span> systemErrAttachments;
+
+    TestCaseRow(
+            String uri,
+            long locationKey,
+            String className,
+            String name,
+            Duration duration,
+            TestStepResultStatus status,
+            @Nullable String failureType,
+            @Nullable String failureMessage,
+            @Nullable String failureDetails,
+            List<String> stepLines
+    ) {
+        this(uri, locationKey, className, name, duration, status, failureType, failureMessage, failureDetails, stepLines,
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    TestCaseRow(
+            String uri,
+            long locationKey,
+            String className,
+            String name,
+            Duration duration,
+            TestStepResultStatus status,
+            @Nullable String failureType,
+            @Nullable String failureMessage,
+            @Nullable String failureDetails,
+            List<String> stepLines,
+            List<AttachmentSpool.Span> systemOutAttachments,
+            List<AttachmentSpool.Span> systemErrAttachments
+    ) {
+        this.uri = requireNonNull(uri);
+        this.locationKey = locationKey;
+        this.className = requireNonNull(className);
+        this.name = requireNonNull(name);
+        this.duration = requireNonNull(duration);
+        this.status = requireNonNull(status);
+        this.failureType = failureType;
+        this.failureMessage = failureMessage;
+        this.failureDetails = failureDetails;
+        this.stepLines = requireNonNull(stepLines);
+        this.systemOutAttachments = requireNonNull(systemOutAttachments);
+        this.systemErrAttachments = requireNonNull(systemErrAttachments);
+    }
+
+    /**
+     * The uri of the feature file of the test case.
+     */
+    String getUri() {
+        return uri;
+    }
+
+    /**
+     * The location of the pickle of the test case within its feature file,
+     * see {@link XmlReportData#createLocationKey(long, Long)}.
+     */
+    long getLocationKey() {
+        return locationKey;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Duration getDuration() {
+        return duration;
+    }
+
+    TestStepResultStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * The type of the exception that failed the test case. Not set for
+     * skipped test cases.
+     */
+    @Nullable String getFailureType() {
+        return failureType;
+    }
+
+    /**
+     * The message of the exception that failed the test case. Not set for
+     * skipped test cases.
+     */
+    @Nullable String getFailureMessage() {
+        return failureMessage;
+    }
+
+    /**
+     * The stack trace of the exception that failed or skipped the test case,
+     * or its message for older implementations that put the stack trace in
+     * the message.
+     */
+    @Nullable String getFailureDetails() {
+        return failureDetails;
+    }
+
+    /**
+     * The text and result of each step, excluding hooks, each terminated by
+     * a new line.
+     */
+    List<String> getStepLines() {
+        return stepLines;
+    }
+
+    /**
+     * The text attachments written to {@code <system-out>}, after the steps.
+     */
+    List<AttachmentSpool.Span> getSystemOutAttachments() {
+        return systemOutAttachments;
+    }
+
+    /**
+     * The text attachments written to {@code <system-err>}.
+     */
+    List<AttachmentSpool.Span> getSystemErrAttachments() {
+        return systemErrAttachments;
+    }
+}
@@ -0,0 +1,25 @@
+package io.cucumber.junitxmlformatter;
+
+/**
+ * Where the {@code text/*} attachments of a test case are written.
+ *
+ * @see MessagesToJunitXmlWriter.Builder#textAttachments(TextAttachments)
+ */
+public enum TextAttachments {
+
+    /**
+     * Attachments are not written.
+     */
+    EXCLUDE,
+
+    /**
+     * Attachments are written to {@code <system-out>}, after the steps.
+     */
+    SYSTEM_OUT,
+
+    /**
+     * Attachments are written to {@code <system-err>}.
+     */
+    SYSTEM_ERR
+
+}
@@ -0,0 +1,309 @@
+package io.cucumber.junitxmlformatter;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Limits the size of the CDATA sections of a test case, retaining their
+ * head and tail around a truncation marker.
+ * <p>
+ * Payloads are written as views of the original strings, so an oversized
+ * payload is never copied. The failure details shared by several test cases
+ * are encoded once.
+ * <p>
+ * The number of bytes written for the content of each CDATA section, after
+ * truncation, is passed to a listener.
+ */
+final class Truncation {
+
+    // Of the "]]>" that ends a CDATA section
+    private static final int CDATA_END_BYTES = 3;
+
+    static final Truncation NONE = new Truncation(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+
+    private final long maxCDataBytes;
+    private final int maxStackTraceFrames;
+    private final int maxStepLines;
+    private final @Nullable FailurePayloads failurePayloads;
+    private final LongConsumer cdataBytesListener;
+
+    Truncation(long maxCDataBytes, int maxStackTraceFrames, int maxStepLines, @Nullable FailurePayloads failurePayloads) {
+        this(maxCDataBytes, maxStackTraceFrames, maxStepLines, failurePayloads, bytes -> {
+        });
+    }
+
+    Truncation(
+            long maxCDataBytes,
+            int maxStackTraceFrames,
+            int maxStepLines,
+            @Nullable FailurePayloads failurePayloads,
+            LongConsumer cdataBytesListener
+    ) {
+        this.maxCDataBytes = maxCDataBytes;
+        this.maxStackTraceFrames = maxStackTraceFrames;
+        this.maxStepLines = maxStepLines;
+        this.failurePayloads = failurePayloads;
+        this.cdataBytesListener = cdataBytesListener;
+    }
+
+    void writeFailureDetails(EscapingXmlStreamWriter writer, String failureDetails) throws IOException {
+        byte @Nullable [] encoded = failurePayloads == null ? null : failurePayloads.getEncoded(failureDetails, this::encodeFailureDetails);
+        if (encoded != null) {
+            // Its bytes were passed to the listener when encoded
+            writer.writeEncoded(encoded);
+        } else {
+            writeCData(writer, truncateStackTraceFrames(failureDetails));
+        }
+    }
+
+    private byte[] encodeFailureDetails(String failureDetails) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(encoded))) {
+            writeCData(writer, truncateStackTraceFrames(failureDetails));
+        }
+        return encoded.toByteArray();
+    }
+
+    void writeStepLines(EscapingXmlStreamWriter writer, List<String> stepLines) throws IOException {
+        List<CharSequence> segments = new ArrayList<>();
+        segments.add("\n");
+        int size = stepLines.size();
+        if (size <= maxStepLines) {
+            segments.addAll(stepLines);
+        } else {
+            int head = head(maxStepLines);
+            int tail = tail(maxStepLines);
+            segments.addAll(stepLines.subList(0, head));
+            segments.add("[... " + (size - head - tail) + " steps truncated ...]\n");
+            segments.addAll(stepLines.subList(size - tail, size));
+        }
+        writeCData(writer, segments);
+    }
+
+    /**
+     * Writes the attachments from the spool, retaining their head and tail
+     * bytes without splitting a character.
+     */
+    void writeAttachments(EscapingXmlStreamWriter writer, List<AttachmentSpool.Span> attachments) throws IOException {
+        long bytes = AttachmentSpool.size(attachments);
+        writer.writeStartCData();
+        long start = writer.getBytesWritten();
+        if (bytes <= maxCDataBytes) {
+            AttachmentSpool.writeCDataChunks(writer, attachments, 0, bytes);
+        } else {
+            long headEnd = AttachmentSpool.findCharStart(attachments, head(maxCDataBytes), false);
+            long tailStart = AttachmentSpool.findCharStart(attachments, bytes - tail(maxCDataBytes), true);
+            AttachmentSpool.writeCDataChunks(writer, attachments, 0, headEnd);
+            writer.writeCDataChunk(createBytesTruncatedMarker(tailStart - headEnd));
+            AttachmentSpool.writeCDataChunks(writer, attachments, tailStart, bytes);
+        }
+        writeEndCData(writer, start);
+    }
+
+    private void writeCData(EscapingXmlStreamWriter writer, List<CharSequence> segments) throws IOException {
+        writer.writeStartCData();
+        long start = writer.getBytesWritten();
+        for (CharSequence segment : truncateBytes(segments)) {
+            writer.writeCDataChunk(segment);
+        }
+        writeEndCData(writer, start);
+    }
+
+    private void writeEndCData(EscapingXmlStreamWriter writer, long start) throws IOException {
+        writer.writeEndCData();
+        cdataBytesListener.accept(writer.getBytesWritten() - start - CDATA_END_BYTES);
+    }
+
+    /**
+     * Retains the head and tail frames of a stack trace. A frame is a line
+     * starting with {@code at}, after any whitespace, as in Java and
+     * JavaScript stack traces. Lines between the retained frames are
+     * truncated too, lines after the last frame are retained.
+     */
+    private List<CharSequence> truncateStackTraceFrames(String stackTrace) {
+        int frames = maxStackTraceFrames == Integer.MAX_VALUE ? 0 : countFrames(stackTrace);
+        if (frames <= maxStackTraceFrames) {
+            return List.of(stackTrace);
+        }
+        int head = head(maxStackTraceFrames);
+        int tail = tail(maxStackTraceFrames);
+        // After the last retained head frame, and at the first retained tail
+        // frame or after the last frame
+        int truncatedStart = findLineEnd(stackTrace, findFrame(stackTrace, head - 1));
+        int truncatedEnd = tail == 0
+                ? findLineEnd(stackTrace, findFrame(stackTrace, frames - 1))
+                : findFrame(stackTrace, frames - tail);
+        return List.of(
+                CharBuffer.wrap(stackTrace, 0, truncatedStart),
+                "\t[... " + (frames - head - tail) + " frames truncated ...]\n",
+                CharBuffer.wrap(stackTrace, truncatedEnd, stackTrace.length())
+        );
+    }
+
+    private static int countFrames(String stackTrace) {
+        int frames = 0;
+        for (int lineStart = 0; lineStart < stackTrace.length(); lineStart = findLineEnd(stackTrace, lineStart)) {
+            if (isFrame(stackTrace, lineStart)) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Returns the start of the line of the frame with the given index.
+     */
+    private static int findFrame(String stackTrace, int index) {
+        int frames = 0;
+        for (int lineStart = 0; lineStart < stackTrace.length(); lineStart = findLineEnd(stackTrace, lineStart)) {
+            if (isFrame(stackTrace, lineStart) && frames++ == index) {
+                return lineStart;
+            }
+        }
+        return stackTrace.length();
+    }
+
+    private static boolean isFrame(String stackTrace, int lineStart) {
+        int i = lineStart;
+        while (i < stackTrace.length() && (stackTrace.charAt(i) == ' ' || stackTrace.charAt(i) == '\t')) {
+            i++;
+        }
+        return stackTrace.startsWith("at ", i);
+    }
+
+    /**
+     * Returns the position after the new line that ends the line.
+     */
+    private static int findLineEnd(String value, int lineStart) {
+        int newLine = value.indexOf('\n', lineStart);
+        return newLine < 0 ? value.length() : newLine + 1;
+    }
+
+    /**
+     * Retains the head and tail bytes of the segments, as encoded in UTF-8
+     * before escaping. The truncation marker is not counted.
+     */
+    private List<CharSequence> truncateBytes(List<CharSequence> segments) {
+        if (maxCDataBytes == Long.MAX_VALUE) {
+            return segments;
+        }
+        long bytes = 0;
+        for (CharSequence segment : segments) {
+            bytes += countUtf8Bytes(segment, 0, segment.length());
+        }
+        if (bytes <= maxCDataBytes) {
+            return segments;
+        }
+        List<CharSequence> truncated = new ArrayList<>();
+        long headBytes = head(maxCDataBytes);
+        long retainedHeadBytes = 0;
+        for (CharSequence segment : segments) {
+            int end = findUtf8End(segment, headBytes - retainedHeadBytes);
+            retainedHeadBytes += countUtf8Bytes(segment, 0, end);
+            truncated.add(CharBuffer.wrap(segment, 0, end));
+            if (end < segment.length()) {
+                break;
+            }
+        }
+        List<CharSequence> tailSegments = new ArrayList<>();
+        long tailBytes = tail(maxCDataBytes);
+        long retainedTailBytes = 0;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            CharSequence segment = segments.get(i);
+            int start = findUtf8Start(segment, tailBytes - retainedTailBytes);
+            retainedTailBytes += countUtf8Bytes(segment, start, segment.length());
+            tailSegments.add(0, CharBuffer.wrap(segment, start, segment.length()));
+            if (start > 0) {
+                break;
+            }
+        }
+        truncated.add(createBytesTruncatedMarker(bytes - retainedHeadBytes - retainedTailBytes));
+        truncated.addAll(tailSegments);
+        return truncated;
+    }
+
+    private static String createBytesTruncatedMarker(long truncatedBytes) {
+        return "\n[... " + truncatedBytes + " bytes truncated ...]\n";
+    }
+
+    /**
+     * Returns the end of the longest prefix of at most {@code maxBytes},
+     * without splitting a surrogate pair.
+     */
+    private static int findUtf8End(CharSequence value, long maxBytes) {
+        long bytes = 0;
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            boolean pair = Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1));
+            int length = pair ? 4 : countUtf8Bytes(c);
+            if (bytes + length > maxBytes) {
+                return i;
+            }
+            bytes += length;
+            i += pair ? 2 : 1;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the start of the longest suffix of at most {@code maxBytes},
+     * without splitting a surrogate pair.
+     */
+    private static int findUtf8Start(CharSequence value, long maxBytes) {
+        long bytes = 0;
+        int i = value.length();
+        while (i > 0) {
+            char c = value.charAt(i - 1);
+            boolean pair = Character.isLowSurrogate(c) && i - 2 >= 0 && Character.isHighSurrogate(value.charAt(i - 2));
+            int length = pair ? 4 : countUtf8Bytes(c);
+            if (bytes + length > maxBytes) {
+                return i;
+            }
+            bytes += length;
+            i -= pair ? 2 : 1;
+        }
+        return i;
+    }
+
+    private static long countUtf8Bytes(CharSequence value, int start, int end) {
+        long bytes = 0;
+        for (int i = start; i < end; i++) {
+            // A surrogate pair is 4 bytes, 2 for each half
+            bytes += countUtf8Bytes(value.charAt(i));
+        }
+        return bytes;
+    }
+
+    private static int countUtf8Bytes(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static int head(int max) {
+        return max - max / 2;
+    }
+
+    private static int tail(int max) {
+        return max / 2;
+    }
+
+    private static long head(long max) {
+        return max - max / 2;
+    }
+
+    private static long tail(long max) {
+        return max / 2;
+    }
+}
@@ -0,0 +1,402 @@
+package io.cucumber.junitxmlformatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Writes xml directly as UTF-8 encoded bytes.
+ * <p>
+ * Supports only the constructs used by the report and escapes them the same
+ * way the JDK's {@link javax.xml.stream.XMLStreamWriter} does, so both produce
+ * identical output. Text and attribute values are escaped and encoded in a
+ * single pass into a buffer that is reused until the writer is closed.
+ */
+final class Utf8XmlWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 8192;
+    // Longest encoding of a single char, "&#x10ffff;"
+    private static final int MAX_BYTES_PER_CHAR = 10;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(US_ASCII);
+    private static final long MILLIS_PER_SECOND = SECONDS.toMillis(1L);
+    // Double.toString switches to scientific notation from 10^7
+    private static final long MAX_PLAIN_MILLIS = 10_000_000 * MILLIS_PER_SECOND;
+
+    private OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    // Written to out, excluding the buffer
+    private long flushedBytes;
+    private String[] openElements = new String[8];
+    private int depth;
+    private boolean startTagOpen;
+    private boolean emptyElementOpen;
+
+    Utf8XmlWriter(OutputStream out) {
+        this.out = requireNonNull(out);
+    }
+
+    /**
+     * Writes a new document to {@code out}, reusing the buffer. Anything
+     * not yet flushed is discarded.
+     */
+    void reset(OutputStream out) {
+        this.out = requireNonNull(out);
+        position = 0;
+        flushedBytes = 0;
+        Arrays.fill(openElements, 0, depth, null);
+        depth = 0;
+        startTagOpen = false;
+        emptyElementOpen = false;
+    }
+
+    void writeStartDocument(String encoding, String version) throws IOException {
+        writeAscii("<?xml version=\"");
+        writeAscii(version);
+        writeAscii("\" encoding=\"");
+        writeAscii(encoding);
+        writeAscii("\"?>");
+    }
+
+    void writeStartElement(String localName) throws IOException {
+        closeStartTag();
+        writeByte('<');
+        writeAscii(localName);
+        if (depth == openElements.length) {
+            openElements = Arrays.copyOf(openElements, depth * 2);
+        }
+        openElements[depth++] = localName;
+        startTagOpen = true;
+    }
+
+    void writeEmptyElement(String localName) throws IOException {
+        closeStartTag();
+        writeByte('<');
+        writeAscii(localName);
+        startTagOpen = true;
+        emptyElementOpen = true;
+    }
+
+    void writeEndElement() throws IOException {
+        closeStartTag();
+        if (depth == 0) {
+            throw new IllegalStateException("No open element");
+        }
+        String localName = openElements[--depth];
+        openElements[depth] = null;
+        writeAscii("</");
+        writeAscii(localName);
+        writeByte('>');
+    }
+
+    void writeEndDocument() throws IOException {
+        while (depth > 0) {
+            writeEndElement();
+        }
+        closeStartTag();
+    }
+
+    void writeAttribute(String localName, String value) throws IOException {
+        writeAttributeName(localName);
+        writeEscaped(value, true);
+        writeByte('"');
+    }
+
+    void writeStartProcessingInstruction(String target) throws IOException {
+        closeStartTag();
+        writeAscii("<?");
+        writeAscii(target);
+    }
+
+    /**
+     * Writes a pseudo-attribute of a processing instruction, escaped like an
+     * attribute. Parsers do not resolve references in processing
+     * instructions, but the escaping ensures the instruction is not ended
+     * early.
+     */
+    void writePseudoAttribute(String name, String value) throws IOException {
+        writeByte(' ');
+        writeAscii(name);
+        writeAscii("=\"");
+        writeEscaped(value, true);
+        writeByte('"');
+    }
+
+    void writeEndProcessingInstruction() throws IOException {
+        writeAscii("?>");
+    }
+
+    /**
+     * Writes the duration in seconds with millisecond precision, formatted
+     * the same as {@code String.valueOf(duration.toMillis() / 1000.0)}.
+     */
+    void writeSecondsAttribute(String localName, Duration duration) throws IOException {
+        writeAttributeName(localName);
+        long millis = duration.toMillis();
+        if (millis < 0 || millis >= MAX_PLAIN_MILLIS) {
+            writeAscii(String.valueOf(millis / (double) MILLIS_PER_SECOND));
+        } else {
+            writeSeconds(millis);
+        }
+        writeByte('"');
+    }
+
+    private void writeSeconds(long millis) throws IOException {
+        writeDecimal(millis / MILLIS_PER_SECOND);
+        writeByte('.');
+        int fraction = (int) (millis % MILLIS_PER_SECOND);
+        // Trailing zeros are omitted, but at least one digit is written
+        int digits = 3;
+        while (digits > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        ensureCapacity(digits);
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        position += digits;
+    }
+
+    private void writeDecimal(long value) throws IOException {
+        // At most 19 digits for a positive long
+        ensureCapacity(19);
+        int digits = 1;
+        for (long remainder = value / 10; remainder > 0; remainder /= 10) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private void writeAttributeName(String localName) throws IOException {
+        if (!startTagOpen) {
+            throw new IllegalStateException("Attribute " + localName + " written outside of start tag");
+        }
+        writeByte(' ');
+        writeAscii(localName);
+        writeAscii("=\"");
+    }
+
+    void writeCharacters(String text) throws IOException {
+        closeStartTag();
+        writeEscaped(text, false);
+    }
+
+    void writeCData(String data) throws IOException {
+        writeStartCData();
+        writeCDataContent(data, 0, data.length());
+        writeEndCData();
+    }
+
+    void writeStartCData() throws IOException {
+        closeStartTag();
+        writeAscii("<![CDATA[");
+    }
+
+    /**
+     * Writes the characters from {@code start} to {@code end} into the CDATA
+     * section without escaping them.
+     */
+    void writeCDataContent(CharSequence data, int start, int end) throws IOException {
+        writeEncoded(data, start, end);
+    }
+
+    /**
+     * Writes a character reference as text. CDATA sections can not contain
+     * actual character references.
+     */
+    void writeCDataCharacterReference(int codePoint) throws IOException {
+        writeAscii("&#");
+        writeDecimal(codePoint);
+        writeByte(';');
+    }
+
+    void writeCDataSurrogatePair(char high, char low) throws IOException {
+        ensureCapacity(4);
+        encodeSupplementary(Character.toCodePoint(high, low));
+    }
+
+    void writeEncoded(byte[] encoded) throws IOException {
+        closeStartTag();
+        if (encoded.length > BUFFER_SIZE - position) {
+            flushBuffer();
+            out.write(encoded);
+            flushedBytes += encoded.length;
+        } else {
+            System.arraycopy(encoded, 0, buffer, position, encoded.length);
+            position += encoded.length;
+        }
+    }
+
+    void writeEndCData() throws IOException {
+        writeAscii("]]>");
+    }
+
+    private void closeStartTag() throws IOException {
+        if (!startTagOpen) {
+            return;
+        }
+        if (emptyElementOpen) {
+            writeAscii("/>");
+        } else {
+            writeByte('>');
+        }
+        startTagOpen = false;
+        emptyElementOpen = false;
+    }
+
+    private void writeEscaped(String value, boolean escapeQuotes) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (position > BUFFER_SIZE - MAX_BYTES_PER_CHAR) {
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '&':
+                        writeAsciiUnchecked("&amp;");
+                        break;
+                    case '<':
+                        writeAsciiUnchecked("&lt;");
+                        break;
+                    case '>':
+                        writeAsciiUnchecked("&gt;");
+                        break;
+                    case '"':
+                        if (escapeQuotes) {
+                            writeAsciiUnchecked("&quot;");
+                        } else {
+                            buffer[position++] = (byte) c;
+                        }
+                        break;
+                    default:
+                        buffer[position++] = (byte) c;
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // Like the JDK, supplementary characters are written as
+                // character references outside of CDATA sections
+                writeCharacterReference(Character.toCodePoint(c, value.charAt(++i)));
+            } else if (Character.isSurrogate(c)) {
+                writeCharacterReference(c);
+            } else {
+                encodeBmp(c);
+            }
+        }
+    }
+
+    private void writeCharacterReference(int codePoint) {
+        writeAsciiUnchecked("&#x");
+        int digits = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(codePoint) + 3) / 4);
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[position + i] = HEX_DIGITS[codePoint & 0xF];
+            codePoint >>>= 4;
+        }
+        position += digits;
+        buffer[position++] = ';';
+    }
+
+    private void writeEncoded(CharSequence value, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (position > BUFFER_SIZE - MAX_BYTES_PER_CHAR) {
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encodeSupplementary(Character.toCodePoint(c, value.charAt(++i)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates can not be encoded
+                buffer[position++] = '?';
+            } else {
+                encodeBmp(c);
+            }
+        }
+    }
+
+    private void encodeSupplementary(int codePoint) {
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+
+    private void encodeBmp(char c) {
+        if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeAscii(String value) throws IOException {
+        int length = value.length();
+        if (length > BUFFER_SIZE - position) {
+            flushBuffer();
+            if (length > BUFFER_SIZE) {
+                writeEncoded(value, 0, length);
+                return;
+            }
+        }
+        writeAsciiUnchecked(value);
+    }
+
+    private void writeAsciiUnchecked(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeByte(char c) throws IOException {
+        ensureCapacity(1);
+        buffer[position++] = (byte) c;
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (length > BUFFER_SIZE - position) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            flushedBytes += position;
+            position = 0;
+        }
+    }
+
+    /**
+     * The number of bytes written since the writer was created or reset,
+     * including those not yet flushed.
+     */
+    long getBytesWritten() {
+        return flushedBytes + position;
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Like the XMLStreamWriter, does not close the underlying stream
+        flush();
+    }
+}
@@ -0,0 +1,112 @@
+package io.cucumber.junitxmlformatter;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Statistics of writing a report, reported once the writer is closed.
+ * <p>
+ * Times are summed over all threads, so with messages written concurrently
+ * or test cases rendered in parallel they may exceed the wall clock time.
+ *
+ * @see MessagesToJunitXmlWriter.Builder#statisticsListener(java.util.function.Consumer)
+ */
+public final class WriterStatistics {
+
+    private final Map<String, Long> envelopeCounts;
+    private final long retainedTestCaseCount;
+    private final Duration ingestTime;
+    private final Duration sortTime;
+    private final Duration renderTime;
+    private final long bytesWritten;
+    private final long largestCDataLength;
+
+    WriterStatistics(
+            Map<String, Long> envelopeCounts,
+            long retainedTestCaseCount,
+            Duration ingestTime,
+            Duration sortTime,
+            Duration renderTime,
+            long bytesWritten,
+            long largestCDataLength
+    ) {
+        this.envelopeCounts = requireNonNull(envelopeCounts);
+        this.retainedTestCaseCount = retainedTestCaseCount;
+        this.ingestTime = requireNonNull(ingestTime);
+        this.sortTime = requireNonNull(sortTime);
+        this.renderTime = requireNonNull(renderTime);
+        this.bytesWritten = bytesWritten;
+        this.largestCDataLength = largestCDataLength;
+    }
+
+    /**
+     * The number of envelopes written, by the name of the message they
+     * contain, e.g. {@code testStepFinished}.
+     */
+    public Map<String, Long> getEnvelopeCounts() {
+        return envelopeCounts;
+    }
+
+    /**
+     * The number of test cases retained in memory until the report was
+     * written. When {@linkplain MessagesToJunitXmlWriter.Builder#streaming(boolean) streaming}, only test cases that
+     * never finished are retained.
+     */
+    public long getRetainedTestCaseCount() {
+        return retainedTestCaseCount;
+    }
+
+    /**
+     * The time spent collecting envelopes.
+     */
+    public Duration getIngestTime() {
+        return ingestTime;
+    }
+
+    /**
+     * The time spent putting the retained test cases in report order.
+     */
+    public Duration getSortTime() {
+        return sortTime;
+    }
+
+    /**
+     * The time spent rendering and writing test cases, and the rest of the
+     * report.
+     */
+    public Duration getRenderTime() {
+        return renderTime;
+    }
+
+    /**
+     * The number of bytes written, after compression. When written to a
+     * directory, the sum over all shards.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * The number of bytes written for the content of the largest
+     * {@code CDATA} section, after truncation. The section holds the details
+     * of a failure, the steps or the text attachments of a test case.
+     */
+    public long getLargestCDataLength() {
+        return largestCDataLength;
+    }
+
+    @Override
+    public String toString() {
+        return "WriterStatistics{" +
+                "envelopeCounts=" + envelopeCounts +
+                ", retainedTestCaseCount=" + retainedTestCaseCount +
+                ", ingestTime=" + ingestTime +
+                ", sortTime=" + sortTime +
+                ", renderTime=" + renderTime +
+                ", bytesWritten=" + bytesWritten +
+                ", largestCDataLength=" + largestCDataLength +
+                '}';
+    }
+}
@@ -0,0 +1,253 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Envelope;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import org.jspecify.annotations.Nullable;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Records the {@link WriterStatistics} of a writer, and the corresponding
+ * JDK Flight Recorder events.
+ * <p>
+ * Events are only committed while a recording is running. Collecting a
+ * single envelope is normally too fast to be of interest, so those events
+ * have a threshold.
+ */
+final class WriterStatisticsRecorder {
+
+    private final Map<String, LongAdder> envelopeCounts = new ConcurrentHashMap<>();
+    private final LongAdder retainedTestCaseCount = new LongAdder();
+    private final LongAdder ingestNanos = new LongAdder();
+    private final LongAdder sortNanos = new LongAdder();
+    private final LongAdder renderNanos = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAccumulator largestCDataBytes = new LongAccumulator(Math::max, 0);
+
+    void collect(XmlReportData data, Envelope envelope) throws IOException {
+        String type = getType(envelope);
+        CollectEvent event = new CollectEvent();
+        event.begin();
+        long start = System.nanoTime();
+        data.collect(envelope);
+        ingestNanos.add(System.nanoTime() - start);
+        envelopeCounts.computeIfAbsent(type, t -> new LongAdder()).increment();
+        if (event.shouldCommit()) {
+            event.envelopeType = type;
+            event.commit();
+        }
+    }
+
+    /**
+     * Puts all retained test cases in report order.
+     */
+    List<TestCaseRow> getAllTestCases(XmlReportData data) {
+        SortEvent event = new SortEvent();
+        event.begin();
+        long start = System.nanoTime();
+        List<TestCaseRow> testCases = data.getAllTestCases();
+        sortNanos.add(System.nanoTime() - start);
+        retainedTestCaseCount.add(testCases.size());
+        event.testCaseCount = testCases.size();
+        event.commit();
+        return testCases;
+    }
+
+    void writeTestcase(ReportOutput output, TestCaseRow testCase, Consumer<TestCaseRow> rendered) throws IOException {
+        long start = System.nanoTime();
+        output.writeTestcase(testCase, rendered);
+        renderNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the rest of the report and closes the output. Time spent
+     * sorting the test cases is not render time.
+     */
+    void writeReport(ReportOutput output) throws IOException {
+        WriteReportEvent event = new WriteReportEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long sortNanosBefore = sortNanos.sum();
+        try {
+            output.writeReport();
+        } finally {
+            output.close();
+            renderNanos.add(System.nanoTime() - start - (sortNanos.sum() - sortNanosBefore));
+        }
+        event.bytesWritten = bytesWritten.sum();
+        event.commit();
+    }
+
+    /**
+     * Records the bytes written for the content of a CDATA section.
+     */
+    void recordCDataBytes(long bytes) {
+        largestCDataBytes.accumulate(bytes);
+    }
+
+    /**
+     * Counts the bytes written to {@code out}.
+     */
+    OutputStream countBytes(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten.add(len);
+            }
+        };
+    }
+
+    void recordBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    void reset() {
+        envelopeCounts.clear();
+        retainedTestCaseCount.reset();
+        ingestNanos.reset();
+        sortNanos.reset();
+        renderNanos.reset();
+        bytesWritten.reset();
+        largestCDataBytes.reset();
+    }
+
+    WriterStatistics getStatistics() {
+        Map<String, Long> envelopeCounts = new TreeMap<>();
+        this.envelopeCounts.forEach((type, count) -> envelopeCounts.put(type, count.sum()));
+        return new WriterStatistics(
+                unmodifiableMap(envelopeCounts),
+                retainedTestCaseCount.sum(),
+                Duration.ofNanos(ingestNanos.sum()),
+                Duration.ofNanos(sortNanos.sum()),
+                Duration.ofNanos(renderNanos.sum()),
+                bytesWritten.sum(),
+                largestCDataBytes.get()
+        );
+    }
+
+    // Roughly in order of frequency
+    private static String getType(Envelope envelope) {
+        if (envelope.getTestStepStarted().isPresent()) {
+            return "testStepStarted";
+        }
+        if (envelope.getTestStepFinished().isPresent()) {
+            return "testStepFinished";
+        }
+        if (envelope.getTestCaseStarted().isPresent()) {
+            return "testCaseStarted";
+        }
+        if (envelope.getTestCaseFinished().isPresent()) {
+            return "testCaseFinished";
+        }
+        if (envelope.getTestCase().isPresent()) {
+            return "testCase";
+        }
+        if (envelope.getPickle().isPresent()) {
+            return "pickle";
+        }
+        if (envelope.getAttachment().isPresent()) {
+            return "attachment";
+        }
+        if (envelope.getGherkinDocument().isPresent()) {
+            return "gherkinDocument";
+        }
+        if (envelope.getSource().isPresent()) {
+            return "source";
+        }
+        if (envelope.getStepDefinition().isPresent()) {
+            return "stepDefinition";
+        }
+        if (envelope.getHook().isPresent()) {
+            return "hook";
+        }
+        if (envelope.getParameterType().isPresent()) {
+            return "parameterType";
+        }
+        if (envelope.getTestRunHookStarted().isPresent()) {
+            return "testRunHookStarted";
+        }
+        if (envelope.getTestRunHookFinished().isPresent()) {
+            return "testRunHookFinished";
+        }
+        if (envelope.getTestRunStarted().isPresent()) {
+            return "testRunStarted";
+        }
+        if (envelope.getTestRunFinished().isPresent()) {
+            return "testRunFinished";
+        }
+        if (envelope.getMeta().isPresent()) {
+            return "meta";
+        }
+        if (envelope.getExternalAttachment().isPresent()) {
+            return "externalAttachment";
+        }
+        if (envelope.getSuggestion().isPresent()) {
+            return "suggestion";
+        }
+        if (envelope.getUndefinedParameterType().isPresent()) {
+            return "undefinedParameterType";
+        }
+        if (envelope.getParseError().isPresent()) {
+            return "parseError";
+        }
+        return "unknown";
+    }
+
+    @Name("io.cucumber.junitxmlformatter.Collect")
+    @Label("Collect Envelope")
+    @Description("Collects the parts of an envelope that are rendered into the report")
+    @Category({"Cucumber", "JUnit XML Formatter"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class CollectEvent extends Event {
+        @Label("Envelope Type")
+        @Nullable String envelopeType;
+    }
+
+    @Name("io.cucumber.junitxmlformatter.Sort")
+    @Label("Sort Test Cases")
+    @Description("Puts the retained test cases in report order")
+    @Category({"Cucumber", "JUnit XML Formatter"})
+    @StackTrace(false)
+    static final class SortEvent extends Event {
+        @Label("Test Case Count")
+        int testCaseCount;
+    }
+
+    @Name("io.cucumber.junitxmlformatter.WriteReport")
+    @Label("Write Report")
+    @Description("Writes the report once all envelopes have been collected")
+    @Category({"Cucumber", "JUnit XML Formatter"})
+    @StackTrace(false)
+    static final class WriteReportEvent extends Event {
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+}
@@ -1,13 +1,26 @@
 package io.cucumber.junitxmlformatter;
 
 import io.cucumber.messages.Convertor;
-import io.cucumber.messages.LocationComparator;
+import io.cucumber.messages.types.Attachment;
+import io.cucumber.messages.types.Background;
 import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.Examples;
+import io.cucumber.messages.types.Exception;
 import io.cucumber.messages.types.Feature;
+import io.cucumber.messages.types.FeatureChild;
+import io.cucumber.messages.types.GherkinDocument;
+import io.cucumber.messages.types.Location;
 import io.cucumber.messages.types.Pickle;
 import io.cucumber.messages.types.PickleStep;
+import io.cucumber.messages.types.Rule;
+import io.cucumber.messages.types.RuleChild;
+import io.cucumber.messages.types.Scenario;
 import io.cucumber.messages.types.Step;
+import io.cucumber.messages.types.TableRow;
+import io.cucumber.messages.types.TestCase;
+import io.cucumber.messages.types.TestCaseFinished;
 import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.TestRunFinished;
 import io.cucumber.messages.types.TestRunStarted;
 import io.cucumber.messages.types.TestStep;
 import io.cucumber.messages.types.TestStepFinished;
@@ -19,131 +32,531 @@ import io.cucumber.query.Query;
 import io.cucumber.query.Repository;
 import org.jspecify.annotations.Nullable;
 
+import java.io.IOException;
 import java.time.Duration;
-import java.util.AbstractMap.SimpleEntry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import static io.cucumber.messages.types.TestStepResultStatus.PASSED;
+import static io.cucumber.messages.types.TestStepResultStatus.SKIPPED;
 import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_GHERKIN_DOCUMENTS;
 import static java.time.format.DateTimeFormatter.ISO_INSTANT;
-import static java.util.Comparator.nullsFirst;
+import static java.util.Comparator.comparingLong;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.TimeUnit.SECONDS;
-import static java.util.stream.Collectors.toList;
 
+/**
+ * Retains only the parts of the messages that are rendered into the report.
+ * <p>
+ * Everything that can be derived from a pickle or test case is derived when it
+ * is collected. Recurring strings such as uris, feature names and step
+ * keywords are interned. Once a test case has finished, it is resolved into
+ * the {@link TestCaseRow} that is rendered.
+ * <p>
+ * Messages may be collected concurrently. The execution of each test case is
+ * tracked separately, so concurrently executing test cases do not contend.
+ */
 class XmlReportData {
-    private static final long MILLIS_PER_SECOND = SECONDS.toMillis(1L);
 
-    private final Repository repository = Repository.builder()
-            .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
-            .build();
-    private final Query query = new Query(repository);
+    // Only an outline of each gherkin document is kept, to derive the names
+    // of their pickles
+    private final Object documentsLock = new Object();
+    // Guarded by documentsLock, replaced on reset
+    private Repository documents = createDocuments();
+    private Query documentQuery = new Query(documents);
+    private final Map<String, String> stepKeywordById = new ConcurrentHashMap<>();
+    private final Map<String, String> internedStrings = new ConcurrentHashMap<>();
+    private final FailurePayloads failurePayloads = new FailurePayloads();
+    private final Map<String, ReportPickle> pickleById = new ConcurrentHashMap<>();
+    private final Map<String, ReportTestCase> testCaseById = new ConcurrentHashMap<>();
+    private final Map<String, TestCaseExecution> testCaseExecutionById = new ConcurrentHashMap<>();
+    // In the order in which they are reported, by uri and then by location
+    private final ConcurrentNavigableMap<String, NavigableSet<TestCaseExecution>> testCaseExecutionsByUri = new ConcurrentSkipListMap<>();
+    private final AtomicLong testCaseExecutionSequence = new AtomicLong();
+    // Running totals of all test cases, released or not, so the suite level
+    // counts never require a pass over the test cases
+    private final Map<TestStepResultStatus, LongAdder> testCaseStatusCounts = new EnumMap<>(TestStepResultStatus.class);
+    private final LongAdder testCaseCount = new LongAdder();
+    private volatile @Nullable Instant testRunStartedAt;
+    private volatile @Nullable Instant testRunFinishedAt;
     private final String testSuiteName;
     private final @Nullable String testClassName;
     private final NamingStrategy testNamingStrategy;
+    private final TextAttachments textAttachments;
+    private final AttachmentSpool attachmentSpool = new AttachmentSpool();
 
-    XmlReportData(String testSuiteName, @Nullable String testClassName, NamingStrategy testNamingStrategy) {
+    XmlReportData(String testSuiteName, @Nullable String testClassName, NamingStrategy testNamingStrategy, TextAttachments textAttachments) {
         this.testSuiteName = requireNonNull(testSuiteName);
         this.testClassName = testClassName;
         this.testNamingStrategy = requireNonNull(testNamingStrategy);
+        this.textAttachments = requireNonNull(textAttachments);
+        for (TestStepResultStatus status : TestStepResultStatus.values()) {
+            testCaseStatusCounts.put(status, new LongAdder());
+        }
     }
 
-    void collect(Envelope envelope) {
-        repository.update(envelope);
+    private static Repository createDocuments() {
+        return Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
     }
 
-    double getSuiteDurationInSeconds() {
-        return query.findTestRunDuration()
-                .orElse(Duration.ZERO)
-                .toMillis() / (double) MILLIS_PER_SECOND;
+    /**
+     * Discards all collected messages, so another report can be collected.
+     * The collections are cleared rather than replaced, so they keep their
+     * capacity. Must not be invoked while messages are collected.
+     */
+    void reset() throws IOException {
+        attachmentSpool.close();
+        synchronized (documentsLock) {
+            documents = createDocuments();
+            documentQuery = new Query(documents);
+        }
+        stepKeywordById.clear();
+        internedStrings.clear();
+        failurePayloads.clear();
+        pickleById.clear();
+        testCaseById.clear();
+        testCaseExecutionById.clear();
+        testCaseExecutionsByUri.clear();
+        testCaseExecutionSequence.set(0);
+        testCaseStatusCounts.values().forEach(LongAdder::reset);
+        testCaseCount.reset();
+        testRunStartedAt = null;
+        testRunFinishedAt = null;
     }
 
-    double getDurationInSeconds(TestCaseStarted testCaseStarted) {
-        return query.findTestCaseDurationBy(testCaseStarted)
-                .orElse(Duration.ZERO)
-                .toMillis() / (double) MILLIS_PER_SECOND;
+    /**
+     * Deletes the spooled attachments and releases the failure payloads. Must
+     * not be invoked until the report has been written.
+     */
+    void close() throws IOException {
+        failurePayloads.clear();
+        attachmentSpool.close();
     }
 
-    Map<TestStepResultStatus, Long> getTestCaseStatusCounts() {
-        return query.countMostSevereTestStepResultStatus();
+    void collect(Envelope envelope) throws IOException {
+        envelope.getGherkinDocument().ifPresent(this::updateGherkinDocument);
+        envelope.getPickle().ifPresent(this::updatePickle);
+        envelope.getTestCase().ifPresent(this::updateTestCase);
+        envelope.getTestCaseStarted().ifPresent(this::updateTestCaseStarted);
+        envelope.getTestStepFinished().ifPresent(this::updateTestStepFinished);
+        if (envelope.getAttachment().isPresent()) {
+            updateAttachment(envelope.getAttachment().get());
+        }
+        envelope.getTestCaseFinished().ifPresent(this::updateTestCaseFinished);
+        envelope.getTestRunStarted().ifPresent(this::updateTestRunStarted);
+        envelope.getTestRunFinished().ifPresent(this::updateTestRunFinished);
     }
 
-    int getTestCaseCount() {
-        return query.findAllTestCaseStarted().size();
+    private String intern(String value) {
+        String interned = internedStrings.putIfAbsent(value, value);
+        return interned == null ? value : interned;
     }
 
-    private Pickle getPickle(TestCaseStarted testCaseStarted) {
-        return query.findPickleBy(testCaseStarted)
-                .orElseThrow(() -> new IllegalStateException("No pickle for " + testCaseStarted.getId()));
+    /**
+     * Retains the keywords of the steps, and an outline of the document with
+     * only the keywords, names and ids the naming strategy uses. Tags,
+     * descriptions, comments, steps and the cells of the bodies of examples
+     * are dropped.
+     */
+    private void updateGherkinDocument(GherkinDocument document) {
+        Feature feature = document.getFeature().map(this::createOutline).orElse(null);
+        GherkinDocument outline = new GherkinDocument(document.getUri().orElse(null), feature, Collections.emptyList());
+        synchronized (documentsLock) {
+            documents.update(Envelope.of(outline));
+        }
     }
 
-    String getTestName(TestCaseStarted testCaseStarted) {
-        Pickle pickle = getPickle(testCaseStarted);
-        return query.findLineageBy(pickle)
-                .map(lineage -> testNamingStrategy.reduce(lineage, pickle))
-                .orElseGet(pickle::getName);
+    private Feature createOutline(Feature feature) {
+        List<FeatureChild> children = new ArrayList<>();
+        for (FeatureChild child : feature.getChildren()) {
+            child.getBackground().ifPresent(this::updateStepKeywords);
+            child.getRule().ifPresent(rule -> children.add(new FeatureChild(createOutline(rule), null, null)));
+            child.getScenario().ifPresent(scenario -> children.add(new FeatureChild(null, null, createOutline(scenario))));
+        }
+        return new Feature(feature.getLocation(), Collections.emptyList(), feature.getLanguage(),
+                intern(feature.getKeyword()), intern(feature.getName()), "", children);
+    }
+
+    private Rule createOutline(Rule rule) {
+        List<RuleChild> children = new ArrayList<>();
+        for (RuleChild child : rule.getChildren()) {
+            child.getBackground().ifPresent(this::updateStepKeywords);
+            child.getScenario().ifPresent(scenario -> children.add(new RuleChild(null, createOutline(scenario))));
+        }
+        return new Rule(rule.getLocation(), Collections.emptyList(), intern(rule.getKeyword()),
+                intern(rule.getName()), "", children, rule.getId());
+    }
+
+    private Scenario createOutline(Scenario scenario) {
+        scenario.getSteps().forEach(this::updateStepKeyword);
+        List<Examples> examples = scenario.getExamples().isEmpty() ? Collections.emptyList() : new ArrayList<>();
+        for (Examples example : scenario.getExamples()) {
+            List<TableRow> tableBody = new ArrayList<>();
+            for (TableRow row : example.getTableBody()) {
+                tableBody.add(new TableRow(row.getLocation(), Collections.emptyList(), row.getId()));
+            }
+            examples.add(new Examples(example.getLocation(), Collections.emptyList(), intern(example.getKeyword()),
+                    intern(example.getName()), "", example.getTableHeader().orElse(null), tableBody, example.getId()));
+        }
+        return new Scenario(scenario.getLocation(), Collections.emptyList(), intern(scenario.getKeyword()),
+                intern(scenario.getName()), "", Collections.emptyList(), examples, scenario.getId());
+    }
+
+    private void updateStepKeywords(Background background) {
+        background.getSteps().forEach(this::updateStepKeyword);
+    }
+
+    private void updateStepKeyword(Step step) {
+        stepKeywordById.put(step.getId(), intern(step.getKeyword()));
     }
 
-    String getTestClassName(TestCaseStarted testCaseStarted) {
-        if (testClassName != null) {
-            return testClassName;
+    private void updatePickle(Pickle pickle) {
+        synchronized (documentsLock) {
+            updatePickleFromDocument(pickle);
         }
-        return query.findLineageBy(testCaseStarted)
+    }
+
+    private void updatePickleFromDocument(Pickle pickle) {
+        // Gherkin documents precede their pickles
+        Optional<Lineage> lineage = documentQuery.findLineageBy(pickle);
+        String name = lineage
+                .map(l -> testNamingStrategy.reduce(l, pickle))
+                .orElseGet(pickle::getName);
+        String className = testClassName != null ? testClassName : lineage
                 .flatMap(Lineage::feature)
                 .map(Feature::getName)
-                .orElseGet(() -> this.getPickle(testCaseStarted).getUri());
+                .orElseGet(pickle::getUri);
+
+        List<PickleStep> pickleSteps = pickle.getSteps();
+        String[] pickleStepIds = new String[pickleSteps.size()];
+        String[] stepTexts = new String[pickleSteps.size()];
+        for (int i = 0; i < pickleSteps.size(); i++) {
+            PickleStep pickleStep = pickleSteps.get(i);
+            pickleStepIds[i] = pickleStep.getId();
+            stepTexts[i] = intern(renderTestStepText(pickleStep));
+        }
+
+        ReportPickle reportPickle = new ReportPickle(
+                intern(pickle.getUri()),
+                createLocationKey(pickle.getLocation().orElse(null)),
+                name,
+                intern(className),
+                pickleStepIds,
+                stepTexts
+        );
+        pickleById.put(pickle.getId(), reportPickle);
+    }
+
+    /**
+     * Packs the line and column into a single long that sorts the same as
+     * the location, with pickles without a location or column first.
+     */
+    private static long createLocationKey(@Nullable Location location) {
+        if (location == null) {
+            return NO_LOCATION;
+        }
+        return createLocationKey(location.getLine(), location.getColumn().orElse(null));
+    }
+
+    static final long NO_LOCATION = Long.MIN_VALUE;
+
+    static long createLocationKey(long line, @Nullable Long column) {
+        long clampedLine = Math.min(Math.max(line, 0), Integer.MAX_VALUE);
+        long clampedColumn = column == null ? 0 : Math.min(Math.max(column, 0) + 1, 0xFFFF_FFFFL);
+        return clampedLine << 32 | clampedColumn;
+    }
+
+    static long getLine(long locationKey) {
+        return locationKey >>> 32;
+    }
+
+    static @Nullable Long getColumn(long locationKey) {
+        long column = locationKey & 0xFFFF_FFFFL;
+        return column == 0 ? null : column - 1;
+    }
+
+    private String renderTestStepText(PickleStep pickleStep) {
+        // The first ast node is the step, any others are rows of examples
+        List<String> astNodeIds = pickleStep.getAstNodeIds();
+        String stepKeyWord = astNodeIds.isEmpty() ? "" : stepKeywordById.getOrDefault(astNodeIds.get(0), "");
+        return stepKeyWord + pickleStep.getText();
+    }
+
+    private void updateTestCase(TestCase testCase) {
+        ReportPickle pickle = pickleById.get(testCase.getPickleId());
+        if (pickle == null) {
+            // Without its pickle the test case can not be reported
+            return;
+        }
+        List<TestStep> testSteps = testCase.getTestSteps();
+        String[] testStepIds = new String[testSteps.size()];
+        String[] stepTexts = new String[testSteps.size()];
+        for (int i = 0; i < testSteps.size(); i++) {
+            TestStep testStep = testSteps.get(i);
+            testStepIds[i] = testStep.getId();
+            // Hooks have no text
+            stepTexts[i] = testStep.getPickleStepId()
+                    .map(pickle::findStepText)
+                    .orElse(null);
+            if (stepTexts[i] == null && testStep.getPickleStepId().isPresent()) {
+                stepTexts[i] = "";
+            }
+        }
+        testCaseById.put(testCase.getId(), new ReportTestCase(pickle, testStepIds, stepTexts));
+    }
+
+    private void updateTestCaseStarted(TestCaseStarted testCaseStarted) {
+        ReportTestCase testCase = testCaseById.get(testCaseStarted.getTestCaseId());
+        if (testCase == null) {
+            // Neither are the messages of its execution
+            return;
+        }
+        TestCaseExecution execution = new TestCaseExecution(
+                testCaseStarted.getId(),
+                testCaseExecutionSequence.getAndIncrement(),
+                testCase,
+                Convertor.toInstant(testCaseStarted.getTimestamp())
+        );
+        testCaseExecutionById.put(testCaseStarted.getId(), execution);
+        testCaseCount.increment();
+        testCaseExecutionsByUri
+                .computeIfAbsent(testCase.pickle.uri, uri -> new ConcurrentSkipListSet<>(testCaseExecutionOrder))
+                .add(execution);
+    }
+
+    private void updateTestStepFinished(TestStepFinished testStepFinished) {
+        TestCaseExecution execution = testCaseExecutionById.get(testStepFinished.getTestCaseStartedId());
+        if (execution != null) {
+            synchronized (execution) {
+                TestStepResultStatus previous = execution.mostSevereStatus;
+                execution.addTestStepResult(testStepFinished.getTestStepId(), testStepFinished.getTestStepResult());
+                TestStepResultStatus current = execution.mostSevereStatus;
+                if (current != previous && !execution.discarded) {
+                    if (previous != null) {
+                        testCaseStatusCounts.get(previous).decrement();
+                    }
+                    testCaseStatusCounts.get(current).increment();
+                }
+            }
+        }
+    }
+
+    private void updateAttachment(Attachment attachment) throws IOException {
+        // Binary attachments are dropped as they are collected
+        if (textAttachments == TextAttachments.EXCLUDE || !attachment.getMediaType().startsWith("text/")) {
+            return;
+        }
+        // Attachments outside a test case, or of an attempt that will be
+        // retried, are not reported
+        TestCaseExecution execution = attachment.getTestCaseStartedId()
+                .map(testCaseExecutionById::get)
+                .orElse(null);
+        if (execution == null) {
+            return;
+        }
+        AttachmentSpool.Span spooled = attachmentSpool.append(attachment);
+        if (spooled != null) {
+            execution.addAttachment(spooled);
+        }
+    }
+
+    private void updateTestCaseFinished(TestCaseFinished testCaseFinished) {
+        String testCaseStartedId = testCaseFinished.getTestCaseStartedId();
+        if (testCaseFinished.getWillBeRetried()) {
+            // Only the last attempt is reported
+            TestCaseExecution retried = remove(testCaseStartedId);
+            if (retried != null) {
+                discard(retried);
+            }
+            return;
+        }
+        TestCaseExecution execution = testCaseExecutionById.get(testCaseStartedId);
+        if (execution != null) {
+            synchronized (execution) {
+                execution.duration = Duration.between(execution.startedAt, Convertor.toInstant(testCaseFinished.getTimestamp()));
+                execution.row = createRow(execution);
+                // Only the deduplicated payloads of the row are retained
+                execution.mostSevereResult = null;
+            }
+        }
+    }
+
+    private void updateTestRunStarted(TestRunStarted testRunStarted) {
+        testRunStartedAt = Convertor.toInstant(testRunStarted.getTimestamp());
+    }
+
+    private void updateTestRunFinished(TestRunFinished testRunFinished) {
+        testRunFinishedAt = Convertor.toInstant(testRunFinished.getTimestamp());
+    }
+
+    /**
+     * Discards the test case finished by the message so it can be written
+     * ahead of the rest of the report, keeping only its contribution to the
+     * suite level counts. Empty if the test case will be retried.
+     */
+    Optional<TestCaseRow> release(TestCaseFinished testCaseFinished) {
+        TestCaseExecution execution = remove(testCaseFinished.getTestCaseStartedId());
+        if (execution == null) {
+            return Optional.empty();
+        }
+        synchronized (execution) {
+            return Optional.of(getRow(execution));
+        }
+    }
+
+    /**
+     * Releases the failure payloads of a test case once it has been written.
+     */
+    void releaseFailurePayloads(TestCaseRow testCase) {
+        failurePayloads.release(testCase.getFailureMessage());
+        failurePayloads.release(testCase.getFailureDetails());
+    }
+
+    /**
+     * Takes the test case out of the running totals.
+     */
+    private void discard(TestCaseExecution execution) {
+        testCaseCount.decrement();
+        synchronized (execution) {
+            if (execution.mostSevereStatus != null) {
+                testCaseStatusCounts.get(execution.mostSevereStatus).decrement();
+            }
+            execution.discarded = true;
+        }
+    }
+
+    private @Nullable TestCaseExecution remove(String testCaseStartedId) {
+        TestCaseExecution execution = testCaseExecutionById.remove(testCaseStartedId);
+        if (execution != null) {
+            testCaseExecutionsByUri.get(execution.testCase.pickle.uri).remove(execution);
+        }
+        return execution;
+    }
+
+    Duration getSuiteDuration() {
+        Instant testRunStartedAt = this.testRunStartedAt;
+        Instant testRunFinishedAt = this.testRunFinishedAt;
+        return testRunStartedAt == null || testRunFinishedAt == null
+                ? Duration.ZERO
+                : Duration.between(testRunStartedAt, testRunFinishedAt);
+    }
+
+    /**
+     * The number of test cases by their most severe status, so far. Test
+     * cases without results are not counted.
+     */
+    Map<TestStepResultStatus, Long> getTestCaseStatusCounts() {
+        Map<TestStepResultStatus, Long> counts = new EnumMap<>(TestStepResultStatus.class);
+        testCaseStatusCounts.forEach((status, count) -> counts.put(status, count.sum()));
+        return counts;
+    }
+
+    int getTestCaseCount() {
+        return testCaseCount.intValue();
     }
 
     String getTestSuiteName() {
         return testSuiteName;
     }
-    
-    List<Entry<String, String>> getStepsAndResult(TestCaseStarted testCaseStarted) {
-        return query.findTestStepFinishedAndTestStepBy(testCaseStarted)
-                .stream()
-                // Exclude hooks
-                .filter(entry -> entry.getValue().getPickleStepId().isPresent())
-                .map(testStep -> {
-                    String key = renderTestStepText(testStep.getValue());
-                    String value = renderTestStepResult(testStep.getKey());
-                    return new SimpleEntry<>(key, value);
-                })
-                .collect(toList());
-    }
-
-    private String renderTestStepResult(TestStepFinished testStepFinished) {
-        return testStepFinished
-                .getTestStepResult()
-                .getStatus()
-                .toString()
-                .toLowerCase(Locale.ROOT);
+
+    private TestCaseRow getRow(TestCaseExecution execution) {
+        // Test cases that never finished are still reported
+        return execution.row != null ? execution.row : createRow(execution);
     }
 
-    private String renderTestStepText(TestStep testStep) {
-        Optional<PickleStep> pickleStep = query.findPickleStepBy(testStep);
+    FailurePayloads getFailurePayloads() {
+        return failurePayloads;
+    }
 
-        String stepKeyWord = pickleStep
-                .flatMap(query::findStepBy)
-                .map(Step::getKeyword)
-                .orElse("");
+    private TestCaseRow createRow(TestCaseExecution execution) {
+        TestStepResult result = execution.mostSevereResult == null ? SCENARIO_WITH_NO_STEPS : execution.mostSevereResult;
+        TestStepResultStatus status = result.getStatus();
+        Optional<Exception> exception = status == PASSED ? Optional.empty() : result.getException();
+        boolean failed = status != PASSED && status != SKIPPED;
+        return new TestCaseRow(
+                execution.testCase.pickle.uri,
+                execution.testCase.pickle.locationKey,
+                execution.testCase.pickle.className,
+                execution.testCase.pickle.name,
+                execution.duration == null ? Duration.ZERO : execution.duration,
+                status,
+                failed ? exception.map(Exception::getType).orElse(null) : null,
+                failurePayloads.deduplicate(failed ? exception.flatMap(Exception::getMessage).orElse(null) : null),
+                failurePayloads.deduplicate(status == PASSED ? null : exception.flatMap(Exception::getStackTrace)
+                        // Fall back to message for older implementations
+                        // that put the stack trace in the message
+                        .or(result::getMessage)
+                        .orElse(null)),
+                createStepLines(execution),
+                textAttachments == TextAttachments.SYSTEM_OUT ? execution.getAttachments() : Collections.emptyList(),
+                textAttachments == TextAttachments.SYSTEM_ERR ? execution.getAttachments() : Collections.emptyList()
+        );
+    }
 
-        String stepText = pickleStep
-                .map(PickleStep::getText)
-                .orElse("");
+    private static List<String> createStepLines(TestCaseExecution execution) {
+        List<String> stepLines = new ArrayList<>(execution.testStepCount);
+        for (int i = 0; i < execution.testStepCount; i++) {
+            String stepText = execution.testCase.getStepText(execution.testStepIndexes[i]);
+            // Exclude hooks
+            if (stepText != null) {
+                stepLines.add(createStepLine(stepText, renderTestStepResult(execution.testStepStatuses[i])));
+            }
+        }
+        return Collections.unmodifiableList(stepLines);
+    }
 
-        return stepKeyWord + stepText;
+    private static String createStepLine(String stepText, String status) {
+        // pad to 76 characters per line, minus the two mandatory dots and step text
+        int padding = Math.max(0, 76 - 2 - stepText.length());
+        StringBuilder sb = new StringBuilder(stepText.length() + 2 + padding + status.length() + 1);
+        sb.append(stepText);
+        // minimum of two dots between step text and status.
+        sb.append("..");
+        for (int i = 0; i < padding; i++) {
+            sb.append('.');
+        }
+        sb.append(status);
+        sb.append('\n');
+        return sb.toString();
     }
 
-    private static final Comparator<Pickle> pickleComparator = Comparator.comparing(Pickle::getUri)
-            .thenComparing(pickle -> pickle.getLocation().orElse(null), nullsFirst(new LocationComparator()));
+    private static String renderTestStepResult(TestStepResultStatus status) {
+        return status
+                .toString()
+                .toLowerCase(Locale.ROOT);
+    }
+
+    // Executions of the same pickle are ordered by the time they started
+    private static final Comparator<TestCaseExecution> testCaseExecutionOrder = comparingLong(
+            (TestCaseExecution execution) -> execution.testCase.pickle.locationKey)
+            .thenComparingLong(execution -> execution.sequence);
 
-    List<TestCaseStarted> getAllTestCaseStarted() {
-        return query.findAllTestCaseStartedOrderBy(Query::findPickleBy, pickleComparator);
+    List<TestCaseRow> getAllTestCases() {
+        List<TestCaseRow> rows = new ArrayList<>(testCaseExecutionById.size());
+        for (NavigableSet<TestCaseExecution> testCaseExecutions : testCaseExecutionsByUri.values()) {
+            for (TestCaseExecution execution : testCaseExecutions) {
+                synchronized (execution) {
+                    rows.add(getRow(execution));
+                }
+            }
+        }
+        return rows;
     }
 
     private static final io.cucumber.messages.types.Duration ZERO_DURATION =
@@ -151,15 +564,117 @@ class XmlReportData {
     // By definition, but see https://github.com/cucumber/gherkin/issues/11
     private static final TestStepResult SCENARIO_WITH_NO_STEPS = new TestStepResult(ZERO_DURATION, null, PASSED, null);
 
-    TestStepResult getTestCaseStatus(TestCaseStarted testCaseStarted) {
-        return query.findMostSevereTestStepResultBy(testCaseStarted)
-                .orElse(SCENARIO_WITH_NO_STEPS);
-    }
-
     Optional<String> getTestRunStartedAt() {
-        return query.findTestRunStarted()
-                .map(TestRunStarted::getTimestamp)
-                .map(Convertor::toInstant)
+        return Optional.ofNullable(testRunStartedAt)
                 .map(ISO_INSTANT::format);
     }
+
+    private static final class ReportPickle {
+        private final String uri;
+        private final long locationKey;
+        private final String name;
+        private final String className;
+        private final String[] pickleStepIds;
+        private final String[] stepTexts;
+
+        private ReportPickle(String uri, long locationKey, String name, String className, String[] pickleStepIds, String[] stepTexts) {
+            this.uri = uri;
+            this.locationKey = locationKey;
+            this.name = name;
+            this.className = className;
+            this.pickleStepIds = pickleStepIds;
+            this.stepTexts = stepTexts;
+        }
+
+        private @Nullable String findStepText(String pickleStepId) {
+            for (int i = 0; i < pickleStepIds.length; i++) {
+                if (pickleStepIds[i].equals(pickleStepId)) {
+                    return stepTexts[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class ReportTestCase {
+        private final ReportPickle pickle;
+        private final String[] testStepIds;
+        private final @Nullable String[] stepTexts;
+
+        private ReportTestCase(ReportPickle pickle, String[] testStepIds, @Nullable String[] stepTexts) {
+            this.pickle = pickle;
+            this.testStepIds = testStepIds;
+            this.stepTexts = stepTexts;
+        }
+
+        private int indexOf(String testStepId) {
+            for (int i = 0; i < testStepIds.length; i++) {
+                if (testStepIds[i].equals(testStepId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private @Nullable String getStepText(int testStepIndex) {
+            return testStepIndex < 0 ? null : stepTexts[testStepIndex];
+        }
+    }
+
+    private static final class TestCaseExecution {
+        private final String testCaseStartedId;
+        private final long sequence;
+        private final ReportTestCase testCase;
+        private final Instant startedAt;
+        private @Nullable Duration duration;
+        // Until finished
+        private @Nullable TestStepResult mostSevereResult;
+        private @Nullable TestStepResultStatus mostSevereStatus;
+        // Once it will be retried
+        private boolean discarded;
+        // Once finished
+        private @Nullable TestCaseRow row;
+        // In order of completion
+        private int[] testStepIndexes;
+        private TestStepResultStatus[] testStepStatuses;
+        private int testStepCount;
+        // In order of collection
+        private List<AttachmentSpool.Span> attachments = Collections.emptyList();
+
+        private TestCaseExecution(String testCaseStartedId, long sequence, ReportTestCase testCase, Instant startedAt) {
+            this.testCaseStartedId = testCaseStartedId;
+            this.sequence = sequence;
+            this.testCase = testCase;
+            this.startedAt = startedAt;
+            this.testStepIndexes = new int[testCase.testStepIds.length];
+            this.testStepStatuses = new TestStepResultStatus[testCase.testStepIds.length];
+        }
+
+        private synchronized void addTestStepResult(String testStepId, TestStepResult result) {
+            if (testStepCount == testStepIndexes.length) {
+                int capacity = Math.max(4, testStepCount * 2);
+                testStepIndexes = Arrays.copyOf(testStepIndexes, capacity);
+                testStepStatuses = Arrays.copyOf(testStepStatuses, capacity);
+            }
+            testStepIndexes[testStepCount] = testCase.indexOf(testStepId);
+            testStepStatuses[testStepCount] = result.getStatus();
+            testStepCount++;
+            // The first of equally severe results is the most severe
+            if (mostSevereStatus == null || result.getStatus().compareTo(mostSevereStatus) > 0) {
+                mostSevereResult = result;
+                mostSevereStatus = result.getStatus();
+            }
+        }
+
+        private synchronized void addAttachment(AttachmentSpool.Span attachment) {
+            if (attachments.isEmpty()) {
+                attachments = new ArrayList<>(1);
+            }
+            attachments.add(attachment);
+        }
+
+        private synchronized List<AttachmentSpool.Span> getAttachments() {
+            return attachments.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(attachments));
+        }
+    }
 }
@@ -1,70 +1,352 @@
 package io.cucumber.junitxmlformatter;
 
-import io.cucumber.messages.types.Exception;
-import io.cucumber.messages.types.TestCaseStarted;
-import io.cucumber.messages.types.TestStepResult;
 import io.cucumber.messages.types.TestStepResultStatus;
 
-import java.util.List;
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import java.io.Writer;
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+import static io.cucumber.junitxmlformatter.XmlReportData.NO_LOCATION;
+import static io.cucumber.junitxmlformatter.XmlReportData.getColumn;
+import static io.cucumber.junitxmlformatter.XmlReportData.getLine;
 import static io.cucumber.messages.types.TestStepResultStatus.PASSED;
 import static io.cucumber.messages.types.TestStepResultStatus.SKIPPED;
+import static java.util.Objects.requireNonNull;
+
+class XmlReportWriter implements ReportOutput {
+    static final String LOCATION_INSTRUCTION = "cucumber-location";
 
-class XmlReportWriter {
     private final XmlReportData data;
+    private OutputStream out;
+    private final Compression compression;
+    private final Executor compressionExecutor;
+    private final SpillingOutputStream streamedTestcases;
+    private final long spillToDiskThreshold;
+    private final @Nullable Executor renderingExecutor;
+    private final boolean writeLocations;
+    private final Truncation truncation;
+    private final WriterStatisticsRecorder statistics;
+    private @Nullable EscapingXmlStreamWriter streamedTestcasesWriter;
+    private @Nullable EscapingXmlStreamWriter reportWriter;
+    // Once the report is written
+    private @Nullable OutputStream compressedOut;
+    private @Nullable ReportIndex index;
 
-    XmlReportWriter(XmlReportData data) {
+    XmlReportWriter(
+            XmlReportData data,
+            OutputStream out,
+            @Nullable OutputStream index,
+            Compression compression,
+            Executor compressionExecutor,
+            long spillToDiskThreshold,
+            @Nullable Executor renderingExecutor,
+            boolean writeLocations,
+            Truncation truncation,
+            WriterStatisticsRecorder statistics
+    ) {
         this.data = data;
+        this.out = out;
+        this.compression = compression;
+        this.compressionExecutor = compressionExecutor;
+        this.streamedTestcases = new SpillingOutputStream(spillToDiskThreshold);
+        this.spillToDiskThreshold = spillToDiskThreshold;
+        this.renderingExecutor = renderingExecutor;
+        this.writeLocations = writeLocations;
+        this.truncation = truncation;
+        this.statistics = statistics;
+        this.index = createIndex(index);
     }
 
-    void writeXmlReport(Writer out) throws XMLStreamException {
-        XMLOutputFactory factory = XMLOutputFactory.newInstance();
-        EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(factory.createXMLStreamWriter(out));
+    /**
+     * Writes the testcase element of a finished test case ahead of the rest
+     * of the report.
+     * <p>
+     * The testsuite attributes can only be written once all test cases have
+     * finished. Until then the rendered testcase is buffered.
+     */
+    @Override
+    public synchronized void writeTestcase(TestCaseRow testCase, Consumer<TestCaseRow> rendered) throws IOException {
+        EscapingXmlStreamWriter writer = streamedTestcasesWriter;
+        if (writer == null) {
+            writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(streamedTestcases));
+            streamedTestcasesWriter = writer;
+        }
+        ReportIndex index = this.index;
+        if (index == null) {
+            writeTestcase(writer, testCase, writeLocations, truncation);
+        } else {
+            // Relative to the first streamed testcase
+            long offset = writeIndexedTestcase(writer, testCase);
+            index.addPending(offset, writer.getBytesWritten() - offset - 1, testCase);
+        }
+        writer.flush();
+        rendered.accept(testCase);
+    }
+
+    private @Nullable ReportIndex createIndex(@Nullable OutputStream index) {
+        if (index == null) {
+            return null;
+        }
+        // The offsets are of the uncompressed report
+        if (compression != Compression.none()) {
+            throw new IllegalStateException("Compression is not supported when writing an index");
+        }
+        return new ReportIndex(index, spillToDiskThreshold);
+    }
+
+    /**
+     * Writes the testcase, returning the offset of its element. The element
+     * is followed by a new line.
+     */
+    private long writeIndexedTestcase(EscapingXmlStreamWriter writer, TestCaseRow testCase) throws IOException {
+        if (writeLocations) {
+            writeLocation(writer, testCase);
+        }
+        long offset = writer.getBytesWritten();
+        writeTestcaseElement(writer, testCase, truncation);
+        return offset;
+    }
+
+    @Override
+    public void writeReport() throws IOException {
+        OutputStream out = compression.wrap(statistics.countBytes(this.out), compressionExecutor);
+        compressedOut = out;
+        EscapingXmlStreamWriter writer = reportWriter;
+        if (writer == null) {
+            writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out));
+            reportWriter = writer;
+        } else {
+            writer.reset(out);
+        }
         writer.writeStartDocument("UTF-8", "1.0");
         writer.writeNewLine();
-        writeTestsuite(writer);
+        writeTestsuite(writer, out);
         writer.writeEndDocument();
         writer.flush();
     }
 
-    private void writeTestsuite(EscapingXmlStreamWriter writer) throws XMLStreamException {
+    @Override
+    public void close() throws IOException {
+        try {
+            // Finishes the compressed output
+            (compressedOut != null ? compressedOut : out).close();
+        } finally {
+            try {
+                streamedTestcases.close();
+            } finally {
+                if (index != null) {
+                    index.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes another report to {@code out}, and its index to {@code index} if
+     * not null, reusing the buffers of the previous report. The writer must
+     * have been closed.
+     */
+    void reset(OutputStream out, @Nullable OutputStream index) throws IOException {
+        this.index = createIndex(index);
+        this.out = requireNonNull(out);
+        compressedOut = null;
+        streamedTestcases.reset();
+        if (streamedTestcasesWriter != null) {
+            streamedTestcasesWriter.reset(streamedTestcases);
+        }
+    }
+
+    private void writeTestsuite(EscapingXmlStreamWriter writer, OutputStream out) throws IOException {
         writer.writeStartElement("testsuite");
-        writeSuiteAttributes(writer);
+        Map<TestStepResultStatus, Long> counts = data.getTestCaseStatusCounts();
+        writeSuiteAttributes(
+                writer,
+                data.getTestSuiteName(),
+                data.getSuiteDuration(),
+                data.getTestCaseCount(),
+                counts.get(SKIPPED),
+                countFailures(counts),
+                data.getTestRunStartedAt()
+        );
         writer.writeNewLine();
 
-        for (TestCaseStarted testCaseStarted : data.getAllTestCaseStarted()) {
-            writeTestcase(writer, testCaseStarted);
+        // Streamed testcases precede those that never finished
+        writer.flush();
+        long streamedOffset = writer.getBytesWritten();
+        if (compression == Compression.none()) {
+            // Around the byte count, so a file is written to without copying onto the heap
+            statistics.recordBytesWritten(streamedTestcases.transferTo(this.out));
+        } else {
+            streamedTestcases.transferTo(out);
+        }
+        ReportIndex index = this.index;
+        if (index != null) {
+            index.writePending(streamedOffset);
+        }
+        // Transferred around the writer
+        long streamedBytes = streamedTestcasesWriter == null ? 0 : streamedTestcasesWriter.getBytesWritten();
+
+        List<TestCaseRow> testCases = statistics.getAllTestCases(data);
+        if (renderingExecutor == null) {
+            for (TestCaseRow testCase : testCases) {
+                if (index == null) {
+                    writeTestcase(writer, testCase, writeLocations, truncation);
+                } else {
+                    long offset = writeIndexedTestcase(writer, testCase);
+                    index.add(streamedBytes + offset, writer.getBytesWritten() - offset - 1, testCase);
+                }
+            }
+        } else {
+            writer.flush();
+            writeTestcasesInParallel(testCases, renderingExecutor, out, streamedOffset + streamedBytes);
         }
 
         writer.writeEndElement();
         writer.writeNewLine();
+        if (index != null) {
+            index.flush();
+        }
     }
 
-    private void writeSuiteAttributes(EscapingXmlStreamWriter writer) throws XMLStreamException {
-        writer.writeAttribute("name", data.getTestSuiteName());
-        writer.writeAttribute("time", String.valueOf(data.getSuiteDurationInSeconds()));
+    private static final int MAX_BATCH_SIZE = 256;
 
-        Map<TestStepResultStatus, Long> counts = data.getTestCaseStatusCounts();
+    /**
+     * Renders batches of testcases into separate buffers in parallel and
+     * writes them in order.
+     */
+    private void writeTestcasesInParallel(List<TestCaseRow> testCases, Executor executor, OutputStream out, long offset) throws IOException {
+        OrderedParallelTasks.forEachBatch(
+                testCases,
+                MAX_BATCH_SIZE,
+                OrderedParallelTasks.perProcessor(4),
+                executor,
+                this::renderBatch,
+                new RenderedBatchWriter(out, offset)
+        );
+    }
 
-        writer.writeAttribute("tests", String.valueOf(data.getTestCaseCount()));
-        writer.writeAttribute("skipped", String.valueOf(counts.get(SKIPPED)));
-        writer.writeAttribute("failures", String.valueOf(countFailures(counts)));
-        writer.writeAttribute("errors", "0");
+    private RenderedBatch renderBatch(List<TestCaseRow> testCases) {
+        // The offset and length of each testcase element in the batch
+        long @Nullable [] elements = index == null ? null : new long[2 * testCases.size()];
+        return new RenderedBatch(elements, renderTestcases(testCases, writeLocations, truncation, elements));
+    }
 
-        Optional<String> testRunStartedAt = data.getTestRunStartedAt();
-        if (testRunStartedAt.isPresent()) {
-            writer.writeAttribute("timestamp", testRunStartedAt.get());
+    static ByteArrayOutputStream renderTestcases(List<TestCaseRow> testCases, boolean writeLocations, Truncation truncation) {
+        return renderTestcases(testCases, writeLocations, truncation, null);
+    }
+
+    private static ByteArrayOutputStream renderTestcases(List<TestCaseRow> testCases, boolean writeLocations, Truncation truncation, long @Nullable [] elements) {
+        ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(rendered))) {
+            for (int i = 0; i < testCases.size(); i++) {
+                TestCaseRow testCase = testCases.get(i);
+                if (writeLocations) {
+                    writeLocation(writer, testCase);
+                }
+                long offset = writer.getBytesWritten();
+                writeTestcaseElement(writer, testCase, truncation);
+                if (elements != null) {
+                    elements[2 * i] = offset;
+                    elements[2 * i + 1] = writer.getBytesWritten() - offset - 1;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return rendered;
     }
 
-    private static long countFailures(Map<TestStepResultStatus, Long> counts) {
-        return createNotPassedNotSkippedSet().stream().mapToLong(counts::get).sum();
+    private static final class RenderedBatch {
+        private final long @Nullable [] elements;
+        private final ByteArrayOutputStream rendered;
+
+        private RenderedBatch(long @Nullable [] elements, ByteArrayOutputStream rendered) {
+            this.elements = elements;
+            this.rendered = rendered;
+        }
+    }
+
+    /**
+     * Writes rendered batches in order, indexing their testcase elements at
+     * the offset they are written at.
+     */
+    private final class RenderedBatchWriter implements OrderedParallelTasks.BatchConsumer<TestCaseRow, RenderedBatch> {
+        private final OutputStream out;
+        private long offset;
+
+        private RenderedBatchWriter(OutputStream out, long offset) {
+            this.out = out;
+            this.offset = offset;
+        }
+
+        @Override
+        public void accept(List<TestCaseRow> testCases, RenderedBatch batch) throws IOException {
+            batch.rendered.writeTo(out);
+            ReportIndex index = XmlReportWriter.this.index;
+            long @Nullable [] elements = batch.elements;
+            if (index != null && elements != null) {
+                for (int i = 0; i < testCases.size(); i++) {
+                    index.add(offset + elements[2 * i], elements[2 * i + 1], testCases.get(i));
+                }
+            }
+            offset += batch.rendered.size();
+        }
+    }
+
+    /**
+     * Waits for a task started on the rendering executor, rethrowing its
+     * failure.
+     */
+    static <T> T join(CompletableFuture<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    static void writeSuiteAttributes(
+            EscapingXmlStreamWriter writer,
+            String name,
+            Duration time,
+            long tests,
+            long skipped,
+            long failures,
+            Optional<String> timestamp
+    ) throws IOException {
+        writer.writeAttribute("name", name);
+        writer.writeSecondsAttribute("time", time);
+        writer.writeAttribute("tests", String.valueOf(tests));
+        writer.writeAttribute("skipped", String.valueOf(skipped));
+        writer.writeAttribute("failures", String.valueOf(failures));
+        writer.writeAttribute("errors", "0");
+        if (timestamp.isPresent()) {
+            writer.writeAttribute("timestamp", timestamp.get());
+        }
+    }
+
+    private static final EnumSet<TestStepResultStatus> NOT_PASSED_NOT_SKIPPED = createNotPassedNotSkippedSet();
+
+    static long countFailures(Map<TestStepResultStatus, Long> counts) {
+        return NOT_PASSED_NOT_SKIPPED.stream().mapToLong(counts::get).sum();
     }
 
     private static EnumSet<TestStepResultStatus> createNotPassedNotSkippedSet() {
@@ -74,94 +356,104 @@ class XmlReportWriter {
         return notPassedNotSkipped;
     }
 
-    private void writeTestcase(EscapingXmlStreamWriter writer, TestCaseStarted testCaseStarted) throws XMLStreamException {
+    static void writeTestcase(EscapingXmlStreamWriter writer, TestCaseRow testCase, boolean writeLocation, Truncation truncation) throws IOException {
+        if (writeLocation) {
+            writeLocation(writer, testCase);
+        }
+        writeTestcaseElement(writer, testCase, truncation);
+    }
+
+    private static void writeTestcaseElement(EscapingXmlStreamWriter writer, TestCaseRow testCase, Truncation truncation) throws IOException {
         writer.writeStartElement("testcase");
-        writeTestCaseAttributes(writer, testCaseStarted);
+        writeTestCaseAttributes(writer, testCase);
         writer.writeNewLine();
-        writeNonPassedElement(writer, testCaseStarted);
-        writeStepAndResultList(writer, testCaseStarted);
+        writeNonPassedElement(writer, testCase, truncation);
+        writeStepAndResultList(writer, testCase, truncation);
         writer.writeEndElement();
         writer.writeNewLine();
     }
 
-    private void writeTestCaseAttributes(EscapingXmlStreamWriter writer, TestCaseStarted testCaseStarted) throws XMLStreamException {
-        writer.writeAttribute("classname", data.getTestClassName(testCaseStarted));
-        writer.writeAttribute("name", data.getTestName(testCaseStarted));
-        writer.writeAttribute("time", String.valueOf(data.getDurationInSeconds(testCaseStarted)));
+    /**
+     * Writes the location of the test case ahead of its testcase element, so
+     * partial reports can be merged in order. Consumers of the report ignore
+     * processing instructions.
+     *
+     * @see JunitXmlReportMerger
+     */
+    private static void writeLocation(EscapingXmlStreamWriter writer, TestCaseRow testCase) throws IOException {
+        writer.writeStartProcessingInstruction(LOCATION_INSTRUCTION);
+        writer.writePseudoAttribute("uri", testCase.getUri());
+        long locationKey = testCase.getLocationKey();
+        if (locationKey != NO_LOCATION) {
+            writer.writePseudoAttribute("line", String.valueOf(getLine(locationKey)));
+            Long column = getColumn(locationKey);
+            if (column != null) {
+                writer.writePseudoAttribute("column", String.valueOf(column));
+            }
+        }
+        writer.writeEndProcessingInstruction();
+        writer.writeNewLine();
+    }
+
+    private static void writeTestCaseAttributes(EscapingXmlStreamWriter writer, TestCaseRow testCase) throws IOException {
+        writer.writeAttribute("classname", testCase.getClassName());
+        writer.writeAttribute("name", testCase.getName());
+        writer.writeSecondsAttribute("time", testCase.getDuration());
     }
 
-    private void writeNonPassedElement(EscapingXmlStreamWriter writer, TestCaseStarted testCaseStarted) throws XMLStreamException {
-        TestStepResult result = data.getTestCaseStatus(testCaseStarted);
-        TestStepResultStatus status = result.getStatus();
+    private static void writeNonPassedElement(EscapingXmlStreamWriter writer, TestCaseRow testCase, Truncation truncation) throws IOException {
+        TestStepResultStatus status = testCase.getStatus();
         if (status == TestStepResultStatus.PASSED) {
             return;
         }
 
         String elementName = status == SKIPPED ? "skipped" : "failure";
 
-        Optional<String> message = result.getMessage();
-        Optional<String> exceptionType = result.getException().map(Exception::getType);
-        Optional<String> exceptionMessage = result.getException().flatMap(Exception::getMessage);
-        Optional<String> exceptionStackTrace = result.getException().flatMap(Exception::getStackTrace);
+        @Nullable String failureType = testCase.getFailureType();
+        @Nullable String failureMessage = testCase.getFailureMessage();
+        @Nullable String failureDetails = testCase.getFailureDetails();
 
-        boolean hasMessageOrStackTrace = message.isPresent() || exceptionStackTrace.isPresent();
-        if (hasMessageOrStackTrace) {
+        if (failureDetails != null) {
             writer.writeStartElement(elementName);
         } else {
             writer.writeEmptyElement(elementName);
         }
 
-        if (status != SKIPPED && exceptionType.isPresent()) {
-            writer.writeAttribute("type", exceptionType.get());
+        if (failureType != null) {
+            writer.writeAttribute("type", failureType);
         }
-        if (status != SKIPPED && exceptionMessage.isPresent()) {
-            writer.writeAttribute("message", exceptionMessage.get());
-        }
-        if (hasMessageOrStackTrace) {
-            if (exceptionStackTrace.isPresent()) {
-                writer.writeNewLine();
-                writer.writeCData(exceptionStackTrace.get());
-                writer.writeNewLine();
-            } else {
-                // Fall back to message for older implementations
-                // that put the stack trace in the message
-                writer.writeNewLine();
-                writer.writeCData(message.get());
-                writer.writeNewLine();
-            }
+        if (failureMessage != null) {
+            writer.writeAttribute("message", failureMessage);
         }
-
-        if (hasMessageOrStackTrace) {
+        if (failureDetails != null) {
+            writer.writeNewLine();
+            truncation.writeFailureDetails(writer, failureDetails);
+            writer.writeNewLine();
             writer.writeEndElement();
         }
         writer.writeNewLine();
     }
 
-    private void writeStepAndResultList(EscapingXmlStreamWriter writer, TestCaseStarted testCaseStarted) throws XMLStreamException {
-        List<Map.Entry<String, String>> results = data.getStepsAndResult(testCaseStarted);
-        if (results.isEmpty()) {
-            return;
+    private static void writeStepAndResultList(EscapingXmlStreamWriter writer, TestCaseRow testCase, Truncation truncation) throws IOException {
+        List<String> stepLines = testCase.getStepLines();
+        List<AttachmentSpool.Span> systemOutAttachments = testCase.getSystemOutAttachments();
+        if (!stepLines.isEmpty() || !systemOutAttachments.isEmpty()) {
+            writer.writeStartElement("system-out");
+            if (!stepLines.isEmpty()) {
+                truncation.writeStepLines(writer, stepLines);
+            }
+            if (!systemOutAttachments.isEmpty()) {
+                truncation.writeAttachments(writer, systemOutAttachments);
+            }
+            writer.writeEndElement();
+            writer.writeNewLine();
+        }
+        List<AttachmentSpool.Span> systemErrAttachments = testCase.getSystemErrAttachments();
+        if (!systemErrAttachments.isEmpty()) {
+            writer.writeStartElement("system-err");
+            truncation.writeAttachments(writer, systemErrAttachments);
+            writer.writeEndElement();
+            writer.writeNewLine();
         }
-        writer.writeStartElement("system-out");
-        writer.writeCData(createStepResultList(results));
-        writer.writeEndElement();
-        writer.writeNewLine();
     }
-
-    private static String createStepResultList(List<Map.Entry<String, String>> results) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("\n");
-        results.forEach(r -> {
-            String stepText = r.getKey();
-            String status = r.getValue();
-            sb.append(stepText);
-            // minimum of two dots between step text and status.
-            sb.append("..");
-            // pad to 76 characters per line, minus the two mandatory dots and step text
-            sb.append(".".repeat(Math.max(0, 76 - 2 - stepText.length())));
-            sb.append(status);
-            sb.append("\n");
-        });
-        return sb.toString();
-    }
-}
\ No newline at end of file
+}
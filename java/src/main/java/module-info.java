@@ -2,6 +2,7 @@ module io.cucumber.junitxmlformatter {
     requires org.jspecify;
 
     requires java.xml;
+    requires jdk.jfr;
 
     requires transitive io.cucumber.messages;
     requires io.cucumber.query;
@@ -0,0 +1,122 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Attachment;
+import io.cucumber.messages.types.AttachmentContentEncoding;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AttachmentSpoolTest {
+
+    private static Attachment createAttachment(String body, AttachmentContentEncoding contentEncoding) {
+        return new Attachment(body, contentEncoding, null, "text/plain", "some-id", null, null, null, null, null);
+    }
+
+    @Test
+    void writesAttachmentsTerminatedByNewLines() throws IOException {
+        try (AttachmentSpool spool = new AttachmentSpool()) {
+            List<AttachmentSpool.Span> attachments = new ArrayList<>();
+            attachments.add(spool.append("hello"));
+            attachments.add(spool.append("world\n"));
+            String encoded = Base64.getEncoder().encodeToString("caf\u00e9".getBytes(UTF_8));
+            attachments.add(spool.append(createAttachment(encoded, AttachmentContentEncoding.BASE64)));
+            attachments.add(spool.append(createAttachment("]]>", AttachmentContentEncoding.IDENTITY)));
+
+            assertThat(AttachmentSpool.size(attachments)).isEqualTo(22L);
+            assertThat(writeAttachments(Truncation.NONE, attachments))
+                    .isEqualTo("<![CDATA[hello\nworld\ncaf\u00e9\n]]]]><![CDATA[>\n]]>");
+        }
+    }
+
+    @Test
+    void decodesBase64AttachmentsInChunks() throws IOException {
+        String text = "caf\u00e9 ".repeat(5000);
+        String encoded = Base64.getEncoder().encodeToString(text.getBytes(UTF_8));
+        try (AttachmentSpool spool = new AttachmentSpool()) {
+            List<AttachmentSpool.Span> attachments = new ArrayList<>();
+            attachments.add(spool.append(createAttachment(encoded, AttachmentContentEncoding.BASE64)));
+
+            assertThat(AttachmentSpool.size(attachments)).isEqualTo(30001L);
+            assertThat(writeAttachments(Truncation.NONE, attachments))
+                    .isEqualTo("<![CDATA[" + text + "\n]]>");
+        }
+    }
+
+    @Test
+    void appendsTextInChunks() throws IOException {
+        // The surrogate pair is split across chunks
+        Iterator<String> chunks = List.of("caf\u00e9 ", "", "\uD83D", "\uDE00 \uD83D", "x").iterator();
+        try (AttachmentSpool spool = new AttachmentSpool()) {
+            List<AttachmentSpool.Span> attachments = new ArrayList<>();
+            attachments.add(spool.append(() -> chunks.hasNext() ? chunks.next() : null));
+
+            assertThat(AttachmentSpool.size(attachments)).isEqualTo(14L);
+            assertThat(writeAttachments(Truncation.NONE, attachments))
+                    .isEqualTo("<![CDATA[caf\u00e9 \uD83D\uDE00 ?x\n]]>");
+            assertThat(spool.append(() -> null)).isNull();
+        }
+    }
+
+    @Test
+    void rejectsMalformedBase64Attachments() throws IOException {
+        try (AttachmentSpool spool = new AttachmentSpool()) {
+            assertThatThrownBy(() -> spool.append(createAttachment("caf\u00e9", AttachmentContentEncoding.BASE64)))
+                    .isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void ignoresEmptyAttachments() throws IOException {
+        try (AttachmentSpool spool = new AttachmentSpool()) {
+            assertThat(spool.append("")).isNull();
+            assertThat(spool.append(createAttachment("", AttachmentContentEncoding.BASE64))).isNull();
+        }
+    }
+
+    @Test
+    void retainsHeadAndTailBytesWithoutSplittingCharacters() throws IOException {
+        try (AttachmentSpool spool = new AttachmentSpool()) {
+            List<AttachmentSpool.Span> attachments = new ArrayList<>();
+            attachments.add(spool.append("\u00e9".repeat(10)));
+            attachments.add(spool.append("\uD83D\uDE00".repeat(10)));
+            Truncation truncation = new Truncation(12, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+            assertThat(writeAttachments(truncation, attachments)).isEqualTo("" +
+                    "<![CDATA[\u00e9\u00e9\u00e9\n" +
+                    "[... 51 bytes truncated ...]\n" +
+                    "\uD83D\uDE00\n]]>");
+        }
+    }
+
+    @Test
+    void discardsAttachmentsWhenClosed() throws IOException {
+        AttachmentSpool spool = new AttachmentSpool();
+        List<AttachmentSpool.Span> attachments = new ArrayList<>();
+        attachments.add(spool.append("hello"));
+        spool.close();
+        assertThatThrownBy(() -> writeAttachments(Truncation.NONE, attachments))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Attachments have been discarded");
+
+        attachments.set(0, spool.append("world"));
+        assertThat(writeAttachments(Truncation.NONE, attachments))
+                .isEqualTo("<![CDATA[world\n]]>");
+        spool.close();
+    }
+
+    private static String writeAttachments(Truncation truncation, List<AttachmentSpool.Span> attachments) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out))) {
+            truncation.writeAttachments(writer, attachments);
+        }
+        return out.toString(UTF_8);
+    }
+}
@@ -0,0 +1,126 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CheckpointingXmlReportWriterTest {
+
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+
+    static List<Path> sources() throws IOException {
+        try (Stream<Path> paths = Files.list(Paths.get("../testdata/src"))) {
+            return paths
+                    .filter(path -> path.getFileName().toString().endsWith(".ndjson"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("sources")
+    void writesTheStreamedReport(Path source, @TempDir Path directory) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(readEnvelopes(source), MessagesToJunitXmlWriter.builder().streaming(true).build(out));
+        Path report = directory.resolve("report.xml");
+        write(readEnvelopes(source), MessagesToJunitXmlWriter.builder().checkpointEvery(1).buildFile(report));
+
+        // Apart from the padding of the testsuite start tag
+        String actual = new String(Files.readAllBytes(report), UTF_8).replaceFirst(" +>\n", ">\n");
+        assertThat(actual).isEqualTo(out.toString(UTF_8));
+        try (Stream<Path> paths = Files.list(directory)) {
+            assertThat(paths.collect(Collectors.toList())).containsExactly(report);
+        }
+    }
+
+    @Test
+    void checkpointsAWellFormedPartialReport(@TempDir Path directory) throws Exception {
+        Path report = directory.resolve("report.xml");
+        int finished = 0;
+        try (MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder().checkpointEvery(2).buildFile(report)) {
+            for (Envelope envelope : readEnvelopes(Paths.get("../testdata/src/all-statuses.ndjson"))) {
+                writer.write(envelope);
+                if (envelope.getTestCaseFinished().isPresent() && ++finished >= 2) {
+                    Element testsuite = parse(report);
+                    int checkpointed = testsuite.getElementsByTagName("testcase").getLength();
+                    assertThat(checkpointed).isEqualTo(finished - finished % 2);
+                    assertThat(testsuite.getAttribute("tests")).isEqualTo(String.valueOf(checkpointed));
+                }
+            }
+        }
+        assertThat(parse(report).getElementsByTagName("testcase").getLength()).isEqualTo(finished);
+    }
+
+    @Test
+    void checkpointsOnceTheIntervalHasPassed(@TempDir Path directory) throws Exception {
+        Path report = directory.resolve("report.xml");
+        try (MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder().checkpointEvery(Duration.ofNanos(1)).buildFile(report)) {
+            for (Envelope envelope : readEnvelopes(Paths.get("../testdata/src/minimal.ndjson"))) {
+                writer.write(envelope);
+                if (envelope.getTestCaseFinished().isPresent()) {
+                    assertThat(parse(report).getAttribute("tests")).isEqualTo("1");
+                }
+            }
+        }
+    }
+
+    @Test
+    void rejectsInvalidOptions(@TempDir Path directory) {
+        MessagesToJunitXmlWriter.Builder builder = MessagesToJunitXmlWriter.builder();
+        assertThatThrownBy(() -> builder.checkpointEvery(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("checkpoint test case count must be positive, was 0");
+        assertThatThrownBy(() -> builder.checkpointEvery(Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("checkpoint interval must be positive, was PT0S");
+        Path report = directory.resolve("report.xml");
+        assertThatThrownBy(() -> builder.compression(Compression.gzip()).buildFile(report))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Compression is not supported when writing to a file");
+    }
+
+    private static List<Envelope> readEnvelopes(Path source) throws Exception {
+        try (InputStream in = Files.newInputStream(source);
+             NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    private static void write(List<Envelope> envelopes, MessagesToJunitXmlWriter writer) throws IOException {
+        try (MessagesToJunitXmlWriter closing = writer) {
+            for (Envelope envelope : envelopes) {
+                closing.write(envelope);
+            }
+        }
+    }
+
+    private static Element parse(Path report) throws Exception {
+        try (InputStream in = Files.newInputStream(report)) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in).getDocumentElement();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressionTest {
+
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+    private static final Path source = Paths.get("../testdata/src/examples-tables.ndjson");
+    private static final Path expected = Paths.get("../testdata/src/examples-tables.default.xml");
+
+    static Stream<Compression> compressions() {
+        return Stream.of(
+                Compression.gzip(),
+                Compression.gzip(1),
+                Compression.parallelGzip(),
+                Compression.parallelGzip(9, 100)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("compressions")
+    void writesCompressedReport(Compression compression) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(MessagesToJunitXmlWriter.builder().compression(compression).build(out));
+
+        assertThat(gunzip(out.toByteArray())).isEqualTo(Files.readAllBytes(expected));
+    }
+
+    @ParameterizedTest
+    @MethodSource("compressions")
+    void writesCompressedShards(Compression compression, @TempDir Path temp) throws IOException {
+        Path plain = temp.resolve("plain");
+        Path compressed = temp.resolve("compressed");
+        write(MessagesToJunitXmlWriter.builder().build(plain));
+        write(MessagesToJunitXmlWriter.builder().compression(compression).build(compressed));
+
+        try (Stream<Path> shards = Files.list(plain)) {
+            for (Path shard : shards.collect(Collectors.toList())) {
+                Path compressedShard = compressed.resolve(shard.getFileName() + ".gz");
+                assertThat(gunzip(Files.readAllBytes(compressedShard))).isEqualTo(Files.readAllBytes(shard));
+            }
+        }
+        try (Stream<Path> shards = Files.list(compressed)) {
+            assertThat(shards.count()).isEqualTo(1);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-2, 0, 10})
+    void rejectsInvalidLevels(int level) {
+        assertThatThrownBy(() -> Compression.gzip(level))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("level must be between 1 and 9, or -1 for the default, was " + level);
+        assertThatThrownBy(() -> Compression.parallelGzip(level, 1024))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 0})
+    void rejectsInvalidBlockSizes(int blockSize) {
+        assertThatThrownBy(() -> Compression.parallelGzip(6, blockSize))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("blockSize must be positive, was " + blockSize);
+    }
+
+    private static void write(MessagesToJunitXmlWriter writer) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue);
+             MessagesToJunitXmlWriter closing = writer) {
+            for (Envelope envelope : (Iterable<Envelope>) reader.lines()::iterator) {
+                closing.write(envelope);
+            }
+        }
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            return in.readAllBytes();
+        }
+    }
+}
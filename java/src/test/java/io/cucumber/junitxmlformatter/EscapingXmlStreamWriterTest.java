@@ -2,10 +2,8 @@ package io.cucumber.junitxmlformatter;
 
 import org.junit.jupiter.api.Test;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -13,7 +11,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 class EscapingXmlStreamWriterTest {
 
     @Test
-    void shouldWriteDocument() throws XMLStreamException {
+    void shouldWriteDocument() throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try (EscapingXmlStreamWriter writer = createWriter(out)){
             writer.writeStartDocument("UTF-8", "1.0");
@@ -26,7 +24,7 @@ class EscapingXmlStreamWriterTest {
     }
 
     @Test
-    void shouldEscapeQuotesAndBracketsInAttribute() throws XMLStreamException {
+    void shouldEscapeQuotesAndBracketsInAttribute() throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try (EscapingXmlStreamWriter writer = createWriter(out)){
             writer.writeStartDocument("UTF-8", "1.0");
@@ -39,7 +37,7 @@ class EscapingXmlStreamWriterTest {
     }
 
     @Test
-    void shouldEscapeNullInAttribute() throws XMLStreamException {
+    void shouldEscapeNullInAttribute() throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try (EscapingXmlStreamWriter writer = createWriter(out)){
             writer.writeStartDocument("UTF-8", "1.0");
@@ -52,7 +50,27 @@ class EscapingXmlStreamWriterTest {
     }
 
     @Test
-    void shouldEscapeCDataElement() throws XMLStreamException {
+    void shouldNotCopyStringWithoutIllegalChars() {
+        String value = "Given a step with a long description\tand\r\n a \uD83D\uDE00 and \u00e9 \uFFFD";
+        assertThat(EscapingXmlStreamWriter.escapeIllegalChars(value)).isSameAs(value);
+    }
+
+    @Test
+    void shouldEscapeIllegalCharsInLongStrings() {
+        String value = "0123456789abcdef\u0001 0123456789abcdef\uFFFF 0123456789\uD83D 0123456789abc\uDE00";
+        assertThat(EscapingXmlStreamWriter.escapeIllegalChars(value))
+                .isEqualTo("0123456789abcdef&#1; 0123456789abcdef&#65535; 0123456789&#55357; 0123456789abc&#56832;");
+    }
+
+    @Test
+    void shouldNotEscapeSurrogatePairAcrossBlocks() {
+        String value = "0123456789abcde\uD83D\uDE00\u0000";
+        assertThat(EscapingXmlStreamWriter.escapeIllegalChars(value))
+                .isEqualTo("0123456789abcde\uD83D\uDE00&#0;");
+    }
+
+    @Test
+    void shouldEscapeCDataElement() throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try (EscapingXmlStreamWriter writer = createWriter(out)){
             writer.writeStartDocument("UTF-8", "1.0");
@@ -63,6 +81,34 @@ class EscapingXmlStreamWriterTest {
                 .isEqualTo("<![CDATA[Hello <![CDATA[ cdata ]]]]><![CDATA[> world]]>");
     }
 
+    @Test
+    void shouldEscapeIllegalCharsInCDataElement() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = createWriter(out)){
+            writer.writeCData("Hello \0 world ]]\0>");
+        }
+        assertThat(asString(out))
+                .isEqualTo("<![CDATA[Hello &#0; world ]]&#0;>]]>");
+    }
+
+    @Test
+    void shouldEscapeCDataElementWrittenInChunks() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = createWriter(out)){
+            writer.writeStartCData();
+            writer.writeCDataChunk("Hello ]");
+            writer.writeCDataChunk("]");
+            writer.writeCDataChunk(new StringBuilder(">]]]"));
+            writer.writeCDataChunk(">\uD83D");
+            writer.writeCDataChunk("\uDE00 world \uD83D");
+            writer.writeCDataChunk("");
+            writer.writeCDataChunk("\uD83D");
+            writer.writeEndCData();
+        }
+        assertThat(asString(out))
+                .isEqualTo("<![CDATA[Hello ]]]]><![CDATA[>]]]]]><![CDATA[>\uD83D\uDE00 world &#55357;&#55357;]]>");
+    }
+
     private static String asString(ByteArrayOutputStream out) {
         String s = new String(out.toByteArray(), UTF_8);
         return removeXmlHeader(s);
@@ -76,10 +122,8 @@ class EscapingXmlStreamWriterTest {
         return s;
     }
 
-    private static EscapingXmlStreamWriter createWriter(ByteArrayOutputStream out) throws XMLStreamException {
-        XMLOutputFactory factory = XMLOutputFactory.newInstance();
-        XMLStreamWriter xmlStreamWriter = factory.createXMLStreamWriter(out);
-        return new EscapingXmlStreamWriter(xmlStreamWriter);
+    private static EscapingXmlStreamWriter createWriter(ByteArrayOutputStream out) {
+        return new EscapingXmlStreamWriter(new Utf8XmlWriter(out));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package io.cucumber.junitxmlformatter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FailurePayloadsTest {
+
+    private static final String STACK_TRACE = "" +
+            "java.lang.AssertionError: expected ]]> but was <caf\u00e9>\n" +
+            "\tat com.example.Fixture.setUp(Fixture.java:42)\n".repeat(20);
+
+    @Test
+    void deduplicatesLargePayloads() {
+        FailurePayloads payloads = new FailurePayloads();
+        String first = payloads.deduplicate(new String(STACK_TRACE));
+        String second = payloads.deduplicate(new String(STACK_TRACE));
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void doesNotDeduplicateSmallPayloads() {
+        FailurePayloads payloads = new FailurePayloads();
+        String message = "expected true but was false";
+        payloads.deduplicate(new String(message));
+        assertThat(payloads.deduplicate(message)).isSameAs(message);
+        assertThat(payloads.deduplicate(null)).isNull();
+    }
+
+    @Test
+    void encodesSharedPayloadsOnce() throws IOException {
+        FailurePayloads payloads = new FailurePayloads();
+        AtomicInteger encodings = new AtomicInteger();
+        FailurePayloads.Encoder encoder = payload -> {
+            encodings.incrementAndGet();
+            return payload.getBytes(UTF_8);
+        };
+
+        String canonical = payloads.deduplicate(new String(STACK_TRACE));
+        assertThat(payloads.getEncoded(canonical, encoder)).isNull();
+
+        payloads.deduplicate(new String(STACK_TRACE));
+        byte[] encoded = payloads.getEncoded(canonical, encoder);
+        assertThat(payloads.getEncoded(canonical, encoder)).isSameAs(encoded);
+        assertThat(encodings.get()).isEqualTo(1);
+
+        // Only the canonical copy is encoded
+        assertThat(payloads.getEncoded(new String(STACK_TRACE), encoder)).isNull();
+    }
+
+    @Test
+    void releasesPayloadsOnceNoLongerReferenced() throws IOException {
+        FailurePayloads payloads = new FailurePayloads();
+        FailurePayloads.Encoder encoder = payload -> payload.getBytes(UTF_8);
+
+        String first = payloads.deduplicate(new String(STACK_TRACE));
+        payloads.deduplicate(new String(STACK_TRACE));
+        assertThat(payloads.getEncoded(first, encoder)).isNotNull();
+
+        payloads.release(first);
+        payloads.release(first);
+        assertThat(payloads.getEncoded(first, encoder)).isNull();
+        assertThat(payloads.deduplicate(new String(STACK_TRACE))).isNotSameAs(first);
+
+        // Releasing a discarded copy does not release its successor
+        String second = payloads.deduplicate(new String(STACK_TRACE));
+        payloads.release(first);
+        assertThat(payloads.getEncoded(second, encoder)).isNotNull();
+    }
+
+    @Test
+    void limitsEncodedPayloadsCached() throws IOException {
+        String other = STACK_TRACE + "\tat com.example.Other.run(Other.java:1)\n";
+        // Room for either payload, but not both
+        FailurePayloads payloads = new FailurePayloads(other.getBytes(UTF_8).length);
+        AtomicInteger encodings = new AtomicInteger();
+        FailurePayloads.Encoder encoder = payload -> {
+            encodings.incrementAndGet();
+            return payload.getBytes(UTF_8);
+        };
+
+        String cached = payloads.deduplicate(new String(STACK_TRACE));
+        payloads.deduplicate(new String(STACK_TRACE));
+        String uncached = payloads.deduplicate(new String(other));
+        payloads.deduplicate(new String(other));
+
+        payloads.getEncoded(cached, encoder);
+        payloads.getEncoded(cached, encoder);
+        assertThat(encodings.get()).isEqualTo(1);
+        payloads.getEncoded(uncached, encoder);
+        payloads.getEncoded(uncached, encoder);
+        assertThat(encodings.get()).isEqualTo(3);
+
+        // Discarding a cached payload makes room for another
+        payloads.release(cached);
+        payloads.release(cached);
+        payloads.getEncoded(uncached, encoder);
+        payloads.getEncoded(uncached, encoder);
+        assertThat(encodings.get()).isEqualTo(4);
+    }
+
+    @Test
+    void writesSharedFailureDetailsSameAsUnshared() throws IOException {
+        FailurePayloads payloads = new FailurePayloads();
+        String canonical = payloads.deduplicate(new String(STACK_TRACE));
+        payloads.deduplicate(new String(STACK_TRACE));
+
+        String expected = writeFailureDetails(new Truncation(Long.MAX_VALUE, 4, Integer.MAX_VALUE, null), canonical);
+        Truncation truncation = new Truncation(Long.MAX_VALUE, 4, Integer.MAX_VALUE, payloads);
+        assertThat(writeFailureDetails(truncation, canonical)).isEqualTo(expected);
+        assertThat(writeFailureDetails(truncation, canonical)).isEqualTo(expected);
+        assertThat(expected).contains("[... 16 frames truncated ...]");
+    }
+
+    private static String writeFailureDetails(Truncation truncation, String failureDetails) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out))) {
+            writer.writeStartElement("failure");
+            truncation.writeFailureDetails(writer, failureDetails);
+            writer.writeEndElement();
+        }
+        return out.toString(UTF_8);
+    }
+}
@@ -0,0 +1,136 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestRunStarted;
+import io.cucumber.messages.types.Timestamp;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestionBufferTest {
+
+    private static Envelope createEnvelope(long seconds) {
+        return Envelope.of(new TestRunStarted(new Timestamp(seconds, 0), "some-id"));
+    }
+
+    @Test
+    void consumesEnvelopesInOrder() throws IOException {
+        List<Envelope> consumed = new CopyOnWriteArrayList<>();
+        IngestionBuffer buffer = new IngestionBuffer(2, Backpressure.BLOCK, IngestionBuffer::newDaemonThread, consumed::add);
+        Envelope first = createEnvelope(1);
+        Envelope second = createEnvelope(2);
+        Envelope third = createEnvelope(3);
+        buffer.put(first);
+        buffer.put(second);
+        buffer.put(third);
+        buffer.close();
+        assertThat(consumed).containsExactly(first, second, third);
+        assertThatThrownBy(() -> buffer.put(first))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Stream closed");
+    }
+
+    @Test
+    void failsWhenFull() throws Exception {
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IngestionBuffer buffer = new IngestionBuffer(1, Backpressure.FAIL, IngestionBuffer::newDaemonThread, envelope -> {
+            consuming.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        buffer.put(createEnvelope(1));
+        consuming.await();
+        buffer.put(createEnvelope(2));
+        assertThatThrownBy(() -> buffer.put(createEnvelope(3)))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Ingestion buffer of 1 messages is full");
+        release.countDown();
+        buffer.close();
+    }
+
+    @Test
+    void rethrowsFailureOfConsumer() throws Exception {
+        IOException failure = new IOException("boom");
+        IngestionBuffer buffer = new IngestionBuffer(1, Backpressure.BLOCK, IngestionBuffer::newDaemonThread, envelope -> {
+            throw failure;
+        });
+        buffer.put(createEnvelope(1));
+        assertThatThrownBy(buffer::close)
+                .isInstanceOf(IOException.class)
+                .hasMessage("Could not collect message")
+                .hasCause(failure);
+    }
+
+    @Test
+    void consumesOrRejectsEnvelopesWrittenWhileClosing() throws Exception {
+        List<Envelope> consumed = new CopyOnWriteArrayList<>();
+        IngestionBuffer buffer = new IngestionBuffer(1, Backpressure.BLOCK, IngestionBuffer::newDaemonThread, consumed::add);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch writing = new CountDownLatch(4);
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread writer = new Thread(() -> {
+                writing.countDown();
+                try {
+                    while (true) {
+                        buffer.put(createEnvelope(1));
+                        accepted.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // Stream closed
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        writing.await();
+        buffer.close();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertThat(consumed).hasSize(accepted.get());
+    }
+
+    @Test
+    void canBeClosedAgainWhenInterrupted() throws Exception {
+        List<Envelope> consumed = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        IngestionBuffer buffer = new IngestionBuffer(1, Backpressure.BLOCK, IngestionBuffer::newDaemonThread, envelope -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            consumed.add(envelope);
+        });
+        buffer.put(createEnvelope(1));
+
+        Thread.currentThread().interrupt();
+        assertThatThrownBy(buffer::close).isInstanceOf(InterruptedIOException.class);
+        assertThat(Thread.interrupted()).isTrue();
+
+        release.countDown();
+        buffer.close();
+        assertThat(consumed).hasSize(1);
+    }
+
+    @Test
+    void rejectsCapacityBelowOne() {
+        assertThatThrownBy(() -> MessagesToJunitXmlWriter.builder().asynchronous(0, Backpressure.BLOCK))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("bufferCapacity must be positive, was 0");
+    }
+}
@@ -0,0 +1,353 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Attachment;
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepStarted;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.xmlunit.builder.Input;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.xmlunit.assertj.XmlAssert.assertThat;
+
+class JunitXmlReportMergerTest {
+
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+
+    static Stream<Arguments> acceptance() throws IOException {
+        List<Arguments> arguments = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(Paths.get("../testdata/src"))) {
+            List<Path> sources = paths
+                    .filter(path -> path.getFileName().toString().endsWith(".ndjson"))
+                    .sorted()
+                    .collect(Collectors.toList());
+            for (Path source : sources) {
+                arguments.add(Arguments.of(source, 1));
+                arguments.add(Arguments.of(source, 3));
+            }
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "{0} in {1} parts")
+    @MethodSource("acceptance")
+    void mergesPartialReportsIntoTheReportOfTheWholeRun(Path source, int parts) throws IOException {
+        List<Envelope> envelopes = readEnvelopes(source);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder().build(expected)) {
+            for (Envelope envelope : envelopes) {
+                writer.write(envelope);
+            }
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder()
+                .build()
+                .merge(toInputStreams(writePartialReports(envelopes, parts)), actual);
+
+        assertThat(Input.fromByteArray(actual.toByteArray()).build())
+                .and(Input.fromByteArray(expected.toByteArray()).build())
+                .ignoreWhitespace()
+                .areIdentical();
+    }
+
+    @Test
+    void mergesTextAttachments() throws IOException {
+        List<Envelope> envelopes = readEnvelopes(Paths.get("../testdata/src/attachments.ndjson"));
+        MessagesToJunitXmlWriter.Builder builder = MessagesToJunitXmlWriter.builder()
+                .textAttachments(TextAttachments.SYSTEM_ERR);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (MessagesToJunitXmlWriter writer = builder.build(expected)) {
+            for (Envelope envelope : envelopes) {
+                writer.write(envelope);
+            }
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder()
+                .build()
+                .merge(toInputStreams(writePartialReports(envelopes, 3, builder.mergeable(true))), actual);
+
+        Assertions.assertThat(actual.toString(UTF_8)).contains("<system-err><![CDATA[hello\n]]></system-err>");
+        assertThat(Input.fromByteArray(actual.toByteArray()).build())
+                .and(Input.fromByteArray(expected.toByteArray()).build())
+                .ignoreWhitespace()
+                .areIdentical();
+    }
+
+    @Test
+    void mergesMergedReports() throws IOException {
+        List<Envelope> envelopes = readEnvelopes(Paths.get("../testdata/src/examples-tables.ndjson"));
+        List<byte[]> partialReports = writePartialReports(envelopes, 4);
+        JunitXmlReportMerger merger = JunitXmlReportMerger.builder().build();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        merger.merge(toInputStreams(partialReports), expected);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder()
+                .mergeable(true)
+                .build()
+                .merge(toInputStreams(partialReports.subList(0, 2)), first);
+        List<byte[]> mergedReports = new ArrayList<>(partialReports.subList(2, 4));
+        mergedReports.add(first.toByteArray());
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        merger.merge(toInputStreams(mergedReports), actual);
+
+        Assertions.assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+    }
+
+    @Test
+    void mergesTestCasesByUriAndLocation() throws IOException {
+        String first = "" +
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testsuite name=\"Cucumber\" time=\"2.0\" tests=\"2\" skipped=\"1\" failures=\"0\" errors=\"0\" timestamp=\"2026-01-01T00:00:00Z\">\n" +
+                "<?cucumber-location uri=\"features/a &amp; b.feature\" line=\"3\" column=\"3\"?>\n" +
+                "<testcase classname=\"A\" name=\"Three\" time=\"1.0\">\n" +
+                "</testcase>\n" +
+                "<?cucumber-location uri=\"features/c.feature\" line=\"3\" column=\"3\"?>\n" +
+                "<testcase classname=\"C\" name=\"Three\" time=\"1.0\">\n" +
+                "<skipped/>\n" +
+                "</testcase>\n" +
+                "</testsuite>\n";
+        String second = "" +
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testsuite name=\"Cucumber\" time=\"3.0\" tests=\"2\" skipped=\"0\" failures=\"1\" errors=\"0\" timestamp=\"2026-01-01T00:00:01Z\">\n" +
+                "<?cucumber-location uri=\"features/a &amp; b.feature\" line=\"7\" column=\"3\"?>\n" +
+                "<testcase classname=\"A\" name=\"Seven\" time=\"2.5\">\n" +
+                "<failure type=\"AssertionError\" message=\"boom\">\n" +
+                "<![CDATA[AssertionError: boom]]>\n" +
+                "</failure>\n" +
+                "</testcase>\n" +
+                "<?cucumber-location uri=\"features/b.feature\"?>\n" +
+                "<testcase classname=\"B\" name=\"Unknown\" time=\"0.5\">\n" +
+                "</testcase>\n" +
+                "</testsuite>\n";
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder()
+                .mergeable(true)
+                .build()
+                .merge(toInputStreams(List.of(first.getBytes(UTF_8), second.getBytes(UTF_8))), actual);
+
+        Assertions.assertThat(actual.toString(UTF_8)).isEqualTo("" +
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                // From the start of the first until the end of the second
+                "<testsuite name=\"Cucumber\" time=\"4.0\" tests=\"4\" skipped=\"1\" failures=\"1\" errors=\"0\" timestamp=\"2026-01-01T00:00:00Z\">\n" +
+                "<?cucumber-location uri=\"features/a &amp; b.feature\" line=\"3\" column=\"3\"?>\n" +
+                "<testcase classname=\"A\" name=\"Three\" time=\"1.0\">\n" +
+                "</testcase>\n" +
+                "<?cucumber-location uri=\"features/a &amp; b.feature\" line=\"7\" column=\"3\"?>\n" +
+                "<testcase classname=\"A\" name=\"Seven\" time=\"2.5\">\n" +
+                "<failure type=\"AssertionError\" message=\"boom\">\n" +
+                "<![CDATA[AssertionError: boom]]>\n" +
+                "</failure>\n" +
+                "</testcase>\n" +
+                "<?cucumber-location uri=\"features/b.feature\"?>\n" +
+                "<testcase classname=\"B\" name=\"Unknown\" time=\"0.5\">\n" +
+                "</testcase>\n" +
+                "<?cucumber-location uri=\"features/c.feature\" line=\"3\" column=\"3\"?>\n" +
+                "<testcase classname=\"C\" name=\"Three\" time=\"1.0\">\n" +
+                "<skipped/>\n" +
+                "</testcase>\n" +
+                "</testsuite>\n");
+    }
+
+    @Test
+    void mergesSystemOutAsWritten() throws IOException {
+        String partialReport = "" +
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testsuite name=\"Cucumber\" time=\"1.0\" tests=\"1\" skipped=\"0\" failures=\"0\" errors=\"0\">\n" +
+                "<?cucumber-location uri=\"features/a.feature\" line=\"3\" column=\"3\"?>\n" +
+                "<testcase classname=\"A\" name=\"Three\" time=\"1.0\">\n" +
+                "<system-out><![CDATA[\n" +
+                "Given a step...........................................................passed\n" +
+                "]]><![CDATA[hello ]]]]><![CDATA[> w\uD83D\uDE00rld\n" +
+                "]]></system-out>\n" +
+                "</testcase>\n" +
+                "</testsuite>\n";
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder()
+                .build()
+                .merge(toInputStreams(List.of(partialReport.getBytes(UTF_8))), actual);
+
+        Assertions.assertThat(actual.toString(UTF_8)).contains("" +
+                "<testcase classname=\"A\" name=\"Three\" time=\"1.0\">\n" +
+                "<system-out><![CDATA[\n" +
+                "Given a step...........................................................passed\n" +
+                "hello ]]]]><![CDATA[> w\uD83D\uDE00rld\n" +
+                "]]></system-out>\n" +
+                "</testcase>\n");
+    }
+
+    @Test
+    void spillsMergedTestCasesToDisk() throws IOException {
+        List<Envelope> envelopes = readEnvelopes(Paths.get("../testdata/src/examples-tables.ndjson"));
+        List<byte[]> partialReports = writePartialReports(envelopes, 2);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder().build().merge(toInputStreams(partialReports), expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder()
+                .spillToDiskThreshold(0)
+                .build()
+                .merge(toInputStreams(partialReports), actual);
+
+        Assertions.assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+    }
+
+    @Test
+    void overridesTestSuiteName() throws IOException {
+        List<Envelope> envelopes = readEnvelopes(Paths.get("../testdata/src/minimal.ndjson"));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JunitXmlReportMerger.builder()
+                .testSuiteName("Merged")
+                .build()
+                .merge(toInputStreams(writePartialReports(envelopes, 2)), actual);
+
+        assertThat(actual.toString(UTF_8))
+                .valueByXPath("/testsuite/@name")
+                .isEqualTo("Merged");
+    }
+
+    @Test
+    void rejectsReportsWithoutLocations() throws IOException {
+        List<Envelope> envelopes = readEnvelopes(Paths.get("../testdata/src/minimal.ndjson"));
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        try (MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder().build(report)) {
+            for (Envelope envelope : envelopes) {
+                writer.write(envelope);
+            }
+        }
+
+        JunitXmlReportMerger merger = JunitXmlReportMerger.builder().build();
+        List<InputStream> partialReports = toInputStreams(Collections.singletonList(report.toByteArray()));
+        assertThatThrownBy(() -> merger.merge(partialReports, new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Partial report 0 has a <testcase> without a location. Was it written with mergeable(true)?");
+    }
+
+    @Test
+    void rejectsReportsNotOrderedByUriAndLocation() {
+        String partialReport = "" +
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testsuite name=\"Cucumber\" time=\"2.0\" tests=\"2\" skipped=\"0\" failures=\"0\" errors=\"0\">\n" +
+                "<?cucumber-location uri=\"features/a.feature\" line=\"7\" column=\"3\"?>\n" +
+                "<testcase classname=\"A\" name=\"Seven\" time=\"1.0\">\n" +
+                "</testcase>\n" +
+                "<?cucumber-location uri=\"features/a.feature\" line=\"3\" column=\"3\"?>\n" +
+                "<testcase classname=\"A\" name=\"Three\" time=\"1.0\">\n" +
+                "</testcase>\n" +
+                "</testsuite>\n";
+
+        JunitXmlReportMerger merger = JunitXmlReportMerger.builder().build();
+        List<InputStream> partialReports = toInputStreams(List.of(partialReport.getBytes(UTF_8)));
+        assertThatThrownBy(() -> merger.merge(partialReports, new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Partial report 0 is not ordered by uri and location, " +
+                        "<testcase classname=\"A\" name=\"Three\"> follows <testcase classname=\"A\" name=\"Seven\">. " +
+                        "Was it written without streaming?");
+    }
+
+    @Test
+    void rejectsNoPartialReports() {
+        JunitXmlReportMerger merger = JunitXmlReportMerger.builder().build();
+        assertThatThrownBy(() -> merger.merge(Collections.emptyList(), new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("No partial reports to merge");
+    }
+
+    private static List<Envelope> readEnvelopes(Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Distributes the test cases over the parts, as if each part was executed
+     * on a different machine. All other messages are written to every part.
+     */
+    private static List<byte[]> writePartialReports(List<Envelope> envelopes, int parts) throws IOException {
+        return writePartialReports(envelopes, parts, MessagesToJunitXmlWriter.builder().mergeable(true));
+    }
+
+    private static List<byte[]> writePartialReports(List<Envelope> envelopes, int parts, MessagesToJunitXmlWriter.Builder builder) throws IOException {
+        List<ByteArrayOutputStream> outs = new ArrayList<>();
+        List<MessagesToJunitXmlWriter> writers = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            outs.add(out);
+            writers.add(builder.build(out));
+        }
+
+        Map<String, Integer> partByTestCaseId = new HashMap<>();
+        Map<String, Integer> partByTestCaseStartedId = new HashMap<>();
+        for (Envelope envelope : envelopes) {
+            envelope.getTestCase().ifPresent(testCase ->
+                    partByTestCaseId.put(testCase.getId(), partByTestCaseId.size() % parts));
+            envelope.getTestCaseStarted().ifPresent(testCaseStarted ->
+                    partByTestCaseStartedId.put(testCaseStarted.getId(), partByTestCaseId.get(testCaseStarted.getTestCaseId())));
+            Optional<Integer> part = findTestCaseStartedId(envelope).map(partByTestCaseStartedId::get);
+            if (part.isPresent()) {
+                writers.get(part.get()).write(envelope);
+            } else {
+                for (MessagesToJunitXmlWriter writer : writers) {
+                    writer.write(envelope);
+                }
+            }
+        }
+
+        List<byte[]> partialReports = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            writers.get(i).close();
+            partialReports.add(outs.get(i).toByteArray());
+        }
+        return partialReports;
+    }
+
+    private static Optional<String> findTestCaseStartedId(Envelope envelope) {
+        return envelope.getTestCaseStarted().map(TestCaseStarted::getId)
+                .or(() -> envelope.getTestStepStarted().map(TestStepStarted::getTestCaseStartedId))
+                .or(() -> envelope.getTestStepFinished().map(TestStepFinished::getTestCaseStartedId))
+                .or(() -> envelope.getTestCaseFinished().map(TestCaseFinished::getTestCaseStartedId))
+                .or(() -> envelope.getAttachment().flatMap(Attachment::getTestCaseStartedId));
+    }
+
+    private static List<InputStream> toInputStreams(List<byte[]> reports) {
+        List<InputStream> inputStreams = new ArrayList<>();
+        for (byte[] report : reports) {
+            inputStreams.add(new ByteArrayInputStream(report));
+        }
+        return inputStreams;
+    }
+}
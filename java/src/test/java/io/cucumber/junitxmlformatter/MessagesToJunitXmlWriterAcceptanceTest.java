@@ -4,12 +4,21 @@ import io.cucumber.compatibilitykit.MessageOrderer;
 import io.cucumber.messages.NdjsonToMessageReader;
 import io.cucumber.messages.ndjson.Deserializer;
 import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Attachment;
 import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestCaseFinished;
+import io.cucumber.messages.types.TestCaseStarted;
+import io.cucumber.messages.types.TestStepFinished;
+import io.cucumber.messages.types.TestStepStarted;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.xmlunit.builder.Input;
+import org.xmlunit.diff.DefaultNodeMatcher;
+import org.xmlunit.diff.ElementSelectors;
 import org.xmlunit.validation.JAXPValidator;
 import org.xmlunit.validation.Languages;
 import org.xmlunit.validation.ValidationProblem;
@@ -24,15 +33,27 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static io.cucumber.query.NamingStrategy.Strategy.LONG;
 import static io.cucumber.query.NamingStrategy.strategy;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.xmlunit.assertj.XmlAssert.assertThat;
 
 class MessagesToJunitXmlWriterAcceptanceTest {
@@ -41,6 +62,8 @@ class MessagesToJunitXmlWriterAcceptanceTest {
     private static final Deserializer<Envelope> deserializer = Json.instance()
             .map(json -> json.deserializer(Envelope.class))
             .orElseThrow();
+    // {"offset":214,"length":385,"classname":"Feature","name":"Scenario","status":"FAILED","time":0.004}
+    private static final Pattern INDEX_RECORD = Pattern.compile("\\{\"offset\":(\\d+),\"length\":(\\d+),\"classname\":\".*\",\"name\":\".*\",\"status\":\"[A-Z_]+\",\"time\":[0-9.]+}");
 
     static List<TestCase> acceptance() throws IOException {
         List<TestCase> testCases = new ArrayList<>();
@@ -89,6 +112,192 @@ class MessagesToJunitXmlWriterAcceptanceTest {
         assertThat(actual).and(expected).ignoreWhitespace().areIdentical();
     }
 
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithStreaming(TestCase testCase) throws IOException {
+        MessagesToJunitXmlWriter.Builder builder = testCase.getBuilder().streaming(true);
+        ByteArrayOutputStream bytes = writeJunitXmlReport(testCase, builder, new ByteArrayOutputStream(), messageOrderer.simulateParallelExecution());
+        Source expected = Input.fromPath(testCase.expected).build();
+        Source actual = Input.fromByteArray(bytes.toByteArray()).build();
+        // Streamed test cases are written in the order in which they finished
+        assertThat(actual).and(expected)
+                .ignoreWhitespace()
+                .withNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byNameAndAllAttributes))
+                .areSimilar();
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithStreamingAndSpillingToDisk(TestCase testCase) throws IOException {
+        MessagesToJunitXmlWriter.Builder builder = testCase.getBuilder().streaming(true).spillToDiskThreshold(0);
+        ByteArrayOutputStream bytes = writeJunitXmlReport(testCase, builder, new ByteArrayOutputStream(), messageOrderer.originalOrder());
+        Source expected = Input.fromPath(testCase.expected).build();
+        Source actual = Input.fromByteArray(bytes.toByteArray()).build();
+        assertThat(actual).and(expected)
+                .ignoreWhitespace()
+                .withNodeMatcher(new DefaultNodeMatcher(ElementSelectors.byNameAndAllAttributes))
+                .areSimilar();
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithConcurrentWrites(TestCase testCase) throws Exception {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 10; i++) {
+                ByteArrayOutputStream actual = writeJunitXmlReportConcurrently(testCase, executor);
+                Assertions.assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithParallelRendering(TestCase testCase) throws IOException {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        MessagesToJunitXmlWriter.Builder builder = testCase.getBuilder().parallelRendering(true);
+        ByteArrayOutputStream actual = writeJunitXmlReport(testCase, builder, new ByteArrayOutputStream(), messageOrderer.originalOrder());
+        Assertions.assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithParallelRenderingOnExecutor(TestCase testCase) throws IOException {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MessagesToJunitXmlWriter.Builder builder = testCase.getBuilder().parallelRendering(executor);
+            ByteArrayOutputStream actual = writeJunitXmlReport(testCase, builder, new ByteArrayOutputStream(), messageOrderer.simulateParallelExecution());
+            Assertions.assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithParallelDecoding(TestCase testCase) throws IOException {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (MessagesToJunitXmlWriter writer = testCase.getBuilder().build(actual)) {
+            writer.write(testCase.source, deserializer::readValue);
+        }
+        Assertions.assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithDecodingAndRenderingExecutors(TestCase testCase) throws IOException {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        AtomicInteger decodingTasks = new AtomicInteger();
+        AtomicInteger renderingTasks = new AtomicInteger();
+        Executor decoding = task -> {
+            decodingTasks.incrementAndGet();
+            task.run();
+        };
+        Executor rendering = task -> {
+            renderingTasks.incrementAndGet();
+            task.run();
+        };
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (MessagesToJunitXmlWriter writer = testCase.getBuilder().parallelDecoding(decoding).build(decoded)) {
+            writer.write(testCase.source, deserializer::readValue);
+        }
+        Assertions.assertThat(decoded.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+        Assertions.assertThat(decodingTasks.get()).isPositive();
+        Assertions.assertThat(renderingTasks.get()).isZero();
+
+        decodingTasks.set(0);
+        ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        try (MessagesToJunitXmlWriter writer = testCase.getBuilder().parallelRendering(rendering).build(rendered)) {
+            writer.write(testCase.source, deserializer::readValue);
+        }
+        Assertions.assertThat(rendered.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+        Assertions.assertThat(decodingTasks.get()).isZero();
+
+        renderingTasks.set(0);
+        ByteArrayOutputStream both = new ByteArrayOutputStream();
+        try (MessagesToJunitXmlWriter writer = testCase.getBuilder().parallelDecoding(decoding).parallelRendering(rendering).build(both)) {
+            writer.write(testCase.source, deserializer::readValue);
+        }
+        Assertions.assertThat(both.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+        Assertions.assertThat(decodingTasks.get()).isPositive();
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithAsynchronousIngestion(TestCase testCase) throws IOException {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        MessagesToJunitXmlWriter.Builder builder = testCase.getBuilder().asynchronous(4, Backpressure.BLOCK);
+        ByteArrayOutputStream actual = writeJunitXmlReport(testCase, builder, new ByteArrayOutputStream(), messageOrderer.simulateParallelExecution());
+        Assertions.assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithResetWriter(TestCase testCase) throws IOException {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        MessagesToJunitXmlWriter writer = testCase.getBuilder().build(first);
+        writer.write(testCase.source, deserializer::readValue);
+        writer.close();
+        writer.reset(second);
+        writer.write(testCase.source, deserializer::readValue);
+        writer.close();
+        Assertions.assertThat(first.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+        Assertions.assertThat(second.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithIndex(TestCase testCase) throws IOException {
+        ByteArrayOutputStream expected = writeJunitXmlReport(testCase, messageOrderer.originalOrder());
+        List<MessagesToJunitXmlWriter.Builder> builders = List.of(
+                testCase.getBuilder(),
+                testCase.getBuilder().streaming(true).spillToDiskThreshold(0),
+                testCase.getBuilder().parallelRendering(true).mergeable(true)
+        );
+        for (MessagesToJunitXmlWriter.Builder builder : builders) {
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            try (MessagesToJunitXmlWriter writer = builder.build(report, index)) {
+                writer.write(testCase.source, deserializer::readValue);
+            }
+            byte[] bytes = report.toByteArray();
+            List<String> records = index.toString(UTF_8).lines().collect(Collectors.toList());
+            Assertions.assertThat(records).hasSize(countTestcases(expected.toString(UTF_8)));
+            for (String record : records) {
+                Matcher matcher = INDEX_RECORD.matcher(record);
+                Assertions.assertThat(matcher.matches()).as(record).isTrue();
+                String testcase = new String(bytes, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), UTF_8);
+                Assertions.assertThat(testcase)
+                        .startsWith("<testcase classname=")
+                        .endsWith("</testcase>")
+                        .doesNotContain("</testcase>\n");
+            }
+        }
+    }
+
+    private static int countTestcases(String report) {
+        return report.split("<testcase ", -1).length - 1;
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void testWithConvert(TestCase testCase, @TempDir Path temp) throws IOException {
+        assumeTrue(testCase.strategyName.equals("default"));
+        Path report = temp.resolve(testCase.name + ".xml");
+        MessagesToJunitXmlWriter.convert(testCase.source, report, deserializer::readValue);
+        Source expected = Input.fromPath(testCase.expected).build();
+        Source actual = Input.fromPath(report).build();
+        assertThat(actual).and(expected).ignoreWhitespace().areIdentical();
+    }
+
     @ParameterizedTest
     @MethodSource("acceptance")
     void validateAgainstJenkins(TestCase testCase) throws IOException {
@@ -98,6 +307,34 @@ class MessagesToJunitXmlWriterAcceptanceTest {
         assertThat(actual).isValidAgainst(jenkinsSchema);
     }
 
+    @ParameterizedTest
+    @MethodSource("acceptance")
+    void validateTextAttachmentsAgainstJenkins(TestCase testCase) throws IOException {
+        Source jenkinsSchema = Input.fromPath(Paths.get("../jenkins-junit.xsd")).build();
+        for (TextAttachments textAttachments : TextAttachments.values()) {
+            MessagesToJunitXmlWriter.Builder builder = testCase.getBuilder().textAttachments(textAttachments);
+            ByteArrayOutputStream bytes = writeJunitXmlReport(testCase, builder, new ByteArrayOutputStream(), messageOrderer.originalOrder());
+            Source actual = Input.fromByteArray(bytes.toByteArray()).build();
+            assertThat(actual).isValidAgainst(jenkinsSchema);
+        }
+    }
+
+    @Test
+    void testWithTextAttachments() throws IOException {
+        TestCase testCase = new TestCase(Paths.get("../testdata/src/attachments.ndjson"), "default", MessagesToJunitXmlWriter.builder());
+        MessagesToJunitXmlWriter.Builder systemOut = testCase.getBuilder().textAttachments(TextAttachments.SYSTEM_OUT);
+        Assertions.assertThat(writeJunitXmlReport(testCase, systemOut, new ByteArrayOutputStream(), messageOrderer.originalOrder()).toString(UTF_8))
+                .contains("passed\n]]><![CDATA[hello\n]]></system-out>\n")
+                .contains("<![CDATA[https://cucumber.io\n]]>")
+                .doesNotContain("<system-err>")
+                .doesNotContain("%PDF");
+        MessagesToJunitXmlWriter.Builder systemErr = testCase.getBuilder().textAttachments(TextAttachments.SYSTEM_ERR);
+        Assertions.assertThat(writeJunitXmlReport(testCase, systemErr, new ByteArrayOutputStream(), messageOrderer.originalOrder()).toString(UTF_8))
+                .contains("<system-err><![CDATA[hello\n]]></system-err>\n")
+                .contains("<system-err><![CDATA[https://cucumber.io\n]]></system-err>\n")
+                .doesNotContain("%PDF");
+    }
+
     @ParameterizedTest
     @MethodSource("acceptance")
     void validateAgainstSurefire(TestCase testCase) throws IOException {
@@ -133,9 +370,13 @@ class MessagesToJunitXmlWriterAcceptanceTest {
     }
 
     private static <T extends OutputStream> T writeJunitXmlReport(TestCase testCase, T out, Consumer<List<Envelope>> orderer) throws IOException {
+        return writeJunitXmlReport(testCase, testCase.getBuilder(), out, orderer);
+    }
+
+    private static <T extends OutputStream> T writeJunitXmlReport(TestCase testCase, MessagesToJunitXmlWriter.Builder builder, T out, Consumer<List<Envelope>> orderer) throws IOException {
         try (var in = Files.newInputStream(testCase.source)) {
             try (var reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
-                try (MessagesToJunitXmlWriter writer = testCase.getBuilder().build(out)) {
+                try (MessagesToJunitXmlWriter writer = builder.build(out)) {
                     List<Envelope> messages = reader.lines().collect(Collectors.toList());
                     orderer.accept(messages);
                     for (Envelope envelope : messages) {
@@ -147,6 +388,61 @@ class MessagesToJunitXmlWriterAcceptanceTest {
         return out;
     }
 
+    /**
+     * Writes the messages of each test case from a different thread, while
+     * preserving the order of messages within a test case.
+     */
+    private static ByteArrayOutputStream writeJunitXmlReportConcurrently(TestCase testCase, ExecutorService executor) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (var in = Files.newInputStream(testCase.source)) {
+            try (var reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
+                try (MessagesToJunitXmlWriter writer = testCase.getBuilder().build(out)) {
+                    List<Envelope> before = new ArrayList<>();
+                    Map<String, List<Envelope>> byTestCaseStartedId = new LinkedHashMap<>();
+                    List<Envelope> after = new ArrayList<>();
+                    reader.lines().forEach(envelope -> {
+                        Optional<String> testCaseStartedId = findTestCaseStartedId(envelope);
+                        if (testCaseStartedId.isPresent()) {
+                            byTestCaseStartedId.computeIfAbsent(testCaseStartedId.get(), id -> new ArrayList<>()).add(envelope);
+                        } else if (byTestCaseStartedId.isEmpty()) {
+                            before.add(envelope);
+                        } else {
+                            after.add(envelope);
+                        }
+                    });
+
+                    for (Envelope envelope : before) {
+                        writer.write(envelope);
+                    }
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (List<Envelope> envelopes : byTestCaseStartedId.values()) {
+                        futures.add(executor.submit(() -> {
+                            for (Envelope envelope : envelopes) {
+                                writer.write(envelope);
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                    for (Envelope envelope : after) {
+                        writer.write(envelope);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private static Optional<String> findTestCaseStartedId(Envelope envelope) {
+        return envelope.getTestCaseStarted().map(TestCaseStarted::getId)
+                .or(() -> envelope.getTestStepStarted().map(TestStepStarted::getTestCaseStartedId))
+                .or(() -> envelope.getTestStepFinished().map(TestStepFinished::getTestCaseStartedId))
+                .or(() -> envelope.getTestCaseFinished().map(TestCaseFinished::getTestCaseStartedId))
+                .or(() -> envelope.getAttachment().flatMap(Attachment::getTestCaseStartedId));
+    }
+
     static class TestCase {
         private final Path source;
         private final Path expected;
@@ -0,0 +1,189 @@
+package io.cucumber.junitxmlformatter;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Writes a run of a few million messages in a JVM with a small heap.
+ * <p>
+ * Excluded from the regular build, run with {@code mvn verify -Psoak}.
+ */
+@Tag("soak")
+class MessagesToJunitXmlWriterSoakTest {
+
+    private static final int TEST_CASES = 40_000;
+    private static final String MAX_HEAP = "-Xmx256m";
+
+    /*
+     * Budgets recorded for the run above. Raising them should be a
+     * deliberate decision.
+     */
+    private static final long PEAK_HEAP_BUDGET_BYTES = 200L * 1024 * 1024;
+    private static final double GC_TIME_BUDGET_RATIO = 0.25;
+
+    // [1.234s][info][gc] GC(1) Pause Young (Allocation Failure) 69M->11M(247M) 3.456ms
+    private static final Pattern gcPause = Pattern.compile(" Pause .* \\d+[KMG]->(\\d+)([KMG])\\(\\d+[KMG]\\) ([\\d.]+)ms");
+
+    @Test
+    void writesLargeRunWithinBudgets(@TempDir Path temp) throws Exception {
+        Path report = temp.resolve("report.xml");
+        Path gcLog = temp.resolve("gc.log");
+        Path output = temp.resolve("output.txt");
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                MAX_HEAP,
+                "-XX:+UseSerialGC",
+                "-Xlog:gc:file=" + gcLog,
+                "-cp", classPath(),
+                SoakRun.class.getName(),
+                report.toString(),
+                String.valueOf(TEST_CASES))
+                .redirectErrorStream(true)
+                .redirectOutput(output.toFile())
+                .start();
+
+        assertThat(process.waitFor(10, TimeUnit.MINUTES)).isTrue();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        assertThat(process.exitValue())
+                .withFailMessage(() -> readString(output))
+                .isZero();
+
+        GcSummary gc = readGcLog(gcLog);
+        assertThat(gc.peakHeapBytes).isLessThanOrEqualTo(PEAK_HEAP_BUDGET_BYTES);
+        assertThat(gc.pauseSeconds).isLessThanOrEqualTo(elapsedSeconds * GC_TIME_BUDGET_RATIO);
+
+        assertThat(readTestCount(report)).isEqualTo(TEST_CASES);
+        assertThat(validate(report, "../jenkins-junit.xsd")).isEmpty();
+        assertThat(validate(report, "../surefire-test-report-3.0.2.xsd")).containsExactly(
+                // We add the timestamp attribute to all reports.
+                "cvc-complex-type.3.2.2: Attribute 'timestamp' is not allowed to appear in element 'testsuite'.");
+    }
+
+    /**
+     * The classes of the formatter and its dependencies, whether the tests
+     * run on the class path or the module path.
+     */
+    private static String classPath() throws URISyntaxException {
+        Set<String> entries = new LinkedHashSet<>();
+        entries.add(codeSource(SoakRun.class));
+        entries.add(codeSource(MessagesToJunitXmlWriter.class));
+        for (String property : Arrays.asList("jdk.module.path", "java.class.path")) {
+            String value = System.getProperty(property);
+            if (value != null && !value.isEmpty()) {
+                entries.addAll(Arrays.asList(value.split(File.pathSeparator)));
+            }
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static String codeSource(Class<?> type) throws URISyntaxException {
+        return Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+
+    private static String readString(Path path) {
+        try {
+            return new String(Files.readAllBytes(path), UTF_8);
+        } catch (IOException e) {
+            return e.toString();
+        }
+    }
+
+    private static GcSummary readGcLog(Path gcLog) throws IOException {
+        GcSummary summary = new GcSummary();
+        for (String line : Files.readAllLines(gcLog, UTF_8)) {
+            Matcher matcher = gcPause.matcher(line);
+            if (matcher.find()) {
+                summary.peakHeapBytes = Math.max(summary.peakHeapBytes, toBytes(matcher.group(1), matcher.group(2)));
+                summary.pauseSeconds += Double.parseDouble(matcher.group(3)) / 1000;
+            }
+        }
+        return summary;
+    }
+
+    private static long toBytes(String value, String unit) {
+        long bytes = Long.parseLong(value);
+        switch (unit) {
+            case "G":
+                return bytes * 1024 * 1024 * 1024;
+            case "M":
+                return bytes * 1024 * 1024;
+            default:
+                return bytes * 1024;
+        }
+    }
+
+    private static int readTestCount(Path report) throws IOException, XMLStreamException {
+        try (InputStream in = Files.newInputStream(report)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            reader.nextTag();
+            return Integer.parseInt(reader.getAttributeValue(null, "tests"));
+        }
+    }
+
+    /**
+     * Validates the report while it is read, so it does not have to fit in
+     * memory.
+     */
+    private static List<String> validate(Path report, String schema) throws SAXException, IOException {
+        Validator validator = SchemaFactory.newInstance(W3C_XML_SCHEMA_NS_URI)
+                .newSchema(new File(schema))
+                .newValidator();
+        List<String> problems = new ArrayList<>();
+        validator.setErrorHandler(new ErrorHandler() {
+            @Override
+            public void warning(SAXParseException exception) {
+                problems.add(exception.getMessage());
+            }
+
+            @Override
+            public void error(SAXParseException exception) {
+                problems.add(exception.getMessage());
+            }
+
+            @Override
+            public void fatalError(SAXParseException exception) throws SAXException {
+                throw exception;
+            }
+        });
+        validator.validate(new StreamSource(report.toFile()));
+        return problems;
+    }
+
+    private static final class GcSummary {
+        // Heap in use after a collection, including old garbage after young ones
+        private long peakHeapBytes;
+        private double pauseSeconds;
+    }
+}
@@ -1,14 +1,21 @@
 package io.cucumber.junitxmlformatter;
 
 import io.cucumber.messages.types.Envelope;
+import io.cucumber.messages.types.TestCase;
+import io.cucumber.messages.types.TestCaseStarted;
 import io.cucumber.messages.types.TestRunFinished;
 import io.cucumber.messages.types.TestRunStarted;
 import io.cucumber.messages.types.Timestamp;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
 
 import static io.cucumber.messages.Convertor.toMessage;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -44,6 +51,16 @@ class MessagesToJunitXmlWriterTest {
         );
     }
 
+    @Test
+    void it_ignores_test_cases_without_pickles() throws IOException {
+        String html = renderAsJunitXml(
+                Envelope.of(new TestCase("test-case-id", "unknown-pickle-id", Collections.emptyList(), "some-id")),
+                Envelope.of(new TestCaseStarted(0L, "test-case-started-id", "test-case-id", null, new Timestamp(0L, 0))),
+                Envelope.of(new TestCaseStarted(0L, "other-test-case-started-id", "unknown-test-case-id", null, new Timestamp(0L, 0))));
+
+        assertThat(html).isEqualTo(renderAsJunitXml());
+    }
+
     @Test
     void it_throws_when_writing_after_close() throws IOException {
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
@@ -78,6 +95,73 @@ class MessagesToJunitXmlWriterTest {
         assertThat(after).isEqualTo(before);
     }
 
+    @Test
+    void it_writes_another_report_once_reset() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder()
+                .streaming(true)
+                .spillToDiskThreshold(0)
+                .build(first);
+        writer.write(Envelope.of(new TestRunStarted(toMessage(Instant.ofEpochSecond(10)), "some-id")));
+        writer.close();
+
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        writer.reset(second);
+        writer.close();
+
+        assertThat(first.toString(UTF_8)).contains("timestamp=\"1970-01-01T00:00:10Z\"");
+        assertThat(second.toString(UTF_8)).isEqualTo(renderAsJunitXml());
+    }
+
+    @Test
+    void it_does_not_write_the_report_when_interrupted_while_closing() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder()
+                .asynchronous(1, Backpressure.BLOCK, runnable -> IngestionBuffer.newDaemonThread(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    runnable.run();
+                }))
+                .build(out);
+        writer.write(Envelope.of(new TestRunStarted(toMessage(Instant.ofEpochSecond(10)), "some-id")));
+
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedIOException.class, writer::close);
+        assertThat(Thread.interrupted()).isTrue();
+        assertThat(out.size()).isEqualTo(0);
+
+        release.countDown();
+        writer.close();
+        assertThat(out.toString(UTF_8)).contains("timestamp=\"1970-01-01T00:00:10Z\"");
+    }
+
+    @Test
+    void it_throws_when_reset_before_close() {
+        MessagesToJunitXmlWriter writer = new MessagesToJunitXmlWriter(new ByteArrayOutputStream());
+        assertThrows(IllegalStateException.class, () -> writer.reset(new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void it_throws_when_reset_after_writing_to_a_directory(@TempDir Path directory) throws IOException {
+        MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder().build(directory);
+        writer.close();
+        assertThrows(IllegalStateException.class, () -> writer.reset(new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void it_throws_when_spilling_to_disk_without_streaming(@TempDir Path directory) {
+        MessagesToJunitXmlWriter.Builder builder = MessagesToJunitXmlWriter.builder().spillToDiskThreshold(0);
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> builder.build(new ByteArrayOutputStream()));
+        assertThat(exception.getMessage()).isEqualTo("spillToDiskThreshold is only supported when streaming to an output stream");
+        assertThrows(IllegalStateException.class, () -> builder.build(new ByteArrayOutputStream(), new ByteArrayOutputStream()));
+        assertThrows(IllegalStateException.class, () -> builder.streaming(true).build(directory));
+        assertThrows(IllegalStateException.class, () -> builder.buildFile(directory.resolve("report.xml")));
+        assertDoesNotThrow(() -> builder.streaming(true).build(new ByteArrayOutputStream()).close());
+    }
 
     private static String renderAsJunitXml(Envelope... messages) throws IOException {
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
@@ -0,0 +1,97 @@
+package io.cucumber.junitxmlformatter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OrderedParallelTasksTest {
+
+    @Test
+    void shouldConsumeResultsInSubmissionOrder() throws IOException {
+        List<Integer> consumed = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (OrderedParallelTasks<Integer> tasks = new OrderedParallelTasks<>(executor, 3, consumed::add)) {
+            for (int i = 0; i < 100; i++) {
+                int task = i;
+                tasks.submit(() -> {
+                    // Later tasks tend to finish first
+                    sleep((100 - task) % 5);
+                    return task;
+                });
+            }
+            tasks.awaitAll();
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(consumed).isEqualTo(range(0, 100));
+    }
+
+    @Test
+    void shouldNotRunMoreThanTheLookaheadAhead() throws IOException {
+        AtomicInteger submitted = new AtomicInteger();
+        List<Integer> aheadWhenConsumed = new ArrayList<>();
+        try (OrderedParallelTasks<Integer> tasks = new OrderedParallelTasks<>(Runnable::run, 2,
+                result -> aheadWhenConsumed.add(submitted.get() - result))) {
+            for (int i = 0; i < 10; i++) {
+                int task = i;
+                tasks.submit(() -> task);
+                submitted.incrementAndGet();
+            }
+            tasks.awaitAll();
+        }
+        assertThat(aheadWhenConsumed).hasSize(10);
+        for (int ahead : aheadWhenConsumed) {
+            assertThat(ahead).isLessThanOrEqualTo(2);
+        }
+    }
+
+    @Test
+    void shouldHandEachBatchWithItsResult() throws IOException {
+        List<Integer> items = range(0, 1000);
+        List<Integer> consumed = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            OrderedParallelTasks.forEachBatch(items, 64, 4, executor,
+                    batch -> batch.stream().map(item -> item * 2).collect(Collectors.toList()),
+                    (batch, doubled) -> {
+                        assertThat(doubled).hasSize(batch.size());
+                        assertThat(batch.size()).isLessThanOrEqualTo(64);
+                        for (int i = 0; i < batch.size(); i++) {
+                            assertThat(doubled.get(i)).isEqualTo(batch.get(i) * 2);
+                        }
+                        consumed.addAll(batch);
+                    });
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(consumed).isEqualTo(items);
+    }
+
+    @Test
+    void shouldRejectALookaheadBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> new OrderedParallelTasks<Integer>(Runnable::run, 0, result -> {
+        }));
+    }
+
+    private static List<Integer> range(int start, int end) {
+        return IntStream.range(start, end).boxed().collect(Collectors.toList());
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
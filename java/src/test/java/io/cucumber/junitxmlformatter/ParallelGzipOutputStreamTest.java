@@ -0,0 +1,104 @@
+package io.cucumber.junitxmlformatter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelGzipOutputStreamTest {
+
+    @Test
+    void shouldCompressBlocksAsConcatenatedMembers() throws IOException {
+        byte[] data = createData(100_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (OutputStream gzip = new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION, 4096, executor)) {
+            Random random = new Random(42);
+            int position = 0;
+            while (position < data.length) {
+                int length = Math.min(data.length - position, 1 + random.nextInt(10_000));
+                gzip.write(data, position, length);
+                position += length;
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // 25 blocks, at least
+        assertThat(countMembers(out.toByteArray())).isGreaterThanOrEqualTo(25);
+        assertThat(gunzip(out.toByteArray())).isEqualTo(data);
+    }
+
+    @Test
+    void shouldDecompressToWrittenBytes() throws IOException {
+        byte[] data = createData(50_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new ParallelGzipOutputStream(out, Deflater.BEST_SPEED, 1000, Runnable::run)) {
+            gzip.write(data);
+        }
+        assertThat(gunzip(out.toByteArray())).isEqualTo(data);
+    }
+
+    @Test
+    void shouldWriteCompressedBlocksWhenFlushed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION, 5, Runnable::run)) {
+            gzip.write("Hello world".getBytes(UTF_8));
+            gzip.flush();
+            // The block being filled is not compressed yet
+            assertThat(gunzip(out.toByteArray())).isEqualTo("Hello worl".getBytes(UTF_8));
+        }
+        assertThat(gunzip(out.toByteArray())).isEqualTo("Hello world".getBytes(UTF_8));
+    }
+
+    @Test
+    void shouldWriteEmptyStreamAsGzip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION, 10, Runnable::run).close();
+        assertThat(gunzip(out.toByteArray())).isEmpty();
+    }
+
+    @Test
+    void shouldNotWriteAfterClose() throws IOException {
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(new ByteArrayOutputStream(), Deflater.DEFAULT_COMPRESSION, 10, Runnable::run);
+        gzip.close();
+        gzip.close();
+        assertThrows(IOException.class, () -> gzip.write(1));
+    }
+
+    private static byte[] createData(int length) {
+        Random random = new Random(1);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static int countMembers(byte[] gzip) {
+        int members = 0;
+        for (int i = 0; i + 3 < gzip.length; i++) {
+            if (gzip[i] == 0x1f && gzip[i + 1] == (byte) 0x8b && gzip[i + 2] == 8 && gzip[i + 3] == 0) {
+                members++;
+            }
+        }
+        return members;
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            return in.readAllBytes();
+        }
+    }
+}
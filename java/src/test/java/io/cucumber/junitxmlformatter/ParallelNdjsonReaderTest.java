@@ -0,0 +1,111 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelNdjsonReaderTest {
+
+    private static final Path source = Paths.get("../testdata/src/attachments.ndjson");
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+    private static ExecutorService executor;
+
+    @TempDir
+    Path temp;
+
+    @BeforeAll
+    static void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 100, 4096, ParallelNdjsonReader.DEFAULT_CHUNK_SIZE})
+    void shouldReadSameAsNdjsonToMessageReader(int chunkSize) throws IOException {
+        assertThat(readInParallel(source, chunkSize)).isEqualTo(read(source));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 100, 4096})
+    void shouldReadCarriageReturnsAndBlankLines(int chunkSize) throws IOException {
+        String ndjson = new String(Files.readAllBytes(source), UTF_8);
+        Path path = temp.resolve("crlf.ndjson");
+        Files.write(path, ndjson.replace("\n", "\r\n\r\n  \n").getBytes(UTF_8));
+        assertThat(readInParallel(path, chunkSize)).isEqualTo(read(source));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 100, 4096})
+    void shouldReadLastLineWithoutNewLine(int chunkSize) throws IOException {
+        String ndjson = new String(Files.readAllBytes(source), UTF_8);
+        Path path = temp.resolve("no-new-line.ndjson");
+        Files.write(path, ndjson.trim().getBytes(UTF_8));
+        assertThat(readInParallel(path, chunkSize)).isEqualTo(read(source));
+    }
+
+    @Test
+    void shouldReadEmptyFile() throws IOException {
+        Path path = Files.createFile(temp.resolve("empty.ndjson"));
+        assertThat(readInParallel(path, 100)).isEmpty();
+    }
+
+    @Test
+    void shouldReportByteOffsetOfMessageThatCouldNotBeRead() throws IOException {
+        String line = Files.readAllLines(source, UTF_8).get(0);
+        Path path = temp.resolve("invalid.ndjson");
+        Files.write(path, (line + "\nnot json\n").getBytes(UTF_8));
+        ParallelNdjsonReader reader = new ParallelNdjsonReader(path, json -> {
+            if (json.equals("not json")) {
+                throw new IOException("Not json");
+            }
+            return deserializer.readValue(json);
+        }, executor, 1);
+        IOException exception = assertThrows(IOException.class, () -> reader.forEach(envelope -> {
+        }));
+        long offset = line.getBytes(UTF_8).length + 1;
+        assertThat(exception).hasMessage("Could not read message at byte offset " + offset + " of " + path);
+        assertThat(exception).hasRootCauseMessage("Not json");
+    }
+
+    private static List<Envelope> readInParallel(Path path, int chunkSize) throws IOException {
+        List<Envelope> envelopes = new ArrayList<>();
+        new ParallelNdjsonReader(path, deserializer::readValue, executor, chunkSize).forEach(envelopes::add);
+        return envelopes;
+    }
+
+    private static List<Envelope> read(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            try (NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
+                return reader.lines().collect(Collectors.toList());
+            }
+        }
+    }
+}
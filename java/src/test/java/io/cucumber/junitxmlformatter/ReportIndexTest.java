@@ -0,0 +1,80 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.types.TestStepResultStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.cucumber.messages.types.TestStepResultStatus.FAILED;
+import static io.cucumber.messages.types.TestStepResultStatus.PASSED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReportIndexTest {
+
+    private static TestCaseRow createTestCaseRow(String name, TestStepResultStatus status, Duration duration) {
+        return new TestCaseRow(
+                "features/a.feature",
+                XmlReportData.NO_LOCATION,
+                "Feature",
+                name,
+                duration,
+                status,
+                null,
+                null,
+                null,
+                Collections.emptyList()
+        );
+    }
+
+    @Test
+    void writesRecordsWithEscapedStrings() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ReportIndex index = new ReportIndex(out, Long.MAX_VALUE)) {
+            index.add(100, 20, createTestCaseRow("A \"quoted\" \\ name\n\u0001", FAILED, Duration.ofMillis(1500)));
+        }
+        assertThat(out.toString(UTF_8)).isEqualTo("" +
+                "{\"offset\":100,\"length\":20,\"classname\":\"Feature\",\"name\":\"A \\\"quoted\\\" \\\\ name\\n\\u0001\",\"status\":\"FAILED\",\"time\":1.5}\n");
+    }
+
+    @Test
+    void writesStreamedRecordsOnceTheirOffsetIsKnown() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ReportIndex index = new ReportIndex(out, 0)) {
+            for (int i = 0; i < 20; i++) {
+                index.addPending(i * 10L, 9, createTestCaseRow("Scenario " + i, PASSED, Duration.ZERO));
+            }
+            index.writePending(1000);
+            index.add(1200, 9, createTestCaseRow("Unfinished", PASSED, Duration.ofSeconds(2)));
+        }
+        List<String> records = Arrays.asList(out.toString(UTF_8).split("\n"));
+        assertThat(records).hasSize(21);
+        assertThat(records.get(0)).isEqualTo("{\"offset\":1000,\"length\":9,\"classname\":\"Feature\",\"name\":\"Scenario 0\",\"status\":\"PASSED\",\"time\":0}");
+        assertThat(records.get(19)).startsWith("{\"offset\":1190,\"length\":9,").contains("\"name\":\"Scenario 19\"");
+        assertThat(records.get(20)).isEqualTo("{\"offset\":1200,\"length\":9,\"classname\":\"Feature\",\"name\":\"Unfinished\",\"status\":\"PASSED\",\"time\":2}");
+    }
+
+    @Test
+    void writesAnIndexOfAnotherReportOnceReset() throws IOException {
+        MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder().build(new ByteArrayOutputStream());
+        writer.close();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        writer.reset(new ByteArrayOutputStream(), index);
+        writer.close();
+        assertThat(index.toString(UTF_8)).isEmpty();
+    }
+
+    @Test
+    void rejectsCompression() {
+        MessagesToJunitXmlWriter.Builder builder = MessagesToJunitXmlWriter.builder().compression(Compression.gzip());
+        assertThatThrownBy(() -> builder.build(new ByteArrayOutputStream(), new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Compression is not supported when writing an index");
+    }
+}
@@ -0,0 +1,240 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.query.NamingStrategy;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xmlunit.builder.Input;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.cucumber.messages.types.TestStepResultStatus.FAILED;
+import static io.cucumber.messages.types.TestStepResultStatus.PASSED;
+import static io.cucumber.query.NamingStrategy.Strategy.LONG;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.xmlunit.assertj.XmlAssert.assertThat;
+
+class ShardedXmlReportWriterTest {
+
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+
+    static Stream<Arguments> shardings() throws Exception {
+        List<Arguments> arguments = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(Paths.get("../testdata/src"))) {
+            List<Path> sources = paths
+                    .filter(path -> path.getFileName().toString().endsWith(".ndjson"))
+                    .sorted()
+                    .collect(Collectors.toList());
+            for (Path source : sources) {
+                for (boolean streaming : new boolean[]{false, true}) {
+                    arguments.add(Arguments.of(source, "by feature", ShardingStrategy.byFeature(), streaming));
+                    arguments.add(Arguments.of(source, "by test case count", ShardingStrategy.byTestCaseCount(2), streaming));
+                    arguments.add(Arguments.of(source, "by size", ShardingStrategy.bySize(1024), streaming));
+                }
+            }
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "{0} {1} streaming={3}")
+    @MethodSource("shardings")
+    void shardsContainTheTestCasesOfTheReport(Path source, String name, ShardingStrategy strategy, boolean streaming, @TempDir Path directory) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(source, MessagesToJunitXmlWriter.builder().build(out));
+        write(source, MessagesToJunitXmlWriter.builder()
+                .streaming(streaming)
+                .shardingStrategy(strategy)
+                .build(directory));
+
+        Element report = parse(new ByteArrayInputStream(out.toByteArray()));
+        List<Path> shards;
+        try (Stream<Path> paths = Files.list(directory)) {
+            shards = paths.sorted().collect(Collectors.toList());
+        }
+
+        List<String> testCases = new ArrayList<>();
+        long tests = 0;
+        long skipped = 0;
+        long failures = 0;
+        Source jenkinsSchema = Input.fromPath(Paths.get("../jenkins-junit.xsd")).build();
+        for (Path shard : shards) {
+            assertThat(Input.fromPath(shard).build()).isValidAgainst(jenkinsSchema);
+            Element testsuite;
+            try (InputStream in = Files.newInputStream(shard)) {
+                testsuite = parse(in);
+            }
+            List<String> shardTestCases = testCaseNames(testsuite);
+            Assertions.assertThat(testsuite.getAttribute("tests"))
+                    .isEqualTo(String.valueOf(shardTestCases.size()));
+            if (strategy.getKind() == ShardingStrategy.Kind.TEST_CASE_COUNT) {
+                Assertions.assertThat(shardTestCases.size()).isLessThanOrEqualTo(2);
+            }
+            testCases.addAll(shardTestCases);
+            tests += Long.parseLong(testsuite.getAttribute("tests"));
+            skipped += Long.parseLong(testsuite.getAttribute("skipped"));
+            failures += Long.parseLong(testsuite.getAttribute("failures"));
+        }
+
+        if (strategy.getKind() == ShardingStrategy.Kind.FEATURE) {
+            Assertions.assertThat(testCases)
+                    .containsExactlyInAnyOrderElementsOf(testCaseNames(report));
+        } else {
+            Assertions.assertThat(testCases)
+                    .containsExactlyElementsOf(testCaseNames(report));
+        }
+        Assertions.assertThat(tests).isEqualTo(Long.parseLong(report.getAttribute("tests")));
+        Assertions.assertThat(skipped).isEqualTo(Long.parseLong(report.getAttribute("skipped")));
+        Assertions.assertThat(failures).isEqualTo(Long.parseLong(report.getAttribute("failures")));
+    }
+
+    @Test
+    void rejectsLimitsBelowOne() {
+        assertThatThrownBy(() -> ShardingStrategy.byTestCaseCount(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxTestCases must be positive, was 0");
+        assertThatThrownBy(() -> ShardingStrategy.bySize(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxBytes must be positive, was 0");
+    }
+
+    @ParameterizedTest
+    @MethodSource("streamedShardings")
+    void releasesStreamedFailurePayloadsOnceRendered(ShardingStrategy strategy, @TempDir Path directory) throws Exception {
+        FailurePayloads payloads = new FailurePayloads();
+        Truncation truncation = new Truncation(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, payloads);
+        XmlReportData data = new XmlReportData("Cucumber", null, NamingStrategy.strategy(LONG).build(), TextAttachments.EXCLUDE);
+        ShardedXmlReportWriter writer = new ShardedXmlReportWriter(
+                data, directory, strategy, Compression.none(), Runnable::run, false, truncation, new WriterStatisticsRecorder());
+
+        String stackTrace = "java.lang.AssertionError: broken fixture\n" +
+                "\tat com.example.Fixture.setUp(Fixture.java:42)\n".repeat(20);
+        String canonical = null;
+        List<TestCaseRow> released = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            canonical = payloads.deduplicate(new String(stackTrace));
+            TestCaseRow testCase = new TestCaseRow("features/a.feature", XmlReportData.createLocationKey(i + 1, null),
+                    "Feature", "Scenario " + i, Duration.ZERO, FAILED, "java.lang.AssertionError", null, canonical,
+                    Collections.emptyList());
+            writer.writeTestcase(testCase, row -> {
+                released.add(row);
+                payloads.release(row.getFailureDetails());
+            });
+        }
+
+        byte[] encoded = stackTrace.getBytes(UTF_8);
+        if (strategy.getKind() == ShardingStrategy.Kind.SIZE) {
+            // Rendered to learn their size
+            Assertions.assertThat(released).hasSize(3);
+            Assertions.assertThat(payloads.getEncoded(canonical, payload -> encoded)).isNull();
+        } else {
+            // Still shared by the test cases that wait for their shard
+            Assertions.assertThat(released).isEmpty();
+            Assertions.assertThat(payloads.getEncoded(canonical, payload -> encoded)).isSameAs(encoded);
+        }
+
+        writer.writeReport();
+
+        Assertions.assertThat(released).hasSize(3);
+        Assertions.assertThat(payloads.getEncoded(canonical, payload -> encoded)).isNull();
+        List<String> stackTraces = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path shard : paths.sorted().collect(Collectors.toList())) {
+                NodeList failures = parse(Files.newInputStream(shard)).getElementsByTagName("failure");
+                for (int i = 0; i < failures.getLength(); i++) {
+                    stackTraces.add(failures.item(i).getTextContent().trim());
+                }
+            }
+        }
+        Assertions.assertThat(stackTraces).containsExactly(stackTrace.trim(), stackTrace.trim(), stackTrace.trim());
+    }
+
+    @Test
+    void deletesPartiallyWrittenShardsOnClose(@TempDir Path directory) throws Exception {
+        XmlReportData data = new XmlReportData("Cucumber", null, NamingStrategy.strategy(LONG).build(), TextAttachments.EXCLUDE);
+        ShardedXmlReportWriter writer = new ShardedXmlReportWriter(
+                data, directory, ShardingStrategy.byTestCaseCount(1), Compression.none(), Runnable::run, false, Truncation.NONE, new WriterStatisticsRecorder());
+
+        List<String> failingStepLines = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                throw new UncheckedIOException(new IOException("No space left on device"));
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+        writer.writeTestcase(createTestCaseRow("Scenario 1", Collections.emptyList()), row -> {
+        });
+        writer.writeTestcase(createTestCaseRow("Scenario 2", failingStepLines), row -> {
+        });
+        Assertions.assertThat(Files.exists(directory.resolve("TEST-0002.xml"))).isTrue();
+
+        writer.close();
+
+        Assertions.assertThat(Files.exists(directory.resolve("TEST-0001.xml"))).isTrue();
+        Assertions.assertThat(Files.exists(directory.resolve("TEST-0002.xml"))).isFalse();
+    }
+
+    private static TestCaseRow createTestCaseRow(String name, List<String> stepLines) {
+        return new TestCaseRow("features/a.feature", XmlReportData.NO_LOCATION, "Feature", name, Duration.ZERO,
+                PASSED, null, null, null, stepLines);
+    }
+
+    static Stream<ShardingStrategy> streamedShardings() {
+        return Stream.of(ShardingStrategy.byFeature(), ShardingStrategy.byTestCaseCount(4), ShardingStrategy.bySize(1024));
+    }
+
+    private static void write(Path source, MessagesToJunitXmlWriter writer) throws Exception {
+        try (InputStream in = Files.newInputStream(source);
+             NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue);
+             MessagesToJunitXmlWriter closing = writer) {
+            for (Envelope envelope : (Iterable<Envelope>) reader.lines()::iterator) {
+                closing.write(envelope);
+            }
+        }
+    }
+
+    private static Element parse(InputStream in) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in).getDocumentElement();
+    }
+
+    private static List<String> testCaseNames(Element testsuite) {
+        List<String> names = new ArrayList<>();
+        NodeList testCases = testsuite.getElementsByTagName("testcase");
+        for (int i = 0; i < testCases.getLength(); i++) {
+            Element testCase = (Element) testCases.item(i);
+            names.add(testCase.getAttribute("classname") + " / " + testCase.getAttribute("name"));
+        }
+        return names;
+    }
+}
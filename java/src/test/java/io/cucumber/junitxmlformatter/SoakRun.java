@@ -0,0 +1,187 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Writes the report of a generated run the size of a nightly build.
+ * <p>
+ * Run in a forked JVM by {@link MessagesToJunitXmlWriterSoakTest}. The
+ * messages are generated one at a time, so only the data retained by the
+ * writer remains on the heap.
+ */
+class SoakRun {
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+
+    static final int TEST_CASES_PER_FEATURE = 50;
+    static final int STEPS_PER_TEST_CASE = 10;
+    static final int STACK_TRACE_LINES = 40;
+    static final int ATTACHMENTS_PER_STEP = 4;
+    static final int LOG_LINES_PER_ATTACHMENT = 10;
+    // One in this many test cases fails
+    static final int FAILURE_INTERVAL = 20;
+    private static final String LOG_LINE = "2025-10-17 00:00:00.000 INFO io.cucumber.soak.StepDefinitions - Step completed\\n";
+
+    private final MessagesToJunitXmlWriter writer;
+
+    private SoakRun(MessagesToJunitXmlWriter writer) {
+        this.writer = writer;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int testCases = Integer.parseInt(args[1]);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(args[0])));
+             MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder()
+                     .streaming(true)
+                     .build(out)) {
+            new SoakRun(writer).write(testCases);
+        }
+    }
+
+    private void write(int testCases) throws IOException {
+        write("{\"testRunStarted\":{\"timestamp\":" + timestamp(0) + ",\"id\":\"run\"}}");
+        long millis = 0;
+        for (int first = 0; first < testCases; first += TEST_CASES_PER_FEATURE) {
+            int last = Math.min(testCases, first + TEST_CASES_PER_FEATURE);
+            String uri = "features/soak/feature-" + first / TEST_CASES_PER_FEATURE + ".feature";
+            write(gherkinDocument(uri, first, last));
+            for (int testCase = first; testCase < last; testCase++) {
+                write(pickle(uri, first, testCase));
+                write(testCase(testCase));
+            }
+            for (int testCase = first; testCase < last; testCase++) {
+                millis = execute(testCase, millis);
+            }
+        }
+        write("{\"testRunFinished\":{\"success\":false,\"timestamp\":" + timestamp(millis) + ",\"testRunStartedId\":\"run\"}}");
+    }
+
+    private void write(String json) throws IOException {
+        writer.write(deserializer.readValue(json));
+    }
+
+    /**
+     * A scenario outline with an example for each test case, as is common in
+     * large suites.
+     */
+    private static String gherkinDocument(String uri, int first, int last) {
+        StringBuilder steps = new StringBuilder();
+        for (int step = 0; step < STEPS_PER_TEST_CASE; step++) {
+            if (step > 0) {
+                steps.append(',');
+            }
+            steps.append("{\"id\":\"step-").append(first).append('-').append(step)
+                    .append("\",\"location\":").append(location(4 + step, 5))
+                    .append(",\"keyword\":\"Given \",\"keywordType\":\"Context\",\"text\":\"step ").append(step)
+                    .append(" of example <example>\"}");
+        }
+        StringBuilder rows = new StringBuilder();
+        for (int testCase = first; testCase < last; testCase++) {
+            if (testCase > first) {
+                rows.append(',');
+            }
+            rows.append("{\"id\":\"row-").append(testCase).append("\",\"location\":").append(location(exampleLine(testCase - first), 7))
+                    .append(",\"cells\":[{\"location\":").append(location(exampleLine(testCase - first), 9))
+                    .append(",\"value\":\"").append(testCase).append("\"}]}");
+        }
+        int examplesLine = 5 + STEPS_PER_TEST_CASE;
+        return "{\"gherkinDocument\":{\"uri\":\"" + uri + "\",\"feature\":{\"location\":" + location(1, 1)
+                + ",\"tags\":[],\"language\":\"en\",\"keyword\":\"Feature\",\"name\":\"Feature " + first / TEST_CASES_PER_FEATURE
+                + "\",\"description\":\"\",\"children\":[{\"scenario\":{\"id\":\"scenario-" + first + "\",\"tags\":[],\"location\":" + location(3, 3)
+                + ",\"keyword\":\"Scenario Outline\",\"name\":\"Scenario <example>\",\"description\":\"\",\"steps\":[" + steps
+                + "],\"examples\":[{\"id\":\"examples-" + first + "\",\"tags\":[],\"location\":" + location(examplesLine, 5)
+                + ",\"keyword\":\"Examples\",\"name\":\"\",\"description\":\"\",\"tableHeader\":{\"id\":\"header-" + first + "\",\"location\":"
+                + location(examplesLine + 1, 7) + ",\"cells\":[{\"location\":" + location(examplesLine + 1, 9)
+                + ",\"value\":\"example\"}]},\"tableBody\":[" + rows + "]}]}}]},\"comments\":[]}}";
+    }
+
+    private static String pickle(String uri, int first, int testCase) {
+        StringBuilder steps = new StringBuilder();
+        for (int step = 0; step < STEPS_PER_TEST_CASE; step++) {
+            if (step > 0) {
+                steps.append(',');
+            }
+            steps.append("{\"id\":\"pickle-step-").append(testCase).append('-').append(step)
+                    .append("\",\"text\":\"step ").append(step).append(" of example ").append(testCase)
+                    .append("\",\"type\":\"Context\",\"astNodeIds\":[\"step-").append(first).append('-').append(step)
+                    .append("\",\"row-").append(testCase).append("\"]}");
+        }
+        return "{\"pickle\":{\"id\":\"pickle-" + testCase + "\",\"uri\":\"" + uri + "\",\"location\":" + location(exampleLine(testCase - first), 7)
+                + ",\"name\":\"Scenario " + testCase + "\",\"language\":\"en\",\"steps\":[" + steps
+                + "],\"tags\":[],\"astNodeIds\":[\"scenario-" + first + "\",\"row-" + testCase + "\"]}}";
+    }
+
+    private static String testCase(int testCase) {
+        StringBuilder testSteps = new StringBuilder();
+        for (int step = 0; step < STEPS_PER_TEST_CASE; step++) {
+            if (step > 0) {
+                testSteps.append(',');
+            }
+            testSteps.append("{\"id\":\"test-step-").append(testCase).append('-').append(step)
+                    .append("\",\"pickleStepId\":\"pickle-step-").append(testCase).append('-').append(step)
+                    .append("\",\"stepDefinitionIds\":[\"step-definition-").append(step)
+                    .append("\"],\"stepMatchArgumentsLists\":[{\"stepMatchArguments\":[]}]}");
+        }
+        return "{\"testCase\":{\"id\":\"test-case-" + testCase + "\",\"pickleId\":\"pickle-" + testCase
+                + "\",\"testSteps\":[" + testSteps + "],\"testRunStartedId\":\"run\"}}";
+    }
+
+    private long execute(int testCase, long millis) throws IOException {
+        String testCaseStartedId = "test-case-started-" + testCase;
+        write("{\"testCaseStarted\":{\"attempt\":0,\"id\":\"" + testCaseStartedId + "\",\"testCaseId\":\"test-case-" + testCase
+                + "\",\"timestamp\":" + timestamp(millis) + "}}");
+        int failedStep = testCase % FAILURE_INTERVAL == 0 ? testCase % STEPS_PER_TEST_CASE : -1;
+        for (int step = 0; step < STEPS_PER_TEST_CASE; step++) {
+            String testStepId = "test-step-" + testCase + "-" + step;
+            write("{\"testStepStarted\":{\"testCaseStartedId\":\"" + testCaseStartedId + "\",\"testStepId\":\"" + testStepId
+                    + "\",\"timestamp\":" + timestamp(millis) + "}}");
+            for (int attachment = 0; attachment < ATTACHMENTS_PER_STEP; attachment++) {
+                write("{\"attachment\":{\"body\":\"" + LOG_LINE.repeat(LOG_LINES_PER_ATTACHMENT)
+                        + "\",\"contentEncoding\":\"IDENTITY\",\"mediaType\":\"text/plain\",\"testCaseStartedId\":\"" + testCaseStartedId
+                        + "\",\"testStepId\":\"" + testStepId + "\"}}");
+            }
+            millis += 1 + (testCase + step) % 50;
+            String status = step == failedStep ? "FAILED" : failedStep >= 0 && step > failedStep ? "SKIPPED" : "PASSED";
+            String result = "{\"duration\":{\"seconds\":0,\"nanos\":" + (1 + (testCase + step) % 50) * 1_000_000 + "},\"status\":\"" + status + "\"";
+            if (step == failedStep) {
+                String stackTrace = stackTrace(testCase);
+                result += ",\"message\":\"" + stackTrace + "\",\"exception\":{\"type\":\"java.lang.AssertionError\",\"message\":\"expected <"
+                        + testCase + "> but was <0>\",\"stackTrace\":\"" + stackTrace + "\"}";
+            }
+            write("{\"testStepFinished\":{\"testCaseStartedId\":\"" + testCaseStartedId + "\",\"testStepId\":\"" + testStepId
+                    + "\",\"testStepResult\":" + result + "},\"timestamp\":" + timestamp(millis) + "}}");
+        }
+        write("{\"testCaseFinished\":{\"testCaseStartedId\":\"" + testCaseStartedId + "\",\"timestamp\":" + timestamp(millis)
+                + ",\"willBeRetried\":false}}");
+        return millis;
+    }
+
+    private static String stackTrace(int testCase) {
+        StringBuilder stackTrace = new StringBuilder("java.lang.AssertionError: expected <").append(testCase).append("> but was <0>\\n");
+        for (int line = 0; line < STACK_TRACE_LINES; line++) {
+            stackTrace.append("\\tat io.cucumber.soak.StepDefinitions.step(StepDefinitions.java:").append(line).append(")\\n");
+        }
+        return stackTrace.toString();
+    }
+
+    private static int exampleLine(int index) {
+        return 7 + STEPS_PER_TEST_CASE + index;
+    }
+
+    private static String location(int line, int column) {
+        return "{\"line\":" + line + ",\"column\":" + column + "}";
+    }
+
+    private static String timestamp(long millis) {
+        return "{\"seconds\":" + millis / 1000 + ",\"nanos\":" + millis % 1000 * 1_000_000 + "}";
+    }
+}
@@ -0,0 +1,60 @@
+package io.cucumber.junitxmlformatter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SpillingOutputStreamTest {
+
+    @Test
+    void shouldBufferInMemoryUpToThreshold() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SpillingOutputStream buffer = new SpillingOutputStream(11)) {
+            buffer.write("Hello world".getBytes(UTF_8));
+            assertThat(buffer.isSpilled()).isFalse();
+            buffer.transferTo(out);
+        }
+        assertThat(out.toString(UTF_8)).isEqualTo("Hello world");
+    }
+
+    @Test
+    void shouldSpillToDiskBeyondThreshold() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SpillingOutputStream buffer = new SpillingOutputStream(6)) {
+            buffer.write("Hello ".getBytes(UTF_8));
+            assertThat(buffer.isSpilled()).isFalse();
+            buffer.write('w');
+            buffer.write("orld".getBytes(UTF_8));
+            assertThat(buffer.isSpilled()).isTrue();
+            buffer.transferTo(out);
+        }
+        assertThat(out.toString(UTF_8)).isEqualTo("Hello world");
+    }
+
+    @Test
+    void shouldTransferSpilledBytesToFile(@TempDir Path temp) throws IOException {
+        Path report = temp.resolve("report.xml");
+        try (SpillingOutputStream buffer = new SpillingOutputStream(0);
+             OutputStream out = new FileOutputStream(report.toFile())) {
+            buffer.write("Hello world".getBytes(UTF_8));
+            out.write("<".getBytes(UTF_8));
+            assertThat(buffer.transferTo(out)).isEqualTo(11L);
+            out.write(">".getBytes(UTF_8));
+        }
+        assertThat(report).hasContent("<Hello world>");
+    }
+
+    @Test
+    void shouldRejectNegativeThreshold() {
+        assertThrows(IllegalArgumentException.class, () -> new SpillingOutputStream(-1));
+    }
+}
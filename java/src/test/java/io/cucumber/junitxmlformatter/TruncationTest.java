@@ -0,0 +1,175 @@
+package io.cucumber.junitxmlformatter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.cucumber.messages.types.TestStepResultStatus.FAILED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TruncationTest {
+
+    private static final String STACK_TRACE = "" +
+            "java.lang.AssertionError: boom\n" +
+            "\tat Frame0\n" +
+            "\tat Frame1\n" +
+            "\tat Frame2\n" +
+            "\tat Frame3\n" +
+            "\tat Frame4\n" +
+            "Caused by: java.lang.IllegalStateException\n" +
+            "\tat Cause0\n";
+
+    @Test
+    void writesFailureDetailsWithinLimits() throws IOException {
+        assertThat(writeFailureDetails(Truncation.NONE, STACK_TRACE))
+                .isEqualTo("<![CDATA[" + STACK_TRACE + "]]>");
+        assertThat(writeFailureDetails(new Truncation(1000, 6, 1, null), STACK_TRACE))
+                .isEqualTo("<![CDATA[" + STACK_TRACE + "]]>");
+    }
+
+    @Test
+    void retainsHeadAndTailFrames() throws IOException {
+        Truncation truncation = new Truncation(Long.MAX_VALUE, 4, Integer.MAX_VALUE, null);
+        assertThat(writeFailureDetails(truncation, STACK_TRACE)).isEqualTo("" +
+                "<![CDATA[java.lang.AssertionError: boom\n" +
+                "\tat Frame0\n" +
+                "\tat Frame1\n" +
+                "\t[... 2 frames truncated ...]\n" +
+                "\tat Frame4\n" +
+                "Caused by: java.lang.IllegalStateException\n" +
+                "\tat Cause0\n" +
+                "]]>");
+    }
+
+    @Test
+    void retainsHeadFrameOnly() throws IOException {
+        Truncation truncation = new Truncation(Long.MAX_VALUE, 1, Integer.MAX_VALUE, null);
+        assertThat(writeFailureDetails(truncation, STACK_TRACE)).isEqualTo("" +
+                "<![CDATA[java.lang.AssertionError: boom\n" +
+                "\tat Frame0\n" +
+                "\t[... 5 frames truncated ...]\n" +
+                "]]>");
+    }
+
+    @Test
+    void retainsLinesAfterLastFrameWithHeadFrameOnly() throws IOException {
+        Truncation truncation = new Truncation(Long.MAX_VALUE, 1, Integer.MAX_VALUE, null);
+        assertThat(writeFailureDetails(truncation, STACK_TRACE + "\t... 3 more\n")).isEqualTo("" +
+                "<![CDATA[java.lang.AssertionError: boom\n" +
+                "\tat Frame0\n" +
+                "\t[... 5 frames truncated ...]\n" +
+                "\t... 3 more\n" +
+                "]]>");
+    }
+
+    @Test
+    void retainsHeadAndTailBytes() throws IOException {
+        Truncation truncation = new Truncation(10, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+        assertThat(writeFailureDetails(truncation, "a".repeat(100))).isEqualTo("" +
+                "<![CDATA[aaaaa\n" +
+                "[... 90 bytes truncated ...]\n" +
+                "aaaaa]]>");
+    }
+
+    @Test
+    void doesNotSplitSurrogatePairs() throws IOException {
+        Truncation truncation = new Truncation(10, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+        assertThat(writeFailureDetails(truncation, "\uD83D\uDE00".repeat(10))).isEqualTo("" +
+                "<![CDATA[\uD83D\uDE00\n" +
+                "[... 32 bytes truncated ...]\n" +
+                "\uD83D\uDE00]]>");
+    }
+
+    @Test
+    void retainsHeadAndTailStepLines() throws IOException {
+        Truncation truncation = new Truncation(Long.MAX_VALUE, Integer.MAX_VALUE, 3, null);
+        assertThat(writeStepLines(truncation, createStepLines(10))).isEqualTo("" +
+                "<![CDATA[\n" +
+                "Given step 0....passed\n" +
+                "Given step 1....passed\n" +
+                "[... 7 steps truncated ...]\n" +
+                "Given step 9....passed\n" +
+                "]]>");
+    }
+
+    @Test
+    void retainsHeadAndTailBytesAcrossStepLines() throws IOException {
+        Truncation truncation = new Truncation(40, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+        assertThat(writeStepLines(truncation, createStepLines(10))).isEqualTo("" +
+                "<![CDATA[\n" +
+                "Given step 0....pas\n" +
+                "[... 191 bytes truncated ...]\n" +
+                "en step 9....passed\n" +
+                "]]>");
+    }
+
+    @Test
+    void truncatesTestcasesWrittenByTheWriter() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out))) {
+            XmlReportWriter.writeTestcase(writer, createTestCaseRow(), false, new Truncation(Long.MAX_VALUE, 1, 1, null));
+        }
+        assertThat(out.toString(UTF_8))
+                .contains("\t[... 5 frames truncated ...]\n")
+                .contains("[... 9 steps truncated ...]\n");
+    }
+
+    @Test
+    void rejectsLimitsBelowOne() {
+        MessagesToJunitXmlWriter.Builder builder = MessagesToJunitXmlWriter.builder();
+        assertThatThrownBy(() -> builder.maxCDataBytes(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxCDataBytes must be positive, was 0");
+        assertThatThrownBy(() -> builder.maxStackTraceFrames(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxStackTraceFrames must be positive, was 0");
+        assertThatThrownBy(() -> builder.maxStepLines(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxStepLines must be positive, was 0");
+    }
+
+    private static TestCaseRow createTestCaseRow() {
+        return new TestCaseRow(
+                "features/a.feature",
+                XmlReportData.NO_LOCATION,
+                "Feature",
+                "Scenario",
+                Duration.ZERO,
+                FAILED,
+                "java.lang.AssertionError",
+                "boom",
+                STACK_TRACE,
+                createStepLines(10)
+        );
+    }
+
+    private static List<String> createStepLines(int count) {
+        List<String> stepLines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            stepLines.add("Given step " + i + "....passed\n");
+        }
+        return stepLines;
+    }
+
+    private static String writeFailureDetails(Truncation truncation, String failureDetails) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out))) {
+            truncation.writeFailureDetails(writer, failureDetails);
+        }
+        return out.toString(UTF_8);
+    }
+
+    private static String writeStepLines(Truncation truncation, List<String> stepLines) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EscapingXmlStreamWriter writer = new EscapingXmlStreamWriter(new Utf8XmlWriter(out))) {
+            truncation.writeStepLines(writer, stepLines);
+        }
+        return out.toString(UTF_8);
+    }
+}
@@ -0,0 +1,123 @@
+package io.cucumber.junitxmlformatter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.time.Duration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Utf8XmlWriterTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "Hello world",
+            "<\"Hello\" & 'world'>",
+            "tab\tcarriage return\rnew line\n",
+            "caf\u00e9 \u20ac \uFFFD",
+            "grinning \uD83D\uDE00 face",
+            "unpaired \uD83D surrogate \uDE00",
+            ""
+    })
+    void shouldWriteSameAsXmlStreamWriter(String value) throws XMLStreamException, IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        XMLStreamWriter xmlStreamWriter = XMLOutputFactory.newInstance()
+                .createXMLStreamWriter(new OutputStreamWriter(expected, UTF_8));
+        xmlStreamWriter.writeStartDocument("UTF-8", "1.0");
+        xmlStreamWriter.writeStartElement("testsuite");
+        xmlStreamWriter.writeAttribute("name", value);
+        xmlStreamWriter.writeCharacters("\n");
+        xmlStreamWriter.writeEmptyElement("skipped");
+        xmlStreamWriter.writeAttribute("message", value);
+        xmlStreamWriter.writeStartElement("system-out");
+        xmlStreamWriter.writeCharacters(value);
+        xmlStreamWriter.writeEndElement();
+        xmlStreamWriter.writeStartElement("failure");
+        xmlStreamWriter.writeCData(value.replace("\uD83D surrogate \uDE00", ""));
+        xmlStreamWriter.writeEndDocument();
+        xmlStreamWriter.close();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (Utf8XmlWriter writer = new Utf8XmlWriter(actual)) {
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("testsuite");
+            writer.writeAttribute("name", value);
+            writer.writeCharacters("\n");
+            writer.writeEmptyElement("skipped");
+            writer.writeAttribute("message", value);
+            writer.writeStartElement("system-out");
+            writer.writeCharacters(value);
+            writer.writeEndElement();
+            writer.writeStartElement("failure");
+            writer.writeCData(value.replace("\uD83D surrogate \uDE00", ""));
+            writer.writeEndDocument();
+        }
+
+        assertThat(actual.toByteArray()).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void shouldWriteValuesLargerThanBuffer() throws IOException {
+        String value = "\u00e9\uD83D\uDE00&".repeat(10_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Utf8XmlWriter writer = new Utf8XmlWriter(out)) {
+            writer.writeStartElement("failure");
+            writer.writeAttribute("message", value);
+            writer.writeCData(value);
+            writer.writeEndElement();
+        }
+        assertThat(new String(out.toByteArray(), UTF_8)).isEqualTo("" +
+                "<failure message=\"" + "\u00e9&#x1f600;&amp;".repeat(10_000) + "\">" +
+                "<![CDATA[" + value + "]]>" +
+                "</failure>");
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {0, 1, 10, 100, 999, 1000, 1001, 1010, 1100, 123_456, 9_999_999_999L, 10_000_000_000L, 123_456_789_012L, -1500})
+    void shouldWriteSecondsSameAsDouble(long millis) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Utf8XmlWriter writer = new Utf8XmlWriter(out)) {
+            writer.writeEmptyElement("testcase");
+            writer.writeSecondsAttribute("time", Duration.ofMillis(millis));
+        }
+        assertThat(new String(out.toByteArray(), UTF_8))
+                .isEqualTo("<testcase time=\"" + millis / 1000.0 + "\"/>");
+    }
+
+    @Test
+    void shouldWriteProcessingInstructionThatCanNotBeEndedEarly() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Utf8XmlWriter writer = new Utf8XmlWriter(out)) {
+            writer.writeStartElement("testsuite");
+            writer.writeStartProcessingInstruction("cucumber-location");
+            writer.writePseudoAttribute("uri", "features/\"why?>\" & caf\u00e9.feature");
+            writer.writePseudoAttribute("line", "3");
+            writer.writeEndProcessingInstruction();
+            writer.writeEndDocument();
+        }
+        assertThat(new String(out.toByteArray(), UTF_8)).isEqualTo("" +
+                "<testsuite>" +
+                "<?cucumber-location uri=\"features/&quot;why?&gt;&quot; &amp; caf\u00e9.feature\" line=\"3\"?>" +
+                "</testsuite>");
+    }
+
+    @Test
+    void shouldNotWriteAttributeOutsideOfStartTag() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Utf8XmlWriter writer = new Utf8XmlWriter(out)) {
+            writer.writeStartElement("testsuite");
+            writer.writeCharacters("\n");
+            assertThrows(IllegalStateException.class, () -> writer.writeAttribute("name", "value"));
+        }
+    }
+
+}
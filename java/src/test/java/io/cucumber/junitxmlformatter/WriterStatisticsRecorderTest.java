@@ -0,0 +1,213 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WriterStatisticsRecorderTest {
+
+    private static final Path source = Paths.get("../testdata/src/attachments.ndjson");
+    private static final Pattern envelopeType = Pattern.compile("^\\{\"(\\w+)\"");
+    private static final Pattern cdata = Pattern.compile("<!\\[CDATA\\[(.*?)]]>", Pattern.DOTALL);
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+
+    @Test
+    void reportsStatisticsOnClose() throws IOException {
+        List<WriterStatistics> statistics = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(MessagesToJunitXmlWriter.builder()
+                .statisticsListener(statistics::add)
+                .build(out));
+
+        assertThat(statistics).hasSize(1);
+        WriterStatistics actual = statistics.get(0);
+        assertThat(actual.getEnvelopeCounts()).isEqualTo(countEnvelopes());
+        assertThat(actual.getRetainedTestCaseCount()).isEqualTo(countTestcases(out.toString(UTF_8)));
+        assertThat(actual.getBytesWritten()).isEqualTo(out.size());
+        assertThat(actual.getLargestCDataLength()).isPositive();
+        assertThat(actual.getIngestTime()).isPositive();
+        assertThat(actual.getSortTime()).isPositive();
+        assertThat(actual.getRenderTime()).isPositive();
+        assertThat(actual.toString()).startsWith("WriterStatistics{envelopeCounts=");
+    }
+
+    @Test
+    void reportsStatisticsWhenClosedAfterAnIngestionFailure() {
+        List<WriterStatistics> statistics = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessagesToJunitXmlWriter writer = MessagesToJunitXmlWriter.builder()
+                // Fails while waiting for the first message
+                .asynchronous(1, Backpressure.BLOCK, runnable -> IngestionBuffer.newDaemonThread(() -> {
+                    Thread.currentThread().interrupt();
+                    runnable.run();
+                }))
+                .statisticsListener(statistics::add)
+                .build(out);
+
+        assertThatThrownBy(writer::close)
+                .isInstanceOf(IOException.class)
+                .hasMessage("Could not collect message");
+        assertThat(statistics).singleElement()
+                .extracting(WriterStatistics::getBytesWritten)
+                .isEqualTo((long) out.size());
+    }
+
+    @Test
+    void recordsTheBytesWrittenForTheLargestCData() throws IOException {
+        List<WriterStatistics> statistics = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(MessagesToJunitXmlWriter.builder()
+                .maxCDataBytes(64)
+                .statisticsListener(statistics::add)
+                .build(out));
+
+        assertThat(statistics).singleElement()
+                .extracting(WriterStatistics::getLargestCDataLength)
+                .isEqualTo(findLargestCDataBytes(out.toString(UTF_8)));
+    }
+
+    @Test
+    void retainsNoFinishedTestCasesWhenStreaming() throws IOException {
+        List<WriterStatistics> statistics = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(MessagesToJunitXmlWriter.builder()
+                .streaming(true)
+                .statisticsListener(statistics::add)
+                .build(out));
+
+        assertThat(statistics).singleElement()
+                .extracting(WriterStatistics::getRetainedTestCaseCount)
+                .isEqualTo(0L);
+        assertThat(statistics.get(0).getLargestCDataLength()).isPositive();
+        assertThat(statistics.get(0).getBytesWritten()).isEqualTo(out.size());
+    }
+
+    @Test
+    void countsBytesOfSpilledTestCasesWrittenToFile(@TempDir Path directory) throws IOException {
+        List<WriterStatistics> statistics = new ArrayList<>();
+        Path report = directory.resolve("report.xml");
+        write(MessagesToJunitXmlWriter.builder()
+                .streaming(true)
+                .spillToDiskThreshold(0)
+                .statisticsListener(statistics::add)
+                .build(new FileOutputStream(report.toFile())));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        write(MessagesToJunitXmlWriter.builder()
+                .streaming(true)
+                .build(expected));
+
+        assertThat(report).hasContent(expected.toString(UTF_8));
+        assertThat(statistics).singleElement()
+                .extracting(WriterStatistics::getBytesWritten)
+                .isEqualTo(Files.size(report));
+    }
+
+    @Test
+    void countsCompressedBytesOfAllShards(@TempDir Path directory) throws IOException {
+        List<WriterStatistics> statistics = new ArrayList<>();
+        write(MessagesToJunitXmlWriter.builder()
+                .shardingStrategy(ShardingStrategy.byTestCaseCount(2))
+                .compression(Compression.gzip())
+                .statisticsListener(statistics::add)
+                .build(directory));
+
+        long size = 0;
+        try (Stream<Path> shards = Files.list(directory)) {
+            for (Path shard : shards.collect(Collectors.toList())) {
+                size += Files.size(shard);
+            }
+        }
+        assertThat(statistics).singleElement()
+                .extracting(WriterStatistics::getBytesWritten)
+                .isEqualTo(size);
+    }
+
+    @Test
+    void recordsFlightRecorderEvents(@TempDir Path directory) throws IOException {
+        Path recordingFile = directory.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.cucumber.junitxmlformatter.Collect").withThreshold(Duration.ZERO);
+            recording.enable("io.cucumber.junitxmlformatter.Sort");
+            recording.enable("io.cucumber.junitxmlformatter.WriteReport");
+            recording.start();
+            write(MessagesToJunitXmlWriter.builder().build(new ByteArrayOutputStream()));
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        Map<String, Long> events = RecordingFile.readAllEvents(recordingFile).stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName(), TreeMap::new, Collectors.counting()));
+        long envelopes = countEnvelopes().values().stream().mapToLong(Long::longValue).sum();
+        assertThat(events)
+                .containsEntry("io.cucumber.junitxmlformatter.Collect", envelopes)
+                .containsEntry("io.cucumber.junitxmlformatter.Sort", 1L)
+                .containsEntry("io.cucumber.junitxmlformatter.WriteReport", 1L);
+        RecordedEvent writeReport = RecordingFile.readAllEvents(recordingFile).stream()
+                .filter(event -> event.getEventType().getName().equals("io.cucumber.junitxmlformatter.WriteReport"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(writeReport.getLong("bytesWritten")).isPositive();
+    }
+
+    private static void write(MessagesToJunitXmlWriter writer) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            try (NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
+                try (MessagesToJunitXmlWriter w = writer) {
+                    for (Envelope envelope : reader.lines().collect(Collectors.toList())) {
+                        w.write(envelope);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, Long> countEnvelopes() throws IOException {
+        return Files.readAllLines(source, UTF_8).stream()
+                .map(envelopeType::matcher)
+                .filter(Matcher::find)
+                .map(matcher -> matcher.group(1))
+                .collect(Collectors.groupingBy(Function.identity(), TreeMap::new, Collectors.counting()));
+    }
+
+    private static long countTestcases(String report) {
+        return Pattern.compile("<testcase ").matcher(report).results().count();
+    }
+
+    private static long findLargestCDataBytes(String report) {
+        return cdata.matcher(report).results()
+                .mapToLong(section -> section.group(1).getBytes(UTF_8).length)
+                .max()
+                .orElse(0);
+    }
+}
@@ -0,0 +1,122 @@
+package io.cucumber.junitxmlformatter;
+
+import io.cucumber.messages.NdjsonToMessageReader;
+import io.cucumber.messages.ndjson.Deserializer;
+import io.cucumber.messages.ndjson.Json;
+import io.cucumber.messages.types.Envelope;
+import io.cucumber.query.NamingStrategy;
+import io.cucumber.query.Repository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.cucumber.query.NamingStrategy.Strategy.LONG;
+import static io.cucumber.query.Repository.RepositoryFeature.INCLUDE_GHERKIN_DOCUMENTS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the heap retained for the gherkin documents of the test data with
+ * the heap retained by a repository that includes them.
+ * <p>
+ * Excluded from the regular build, run with {@code mvn verify -Psoak}.
+ */
+@Tag("soak")
+class XmlReportDataSoakTest {
+
+    private static final Deserializer<Envelope> deserializer = Json.instance()
+            .map(json -> json.deserializer(Envelope.class))
+            .orElseThrow();
+
+    // Enough copies of the test data to dwarf the noise of the measurement
+    private static final int COPIES = 200;
+
+    @Test
+    void retainsLessThanTheGherkinDocuments() throws Exception {
+        long documents = retainedHeap(XmlReportDataSoakTest::createRepository);
+        long outlines = retainedHeap(XmlReportDataSoakTest::createReportData);
+
+        // Includes the fixed size of each copy of the report data
+        assertThat(outlines).isLessThan(documents * 3 / 4);
+    }
+
+    private static Repository createRepository(List<Envelope> envelopes) {
+        Repository repository = Repository.builder()
+                .feature(INCLUDE_GHERKIN_DOCUMENTS, true)
+                .build();
+        envelopes.forEach(repository::update);
+        return repository;
+    }
+
+    private static XmlReportData createReportData(List<Envelope> envelopes) throws IOException {
+        XmlReportData data = new XmlReportData(
+                "Cucumber",
+                null,
+                NamingStrategy.strategy(LONG).build(),
+                TextAttachments.EXCLUDE
+        );
+        for (Envelope envelope : envelopes) {
+            data.collect(envelope);
+        }
+        return data;
+    }
+
+    /**
+     * The heap retained by copies of whatever collects the gherkin documents.
+     * Each copy is given freshly read documents, so the copies share nothing
+     * with each other or with the documents once these are dropped.
+     */
+    private static long retainedHeap(Collector collector) throws Exception {
+        long before = usedHeap();
+        List<Object> retained = new ArrayList<>();
+        for (int i = 0; i < COPIES; i++) {
+            retained.add(collector.collect(readGherkinDocuments()));
+        }
+        long after = usedHeap();
+        assertThat(retained).hasSize(COPIES);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<Envelope> readGherkinDocuments() throws IOException {
+        List<Envelope> documents = new ArrayList<>();
+        for (Path source : sources()) {
+            try (InputStream in = Files.newInputStream(source);
+                 NdjsonToMessageReader reader = new NdjsonToMessageReader(in, deserializer::readValue)) {
+                reader.lines()
+                        .filter(envelope -> envelope.getGherkinDocument().isPresent())
+                        .forEach(documents::add);
+            }
+        }
+        return documents;
+    }
+
+    private static List<Path> sources() throws IOException {
+        try (Stream<Path> paths = Files.list(Paths.get("../testdata/src"))) {
+            return paths
+                    .filter(path -> path.getFileName().toString().endsWith(".ndjson"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Collector {
+        Object collect(List<Envelope> envelopes) throws IOException;
+    }
+}